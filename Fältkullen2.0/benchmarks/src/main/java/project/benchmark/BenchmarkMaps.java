@@ -0,0 +1,61 @@
+/* Maps and unit placements shared by the benchmarks. Everything is generated from fixed seeds so every run of a
+ * benchmark measures the same state.
+ */
+
+package project.benchmark;
+
+import project.sim.Simulation;
+import project.sim.TerrainGrid;
+import project.sim.TerrainPalette;
+
+import java.util.SplittableRandom;
+
+final class BenchmarkMaps {
+    static final long SEED = 1;
+
+    // the terrain raster is never made finer than this many cells a side, the same limit used for imported maps
+    private static final int MAX_CELLS_PER_SIDE = 2048;
+
+    private BenchmarkMaps(){
+    }
+
+    /**
+     * A map of the given size ("1920x1080") with round lakes spread over it, about a fifth of it water
+     */
+    static TerrainGrid terrain(String size){
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+
+        int cellSize = Math.max(1, (Math.max(width, height) + MAX_CELLS_PER_SIDE - 1) / MAX_CELLS_PER_SIDE);
+        int columns = (width + cellSize - 1) / cellSize;
+        int rows = (height + cellSize - 1) / cellSize;
+
+        // one lake in every 400x400 pixel square of the map
+        int[] argb = new int[columns * rows];
+        double lakeSpacing = 400, lakeRadius = 100;
+        for(int row = 0; row < rows; row++){
+            for(int column = 0; column < columns; column++){
+                double x = (column + 0.5) * cellSize % lakeSpacing - lakeSpacing / 2;
+                double y = (row + 0.5) * cellSize % lakeSpacing - lakeSpacing / 2;
+                boolean water = x * x + y * y < lakeRadius * lakeRadius;
+                argb[row * columns + column] = water ? 0xFF2060FF : 0xFF60A040;
+            }
+        }
+        return TerrainGrid.fromCellPixels(argb, columns, rows, cellSize, width, height, TerrainPalette.standard());
+    }
+
+    /**
+     * Positions that are inside the map for a whole unit, as {x0, y0, x1, y1, ...}
+     */
+    static double[] positions(TerrainGrid terrain, int count, long seed){
+        SplittableRandom random = new SplittableRandom(seed);
+        double half = Simulation.UNIT_SIZE / 2;
+        double[] positions = new double[count * 2];
+        for(int i = 0; i < count; i++){
+            positions[2 * i] = random.nextDouble(half, terrain.getWidth() - half);
+            positions[2 * i + 1] = random.nextDouble(half, terrain.getHeight() - half);
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,74 @@
+/* How long it takes to find an enemy in contact with every unit of one side, the check made after every step of a
+ * unit on a move order. Both sides are spread evenly over the map, so the number of contacts grows with the density
+ * of units the same way it would in a scenario.
+ */
+
+package project.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project.sim.Simulation;
+import project.sim.SpatialGrid;
+import project.sim.TerrainGrid;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int units;
+
+    @Param({"1920x1080", "20000x20000"})
+    public String mapSize;
+
+    // friendly units are checked against the grid of the enemy units
+    private double[] friends;
+    private double[] enemies;
+    private SpatialGrid enemyGrid;
+
+    @Setup
+    public void placeUnits(){
+        TerrainGrid terrain = BenchmarkMaps.terrain(mapSize);
+        friends = BenchmarkMaps.positions(terrain, units / 2, BenchmarkMaps.SEED);
+        enemies = BenchmarkMaps.positions(terrain, units - units / 2, BenchmarkMaps.SEED + 1);
+
+        enemyGrid = new SpatialGrid(terrain.getWidth(), terrain.getHeight(), Simulation.UNIT_SIZE, new SpatialGrid.PositionSource() {
+            @Override
+            public double getX(int id) {
+                return enemies[2 * id];
+            }
+
+            @Override
+            public double getY(int id) {
+                return enemies[2 * id + 1];
+            }
+        });
+        for(int id = 0; id * 2 < enemies.length; id++){
+            enemyGrid.insert(id, enemies[2 * id], enemies[2 * id + 1]);
+        }
+    }
+
+    @Benchmark
+    public int findContacts(){
+        int contacts = 0;
+        for(int i = 0; i < friends.length; i += 2){
+            if(enemyGrid.findOverlapping(friends[i], friends[i + 1], Simulation.UNIT_SIZE, id -> true) != -1) contacts++;
+        }
+        return contacts;
+    }
+}
@@ -0,0 +1,70 @@
+/* How long one tick of the simulation takes when every unit is walking, which covers the movement step, the water and
+ * map edge checks under every step and moving the unit in its spatial grid. Half of the units walk on a move order,
+ * the other half under manual (keyboard) control.
+ */
+
+package project.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project.sim.Side;
+import project.sim.Simulation;
+import project.sim.TerrainGrid;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MovementBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int units;
+
+    @Param({"1920x1080", "20000x20000"})
+    public String mapSize;
+
+    private TerrainGrid terrain;
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void createMap(){
+        terrain = BenchmarkMaps.terrain(mapSize);
+    }
+
+    // a fresh simulation every iteration, so no iteration measures units that have already stopped at their goal
+    @Setup(Level.Iteration)
+    public void placeUnits(){
+        simulation = new Simulation(terrain);
+        SplittableRandom random = new SplittableRandom(BenchmarkMaps.SEED);
+        double[] starts = BenchmarkMaps.positions(terrain, units, BenchmarkMaps.SEED);
+        double[] goals = BenchmarkMaps.positions(terrain, units, BenchmarkMaps.SEED + 1);
+
+        // only one side, so no unit stops because it walked into an enemy
+        for(int i = 0; i < units; i++){
+            int id = simulation.addUnit(starts[2 * i], starts[2 * i + 1], Side.friend);
+            if(i % 2 == 0) simulation.orderMoveTo(id, goals[2 * i], goals[2 * i + 1]);
+            else simulation.setManualInput(id, random.nextInt(3) - 1, random.nextInt(3) - 1, random.nextBoolean());
+        }
+    }
+
+    @Benchmark
+    public long tick(){
+        simulation.tick();
+        return simulation.getTickCount();
+    }
+}
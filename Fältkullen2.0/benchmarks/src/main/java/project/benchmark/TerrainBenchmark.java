@@ -0,0 +1,66 @@
+/* How long the checks made under every step of every unit take: is a position water, and is a unit at a position
+ * inside the map. Each invocation checks a fixed set of random positions, so the time is per check.
+ */
+
+package project.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project.sim.Simulation;
+import project.sim.TerrainGrid;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerrainBenchmark {
+    private static final int POSITIONS = 4096;
+
+    @Param({"1920x1080", "20000x20000"})
+    public String mapSize;
+
+    private TerrainGrid terrain;
+    private Simulation simulation;
+    private double[] positions;
+
+    @Setup
+    public void createMap(){
+        terrain = BenchmarkMaps.terrain(mapSize);
+        simulation = new Simulation(terrain);
+        positions = BenchmarkMaps.positions(terrain, POSITIONS, BenchmarkMaps.SEED);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int isWater(){
+        int water = 0;
+        for(int i = 0; i < positions.length; i += 2){
+            if(terrain.isWater(positions[i], positions[i + 1])) water++;
+        }
+        return water;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int isInMap(){
+        int inside = 0;
+        for(int i = 0; i < positions.length; i += 2){
+            if(simulation.isInMap(positions[i], positions[i + 1])) inside++;
+        }
+        return inside;
+    }
+}
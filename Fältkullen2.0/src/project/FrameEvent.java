@@ -0,0 +1,28 @@
+/* A flight recorder event for every frame of the simulation loop: ticking the simulation and moving or drawing the
+ * units. Together with the javafx pulse and the garbage collections in the same recording it shows which of them a
+ * stutter comes from.
+ */
+
+package project;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("project.Frame")
+@Label("Map Frame")
+@Category({"Fältkullen", "Rendering"})
+@Description("One frame of the simulation loop, ticks and updating the units on the map")
+class FrameEvent extends Event {
+    @Label("Ticks")
+    @Description("Simulation ticks run in this frame")
+    int ticks;
+
+    @Label("Units")
+    int units;
+
+    @Label("Canvas Rendering")
+    boolean canvasRendering;
+}
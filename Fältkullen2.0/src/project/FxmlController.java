@@ -17,6 +17,10 @@ import javafx.fxml.FXML;
 import javafx.geometry.Insets;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.Slider;
 import javafx.scene.control.Tab;
 import javafx.scene.effect.Bloom;
@@ -26,6 +30,8 @@ import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.util.Duration;
+import project.sim.Simulation;
+import project.sim.SimulationClock;
 
 public class FxmlController {
 
@@ -36,6 +42,20 @@ public class FxmlController {
     @FXML Button redBtn;
     @FXML Button addUnitBtn;
     @FXML Button moveUnitBtn;
+    @FXML CheckBox canvasRenderingBox;
+    @FXML CheckBox influenceBox;
+    @FXML CheckBox performanceBox;
+    @FXML ChoiceBox<String> speedBox;
+    @FXML CheckBox pauseBox;
+    @FXML CheckBox enemyAiBox;
+    @FXML ChoiceBox<Simulation.Snapshot> snapshotBox;
+    @FXML CheckBox recordBox;
+    @FXML Slider replaySlider;
+    @FXML Label performanceLabel;
+    @FXML VBox mapImportBox;
+    @FXML Label mapImportLabel;
+    @FXML ProgressBar mapImportBar;
+    @FXML ImageView mapPreview;
 
     // Objects related to the tabmenu
     @FXML AnchorPane tabmenu;
@@ -66,6 +86,9 @@ public class FxmlController {
         setUpCustomTabTransitions();
         setUpCustomTabsClicked();
         addZoomablePane();
+        setUpSpeedChoice();
+        setUpReplayControls();
+        setUpMapImportProgress();
     }
 
     public void addZoomablePane(){
@@ -82,6 +105,144 @@ public class FxmlController {
         zpt.changeMap();
     }
 
+    /**
+     * Saves the map, the units and their orders to a scenario file chosen by the user
+     */
+    public void saveScenario(){
+        zpt.saveScenario();
+    }
+
+    /**
+     * Opens a scenario file chosen by the user, replacing the map and all units
+     */
+    public void openScenario(){
+        zpt.openScenario();
+    }
+
+    /**
+     * Switches between drawing units on one canvas (faster with many units) and as separate images on the map
+     */
+    public void toggleCanvasRendering(){
+        zpt.setCanvasRendering(canvasRenderingBox.isSelected());
+    }
+
+    // helper method, lets the user choose how fast the simulation runs compared to real time
+    private void setUpSpeedChoice(){
+        speedBox.getItems().addAll("1x", "10x", "100x", "max");
+        speedBox.setValue("1x");
+        speedBox.valueProperty().addListener((observable, oldValue, newValue) -> {
+            if(newValue.equals("max")) zpt.setSimulationSpeed(SimulationClock.AS_FAST_AS_POSSIBLE);
+            else zpt.setSimulationSpeed(Double.parseDouble(newValue.substring(0, newValue.length() - 1)));
+        });
+    }
+
+    /**
+     * Stops or restarts the simulation, the map can still be moved around and units given orders while it is paused
+     */
+    public void togglePause(){
+        zpt.setPaused(pauseBox.isSelected());
+    }
+
+    /**
+     * Lets the computer give the enemy units orders, or stops it
+     */
+    public void toggleEnemyAi(){
+        zpt.setEnemyAi(enemyAiBox.isSelected());
+    }
+
+    /**
+     * Saves the current state of all units so the simulation can be rewound to it later
+     */
+    public void takeSnapshot(){
+        Simulation.Snapshot snapshot = zpt.takeSnapshot();
+        snapshotBox.getItems().add(snapshot);
+        snapshotBox.setValue(snapshot);
+    }
+
+    /**
+     * Puts all units back where they were when the chosen snapshot was taken
+     */
+    public void rewindToSnapshot(){
+        Simulation.Snapshot snapshot = snapshotBox.getValue();
+        if(snapshot == null) return;
+
+        // snapshots from another map can not be used any more
+        if(!zpt.restoreSnapshot(snapshot)){
+            snapshotBox.getItems().clear();
+        }
+    }
+
+    /**
+     * Starts recording the session to a file chosen by the user, or stops recording
+     */
+    public void toggleRecording(){
+        if(!recordBox.isSelected()){
+            zpt.stopRecording();
+            return;
+        }
+
+        if(!zpt.startRecording()) recordBox.setSelected(false);
+    }
+
+    /**
+     * Plays back a recorded session chosen by the user
+     */
+    public void openReplay(){
+        zpt.openReplay();
+    }
+
+    /**
+     * Stops playing back, and lets the session go on from where the replay is
+     */
+    public void takeOverReplay(){
+        zpt.takeOverReplay();
+    }
+
+    public void jumpToNextContact(){
+        zpt.jumpToNextContact();
+    }
+
+    // helper method
+    private void setUpReplayControls(){
+        zpt.setReplaySlider(replaySlider);
+
+        // the recording can also end by itself, e.g. when another map is loaded
+        zpt.recordingProperty().addListener((observable, oldValue, newValue) -> recordBox.setSelected(newValue));
+    }
+
+    // helper method, shows how far a map being imported has come and a preview of it, while one is
+    private void setUpMapImportProgress(){
+        zpt.mapImportProperty().addListener((observable, oldImport, newImport) -> {
+            mapImportLabel.textProperty().unbind();
+            mapImportBar.progressProperty().unbind();
+            mapPreview.imageProperty().unbind();
+            mapImportBox.setVisible(newImport != null);
+            mapImportBox.setManaged(newImport != null);
+            if(newImport == null) return;
+
+            mapImportLabel.textProperty().bind(newImport.messageProperty());
+            mapImportBar.progressProperty().bind(newImport.progressProperty());
+            mapPreview.imageProperty().bind(newImport.previewProperty());
+        });
+    }
+
+    /**
+     * Shows or hides the heat map of which side dominates where
+     */
+    public void toggleInfluence(){
+        zpt.setInfluenceShown(influenceBox.isSelected());
+    }
+
+    /**
+     * Shows or hides the live tick and frame times, for finding out what makes the map stutter
+     */
+    public void togglePerformanceOverlay(){
+        boolean shown = performanceBox.isSelected();
+        performanceLabel.setVisible(shown);
+        performanceLabel.setText("");
+        zpt.setPerformanceOverlay(shown ? new PerformanceOverlay(performanceLabel) : null);
+    }
+
     public void pressBlueBtn(){
         isFriendlySelected = true;
         blueBtn.setEffect(new Glow(0.6));
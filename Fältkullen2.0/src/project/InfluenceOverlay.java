@@ -0,0 +1,93 @@
+/* Shows the influence map of the simulation as a heat map over the map: blue where the friendly side dominates, red
+ * where the enemy does, the stronger the more it dominates. The image has one pixel per cell of the influence map and
+ * is laid in the map pane, scaled up to the size of the map, so it zooms and moves with it.
+ *
+ * Every frame only the tiles of the influence map that changed are written to the image again. The enemy's influence
+ * is only shown where a friendly unit can see, which changes without the influence changing, so a few tiles are also
+ * redrawn every frame in turn and the picture catches up with what is seen within a moment.
+ */
+
+package project;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import project.sim.InfluenceMap;
+import project.sim.Side;
+import project.sim.Simulation;
+import project.sim.Visibility;
+
+import java.util.BitSet;
+
+public class InfluenceOverlay extends ImageView {
+    // the lead in influence that gives the strongest color
+    private static final double FULL_INFLUENCE = 2;
+    private static final double MAX_OPACITY = 0.6;
+
+    private static final int FRIEND_RGB = 0x3060FF, ENEMY_RGB = 0xFF3030;
+
+    // how many tiles are redrawn every frame whether they changed or not
+    private static final int REFRESH_TILES_PER_FRAME = 8;
+
+    // the influence map the image shows, it is replaced when the simulation gets another map
+    private InfluenceMap shown;
+    private WritableImage image;
+    private final int[] pixels = new int[InfluenceMap.TILE_CELLS * InfluenceMap.TILE_CELLS];
+    private int nextRefresh = 0;
+
+    public InfluenceOverlay(){
+        setMouseTransparent(true);
+        setManaged(false);
+        setSmooth(true);
+    }
+
+    /**
+     * Redraws the parts of the heat map that have changed. Called once per frame.
+     */
+    public void update(Simulation simulation){
+        InfluenceMap influence = simulation.getInfluenceMap();
+        BitSet dirty = influence.takeDirtyTiles();
+        int tiles = influence.getTileColumns() * influence.getTileRows();
+
+        if(influence != shown){
+            shown = influence;
+            image = new WritableImage(influence.getColumns(), influence.getRows());
+            setImage(image);
+            setFitWidth(influence.getColumns() * InfluenceMap.CELL_SIZE);
+            setFitHeight(influence.getRows() * InfluenceMap.CELL_SIZE);
+            dirty.set(0, tiles);
+            nextRefresh = 0;
+        }
+
+        for(int i = 0; i < Math.min(REFRESH_TILES_PER_FRAME, tiles); i++){
+            dirty.set(nextRefresh);
+            nextRefresh = (nextRefresh + 1) % tiles;
+        }
+        for(int tile = dirty.nextSetBit(0); tile >= 0; tile = dirty.nextSetBit(tile + 1)){
+            drawTile(influence, simulation.getVisibility(), tile);
+        }
+    }
+
+    // helper method, writes the pixels of one tile of the influence map
+    private void drawTile(InfluenceMap influence, Visibility visibility, int tile){
+        int fromColumn = (tile % influence.getTileColumns()) * InfluenceMap.TILE_CELLS;
+        int fromRow = (tile / influence.getTileColumns()) * InfluenceMap.TILE_CELLS;
+        int width = Math.min(InfluenceMap.TILE_CELLS, influence.getColumns() - fromColumn);
+        int height = Math.min(InfluenceMap.TILE_CELLS, influence.getRows() - fromRow);
+
+        for(int row = 0; row < height; row++){
+            for(int column = 0; column < width; column++){
+                int cell = (fromRow + row) * influence.getColumns() + fromColumn + column;
+                double x = (fromColumn + column + 0.5) * InfluenceMap.CELL_SIZE;
+                double y = (fromRow + row + 0.5) * InfluenceMap.CELL_SIZE;
+
+                double control = influence.getCellInfluence(Side.friend, cell);
+                if(visibility.isVisible(Side.friend, x, y)) control -= influence.getCellInfluence(Side.enemy, cell);
+
+                int alpha = (int) (255 * MAX_OPACITY * Math.min(1, Math.abs(control) / FULL_INFLUENCE));
+                pixels[row * width + column] = (alpha << 24) | (control >= 0 ? FRIEND_RGB : ENEMY_RGB);
+            }
+        }
+        image.getPixelWriter().setPixels(fromColumn, fromRow, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+    }
+}
@@ -6,15 +6,26 @@
 
 package project;
 
-import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.scene.control.Alert;
 import javafx.stage.FileChooser;
+import project.sim.Journal;
+import project.sim.Replay;
+import project.sim.ScenarioFile;
+import project.sim.Simulation;
 
-import java.io.FileInputStream;
+import java.io.File;
+import java.io.IOException;
 
 public class IoControl {
+    public static final String SCENARIO_EXTENSION = ".fksc";
+    public static final String JOURNAL_EXTENSION = ".fkjr";
 
-    public Image changeMapImage(){
+    /**
+     * Lets the user pick an image to use as map. Only .jpg and .png images are accepted.
+     * @return the chosen file, or null if none was chosen
+     */
+    public File chooseMapFile(){
 
         // Create file chooser
         FileChooser fc = new FileChooser();
@@ -22,14 +33,133 @@ public class IoControl {
         FileChooser.ExtensionFilter jpg = new FileChooser.ExtensionFilter("jpg", "*.jpg");
         fc.getExtensionFilters().addAll(png,jpg);
 
-        // Attempt to change image to new one
+        return fc.showOpenDialog(Main.stage);
+    }
+
+    /**
+     * Lets the user pick a scenario file, to open or to save to
+     * @param save true if the scenario is going to be saved, which lets the user type a new file name
+     * @return the chosen file, or null if none was chosen
+     */
+    public File chooseScenarioFile(boolean save){
+        FileChooser fc = new FileChooser();
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("scenario", "*" + SCENARIO_EXTENSION));
+
+        return save ? fc.showSaveDialog(Main.stage) : fc.showOpenDialog(Main.stage);
+    }
+
+    /**
+     * Saves the map, units and orders of a simulation
+     * @param mapReference which map the simulation is played on, e.g. the path of the map image
+     * @return true if the scenario was saved, otherwise the user has been told why not
+     */
+    public boolean saveScenario(File file, Simulation simulation, String mapReference){
+        if(!file.getName().endsWith(SCENARIO_EXTENSION)) file = new File(file.getPath() + SCENARIO_EXTENSION);
         try {
-            String newImagePath = fc.showOpenDialog(Main.stage).getAbsolutePath();
-            Image source = new Image(new FileInputStream(newImagePath), 1920, 1080,true, false);
-            return source;
-        } catch (Exception e) {
-            e.getMessage();
+            ScenarioFile.write(file.toPath(), simulation, mapReference);
+            return true;
+        } catch (IOException e) {
+            showError("Could not save scenario: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Opens a saved scenario
+     * @return the scenario, or null if the file could not be read, which the user has been told
+     */
+    public ScenarioFile loadScenario(File file){
+        try {
+            return ScenarioFile.read(file.toPath());
+        } catch (IOException e) {
+            showError("Could not open scenario: " + e.getMessage());
             return null;
         }
     }
+
+    /**
+     * Lets the user pick a journal file, to record a session to or to play back
+     * @param save true if a session is going to be recorded, which lets the user type a new file name
+     * @return the chosen file, or null if none was chosen
+     */
+    public File chooseJournalFile(boolean save){
+        FileChooser fc = new FileChooser();
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("recorded session", "*" + JOURNAL_EXTENSION));
+
+        return save ? fc.showSaveDialog(Main.stage) : fc.showOpenDialog(Main.stage);
+    }
+
+    /**
+     * Starts recording everything that happens in a simulation
+     * @param mapReference which map the simulation is played on, e.g. the path of the map image
+     * @return the journal the session is recorded to, or null if the file could not be created, which the user has
+     * been told
+     */
+    public Journal startJournal(File file, Simulation simulation, String mapReference){
+        if(!file.getName().endsWith(JOURNAL_EXTENSION)) file = new File(file.getPath() + JOURNAL_EXTENSION);
+        try {
+            return Journal.start(file.toPath(), simulation, mapReference);
+        } catch (IOException e) {
+            showError("Could not start recording: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stops recording a session
+     * @return true if all of the session was saved, otherwise the user has been told why not
+     */
+    public boolean closeJournal(Journal journal){
+        try {
+            journal.close();
+            return true;
+        } catch (IOException e) {
+            showError("Could not save the recorded session: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Opens a recorded session for playing back
+     * @return the replay, or null if the file could not be read, which the user has been told
+     */
+    public Replay openReplay(File file){
+        try {
+            return Replay.open(file.toPath());
+        } catch (IOException e) {
+            showError("Could not open recorded session: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts importing an image as a map on a background thread: it is cut into tiles at several zoom levels and, if
+     * asked for, its terrain is read from them. The tiles are cached on disk, so importing the same file again is quick.
+     * @param readsTerrain false if only the tiles are needed
+     * @return the running import, whose value is the tiled map once it has succeeded. If it fails the user is told why.
+     */
+    public MapImport startMapImport(File image, boolean readsTerrain){
+        MapImport mapImport = new MapImport(image, readsTerrain);
+        mapImport.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, event -> {
+            // e.g. an image that can not be decoded, which does not always come with a message
+            Throwable cause = mapImport.getException();
+            String reason = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            showError("Could not import " + image.getName() + " as a map: " + reason);
+        });
+
+        Thread thread = new Thread(mapImport, "map-import");
+        thread.setDaemon(true);
+        thread.start();
+        return mapImport;
+    }
+
+    /**
+     * Tells the user that something went wrong, in a dialog over the main window. Does not wait for it to be closed.
+     */
+    public void showError(String message){
+        Alert alert = new Alert(Alert.AlertType.ERROR, message);
+        alert.initOwner(Main.stage);
+        alert.setHeaderText(null);
+        alert.show();
+    }
 }
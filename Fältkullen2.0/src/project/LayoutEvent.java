@@ -0,0 +1,20 @@
+/* A flight recorder event for every layout of the zooming pane, which happens when the map is zoomed or resized.
+ */
+
+package project;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("project.Layout")
+@Label("Map Layout")
+@Category({"Fältkullen", "Rendering"})
+class LayoutEvent extends Event {
+    @Label("Width")
+    double width;
+
+    @Label("Height")
+    double height;
+}
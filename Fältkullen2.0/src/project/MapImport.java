@@ -0,0 +1,163 @@
+/* Imports an image as a map on a background thread, so the window stays responsive however big the image is. The
+ * image is decoded one band at a time while it is cut into tiles, and every band is drawn into a small preview as it
+ * comes in, so the map can be seen filling in long before it is done. Last the terrain is classified from the tiles.
+ *
+ * Nothing of the current map is touched here: the tiles and terrain are handed over as the value of the task, and the
+ * map is swapped for them in one go on the javafx thread once the import has succeeded.
+ */
+
+package project;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import project.sim.TerrainGrid;
+import project.sim.TerrainPalette;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+public class MapImport extends Task<MapImport.Result> {
+    // the preview is at most this many pixels wide and high
+    private static final int PREVIEW_SIZE = 256;
+
+    // how much of the progress is reading the terrain, the rest is cutting the tiles
+    private static final double TERRAIN_SHARE = 0.1;
+
+    private final File image;
+    private final boolean readsTerrain;
+
+    private final ReadOnlyObjectWrapper<Image> preview = new ReadOnlyObjectWrapper<>();
+
+    // what the preview is drawn into on the background thread, and the height of the image it is a preview of
+    private BufferedImage previewImage;
+    private int imageHeight;
+
+    /**
+     * What an import made: the tiles of the map, and its terrain if that was asked for
+     */
+    public static final class Result {
+        private final File image;
+        private final TilePyramid pyramid;
+        private final TerrainGrid terrain;
+
+        private Result(File image, TilePyramid pyramid, TerrainGrid terrain){
+            this.image = image;
+            this.pyramid = pyramid;
+            this.terrain = terrain;
+        }
+
+        public File getImage(){
+            return image;
+        }
+
+        public TilePyramid getPyramid(){
+            return pyramid;
+        }
+
+        /**
+         * @return the terrain of the map, or null if the import was made without reading it
+         */
+        public TerrainGrid getTerrain(){
+            return terrain;
+        }
+    }
+
+    /**
+     * @param readsTerrain false if only the tiles are needed, e.g. for a scenario that has its terrain saved with it
+     */
+    public MapImport(File image, boolean readsTerrain){
+        this.image = image;
+        this.readsTerrain = readsTerrain;
+        updateTitle(image.getName());
+    }
+
+    /**
+     * @return a small picture of the map, filled in as the image is decoded. Null until the first of it is ready.
+     * Changes on the javafx thread.
+     */
+    public ReadOnlyObjectProperty<Image> previewProperty(){
+        return preview.getReadOnlyProperty();
+    }
+
+    @Override
+    protected Result call() throws Exception{
+        double tilesShare = readsTerrain ? 1 - TERRAIN_SHARE : 1;
+
+        // a pyramid from the cache comes back right away without the listener being called
+        updateMessage("Decoding " + image.getName());
+        TilePyramid pyramid = TilePyramid.forImage(image, new TilePyramid.BuildListener() {
+            @Override
+            public void started(int width, int height){
+                startPreview(width, height);
+                updateMessage("Cutting " + image.getName() + " into tiles");
+            }
+
+            @Override
+            public void decoded(BufferedImage band, int y){
+                drawPreviewBand(band, y);
+            }
+
+            @Override
+            public void progress(double done){
+                updateProgress(done * tilesShare, 1);
+            }
+        });
+
+        // the last level is the whole map in a single tile, a better preview than the one drawn from the bands
+        showPreview(pyramid.readPreview());
+        updateProgress(tilesShare, 1);
+
+        TerrainGrid terrain = null;
+        if(readsTerrain){
+            updateMessage("Classifying the terrain");
+            terrain = TerrainLoader.fromPyramid(pyramid, TerrainPalette.forMap(image.toPath()));
+        }
+        updateProgress(1, 1);
+        return new Result(image, pyramid, terrain);
+    }
+
+    // helper method, sets up the preview for an image of the given size
+    private void startPreview(int width, int height){
+        double scale = Math.min(1, PREVIEW_SIZE / (double) Math.max(width, height));
+        imageHeight = height;
+        previewImage = new BufferedImage(Math.max(1, (int) Math.round(width * scale)),
+                Math.max(1, (int) Math.round(height * scale)), BufferedImage.TYPE_INT_ARGB);
+    }
+
+    // helper method, draws a decoded band of the image scaled down into the preview and shows what there is so far
+    private void drawPreviewBand(BufferedImage band, int y){
+        if(previewImage == null) return;
+
+        // (the rows are rounded the same way at both edges of a band, so neighbouring bands meet without a gap)
+        int top = (int) ((long) y * previewImage.getHeight() / imageHeight);
+        int bottom = (int) ((long) (y + band.getHeight()) * previewImage.getHeight() / imageHeight);
+        if(bottom <= top) return;
+
+        Graphics2D g = previewImage.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(band, 0, top, previewImage.getWidth(), bottom - top, null);
+        g.dispose();
+        showPreview(previewImage);
+    }
+
+    // helper method, hands a copy of the preview's pixels to the javafx thread, which owns the image that is shown
+    private void showPreview(BufferedImage picture){
+        int width = picture.getWidth(), height = picture.getHeight();
+        int[] pixels = picture.getRGB(0, 0, width, height, null, 0, width);
+
+        Platform.runLater(() -> {
+            Image shown = preview.get();
+            WritableImage target = shown instanceof WritableImage && shown.getWidth() == width && shown.getHeight() == height
+                    ? (WritableImage) shown : new WritableImage(width, height);
+            target.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            preview.set(target);
+        });
+    }
+}
@@ -0,0 +1,75 @@
+/* Shows live numbers about how the simulation and the map are doing in a label: the median and 99th percentile time
+ * of a tick and of a frame, how many units a tick handles, and how fast the javafx thread (which runs both the
+ * simulation and the map) allocates memory. The numbers are over the last half second and are refreshed that often.
+ */
+
+package project;
+
+import javafx.scene.control.Label;
+import project.sim.Simulation;
+import project.sim.TimeHistogram;
+
+import java.lang.management.ManagementFactory;
+
+public class PerformanceOverlay {
+    private static final long REFRESH_NANOS = 500_000_000L;
+
+    private final Label label;
+    private final TimeHistogram frameTimes = new TimeHistogram();
+
+    // null if this JVM can not tell how much a thread has allocated
+    private final com.sun.management.ThreadMXBean threads;
+    private long lastRefresh = -1;
+    private long lastAllocatedBytes;
+
+    public PerformanceOverlay(Label label){
+        this.label = label;
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()){
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        else{
+            threads = null;
+        }
+    }
+
+    /**
+     * Counts one frame of the simulation loop, and shows new numbers if it is time to
+     * @param nanos how long the frame took
+     * @param now the time of the frame, as from System.nanoTime()
+     */
+    public void recordFrame(Simulation simulation, long nanos, long now){
+        frameTimes.record(nanos);
+
+        if(lastRefresh < 0){
+            lastRefresh = now;
+            lastAllocatedBytes = allocatedBytes();
+            return;
+        }
+        if(now - lastRefresh < REFRESH_NANOS) return;
+
+        long allocated = allocatedBytes();
+        double seconds = (now - lastRefresh) / 1e9;
+        TimeHistogram tickTimes = simulation.getTickTimes();
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("tick   p50 %.3f ms  p99 %.3f ms%n", tickTimes.getPercentile(50) / 1e6, tickTimes.getPercentile(99) / 1e6));
+        text.append(String.format("frame  p50 %.3f ms  p99 %.3f ms%n", frameTimes.getPercentile(50) / 1e6, frameTimes.getPercentile(99) / 1e6));
+        text.append(String.format("units per tick %d (%d moving)%n", simulation.getLastTickUnits(), simulation.getLastTickMovingUnits()));
+        if(allocated >= 0) text.append(String.format("allocation %.1f MB/s", (allocated - lastAllocatedBytes) / seconds / 1e6));
+        else text.append("allocation not available");
+        label.setText(text.toString());
+
+        tickTimes.reset();
+        frameTimes.reset();
+        lastRefresh = now;
+        lastAllocatedBytes = allocated;
+    }
+
+    // helper method, how much the current thread has allocated in total, or -1 if it is not known
+    private long allocatedBytes(){
+        return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
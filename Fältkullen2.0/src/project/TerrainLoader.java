@@ -0,0 +1,46 @@
+/* Turns a javafx map image into the terrain raster the simulation uses. The pixels are read out of the image once,
+ * here, so nothing has to go through the image's PixelReader while units are moving.
+ */
+
+package project;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import project.sim.TerrainGrid;
+import project.sim.TerrainPalette;
+
+import java.io.IOException;
+
+public class TerrainLoader {
+
+    // the terrain of a tiled map is read from the largest level that has at most this many pixels
+    private static final long MAX_TERRAIN_CELLS = 2048L * 2048L;
+
+    /**
+     * Builds a terrain raster with one cell per pixel of the given map image, with the standard palette
+     */
+    public static TerrainGrid fromImage(Image map){
+        int width = (int) map.getWidth();
+        int height = (int) map.getHeight();
+
+        int[] pixels = new int[width * height];
+        map.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+
+        return TerrainGrid.fromPixels(pixels, width, height, 1);
+    }
+
+    /**
+     * Builds a terrain raster for a tiled map, from the largest level of the pyramid that is not too big. On a big map
+     * every terrain cell then covers several map pixels.
+     * @param palette which terrain class every color of the map stands for
+     */
+    public static TerrainGrid fromPyramid(TilePyramid pyramid, TerrainPalette palette) throws IOException{
+        int level = 0;
+        while(level < pyramid.getLevels() - 1
+                && (long) pyramid.getLevelWidth(level) * pyramid.getLevelHeight(level) > MAX_TERRAIN_CELLS) level++;
+
+        int[] pixels = pyramid.readLevelPixels(level);
+        return TerrainGrid.fromCellPixels(pixels, pyramid.getLevelWidth(level), pyramid.getLevelHeight(level),
+                1 << level, pyramid.getWidth(), pyramid.getHeight(), palette);
+    }
+}
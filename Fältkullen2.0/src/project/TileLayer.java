@@ -0,0 +1,105 @@
+/* Shows a TilePyramid as the map. Only the tiles that are inside the zooming pane are shown, from the level that
+ * matches the current zoom, and they are loaded in the background by javafx so the map can be dragged while they
+ * come in. Loaded tiles are kept in a cache of limited size where the tile that was on screen longest ago is thrown
+ * out first.
+ *
+ * The layer is placed in the map pane so its coordinates are the coordinates of the full size map, the same ones the
+ * units use.
+ */
+
+package project;
+
+import javafx.geometry.Bounds;
+import javafx.scene.Group;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Region;
+import javafx.scene.transform.Scale;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TileLayer extends Group {
+    // how many tiles are kept loaded, a full screen is a few dozen
+    private static final int MAX_LOADED_TILES = 256;
+
+    private final TilePyramid pyramid;
+    private final Region viewport;
+    private int shownLevel = -1;
+
+    // loaded tiles by "level/column/row", in the order they were last on screen
+    private final Map<String, ImageView> tiles = new LinkedHashMap<String, ImageView>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImageView> eldest) {
+            if(size() <= MAX_LOADED_TILES) return false;
+            getChildren().remove(eldest.getValue());
+            return true;
+        }
+    };
+
+    /**
+     * @param viewport the pane the map is seen through, tiles outside of it are not loaded
+     */
+    public TileLayer(TilePyramid pyramid, Region viewport){
+        this.pyramid = pyramid;
+        this.viewport = viewport;
+        setMouseTransparent(true);
+    }
+
+    public TilePyramid getPyramid(){
+        return pyramid;
+    }
+
+    /**
+     * Shows the tiles that are inside the viewport at the given zoom, loading the ones that are missing. Called
+     * whenever the map is zoomed, dragged or resized.
+     */
+    public void updateVisibleTiles(double zoomFactor){
+        if(getScene() == null || getParent() == null) return;
+
+        // one level per halving of the zoom, so a tile pixel is never shown much smaller than a screen pixel
+        int level = 0;
+        while(level < pyramid.getLevels() - 1 && zoomFactor * (1 << (level + 1)) <= 1) level++;
+
+        // the part of the map that is on screen, in full size map pixels
+        Bounds visible = getParent().sceneToLocal(viewport.localToScene(viewport.getLayoutBounds()));
+        if(visible == null) return;
+
+        int tileSize = TilePyramid.TILE_SIZE << level;
+        int firstColumn = Math.max(0, (int) Math.floor(visible.getMinX() / tileSize));
+        int lastColumn = Math.min(pyramid.getColumns(level) - 1, (int) Math.floor(visible.getMaxX() / tileSize));
+        int firstRow = Math.max(0, (int) Math.floor(visible.getMinY() / tileSize));
+        int lastRow = Math.min(pyramid.getRows(level) - 1, (int) Math.floor(visible.getMaxY() / tileSize));
+
+        // tiles of the level that was shown before are kept loaded but hidden
+        if(level != shownLevel){
+            for(ImageView tile : tiles.values()) tile.setVisible(false);
+            shownLevel = level;
+        }
+
+        for(int row = firstRow; row <= lastRow; row++){
+            for(int column = firstColumn; column <= lastColumn; column++){
+                ImageView tile = tiles.get(level + "/" + column + "/" + row);
+                if(tile == null) tile = loadTile(level, column, row);
+                tile.setVisible(true);
+            }
+        }
+    }
+
+    // helper method, starts loading a tile in the background and puts it where it belongs on the full size map
+    private ImageView loadTile(int level, int column, int row){
+        String url = pyramid.getTileFile(level, column, row).toURI().toString();
+        ImageView tile = new ImageView(new Image(url, true));
+
+        int scale = 1 << level;
+        tile.setLayoutX(column * TilePyramid.TILE_SIZE * scale);
+        tile.setLayoutY(row * TilePyramid.TILE_SIZE * scale);
+
+        // scaled around the top left corner, so the size of the image does not need to be known before it has loaded
+        tile.getTransforms().add(new Scale(scale, scale, 0, 0));
+
+        tiles.put(level + "/" + column + "/" + row, tile);
+        getChildren().add(tile);
+        return tile;
+    }
+}
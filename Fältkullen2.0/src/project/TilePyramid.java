@@ -0,0 +1,453 @@
+/* A map image cut into 256x256 tiles at several zoom levels and saved on disk. Level 0 is the image at full size, and
+ * every level after that is half the size of the one before, down to a level that fits in a single tile. This lets
+ * maps that are far too big to load as one image (20000x20000 pixels and more) be shown by only loading the tiles
+ * that are on screen at the current zoom.
+ *
+ * The full image is never held in memory at once: the source file is decoded once from the top down into a buffer that
+ * only holds one band of tile rows, and the tiles of level 0 are written out as soon as their band is complete. Every
+ * other level is built from the four tiles under each of its tiles on the level below. A pyramid that has already been
+ * built for a file is found in the cache folder and used again.
+ *
+ * Building a pyramid for a big image takes a while, so it is meant to be done on a background thread: a BuildListener
+ * is told about every band of the image as it is decoded and how far the build has come, and interrupting the thread
+ * stops the build.
+ */
+
+package project;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+
+public class TilePyramid {
+    public static final int TILE_SIZE = 256;
+
+    // where built pyramids are kept between sessions
+    private static final File CACHE_FOLDER = new File(System.getProperty("user.home"), ".faltkullen/tiles");
+    private static final String INFO_FILE = "pyramid.properties";
+
+    // formats whose readers write decoded rows through the raster of the image they decode into, so they can decode
+    // into an image that only holds one band. Other readers write straight into the arrays of the standard buffers.
+    private static final Set<String> ONE_PASS_FORMATS = Set.of("png", "jpeg");
+
+    private final File folder;
+    private final int width, height, levels;
+
+    /**
+     * Follows the build of a pyramid. Called on the thread that builds it.
+     */
+    public interface BuildListener {
+        /**
+         * Called once the size of the image is known, before anything is decoded
+         */
+        default void started(int width, int height){}
+
+        /**
+         * Called with every band of the image as it is decoded, from the top down. The band is only valid during the
+         * call, its pixels are reused for the next band. For images that turn out not to be stored from the top down,
+         * like progressive JPEGs, the bands may start over from the top once.
+         * @param y the row of the image the band starts at
+         */
+        default void decoded(BufferedImage band, int y){}
+
+        /**
+         * @param done how much of the pyramid has been written, from 0 to 1
+         */
+        default void progress(double done){}
+    }
+
+    // for building without following it
+    private static final BuildListener NO_LISTENER = new BuildListener() {};
+
+    // how many tiles have been written, and how many there are on all levels, to tell the listener about progress
+    private BuildListener listener = NO_LISTENER;
+    private int tilesWritten, tileCount;
+
+    private TilePyramid(File folder, int width, int height, int levels){
+        this.folder = folder;
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    /**
+     * Gets the pyramid for a map image, building it first if it is not already in the cache folder
+     */
+    public static TilePyramid forImage(File image) throws IOException{
+        return forImage(image, NO_LISTENER);
+    }
+
+    /**
+     * Gets the pyramid for a map image like forImage(File), telling the listener how the build goes if it has to be
+     * built. A pyramid found in the cache is returned right away without calling the listener.
+     * @throws InterruptedIOException if the thread is interrupted, which stops the build
+     */
+    public static TilePyramid forImage(File image, BuildListener listener) throws IOException{
+        File folder = new File(CACHE_FOLDER, cacheKey(image));
+        TilePyramid cached = load(folder);
+        if(cached != null) return cached;
+
+        return build(image, folder, listener);
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getLevels(){
+        return levels;
+    }
+
+    /**
+     * @return the width in pixels of the whole map at a level
+     */
+    public int getLevelWidth(int level){
+        return Math.max(1, (int) Math.ceil(width / (double) (1 << level)));
+    }
+
+    /**
+     * @return the height in pixels of the whole map at a level
+     */
+    public int getLevelHeight(int level){
+        return Math.max(1, (int) Math.ceil(height / (double) (1 << level)));
+    }
+
+    public int getColumns(int level){
+        return (getLevelWidth(level) + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public int getRows(int level){
+        return (getLevelHeight(level) + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public File getTileFile(int level, int column, int row){
+        return new File(folder, level + "/" + column + "_" + row + ".png");
+    }
+
+    /**
+     * Reads a whole level into one array of ARGB pixels, row by row. Only sensible for the smaller levels.
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    public int[] readLevelPixels(int level) throws IOException{
+        int levelWidth = getLevelWidth(level);
+        int levelHeight = getLevelHeight(level);
+        int[] pixels = new int[levelWidth * levelHeight];
+
+        for(int row = 0; row < getRows(level); row++){
+            checkInterrupted();
+            for(int column = 0; column < getColumns(level); column++){
+                BufferedImage tile = ImageIO.read(getTileFile(level, column, row));
+                tile.getRGB(0, 0, tile.getWidth(), tile.getHeight(), pixels,
+                        row * TILE_SIZE * levelWidth + column * TILE_SIZE, levelWidth);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * @return the whole map as one small image, the single tile of the last level
+     */
+    public BufferedImage readPreview() throws IOException{
+        return ImageIO.read(getTileFile(levels - 1, 0, 0));
+    }
+
+    // helper method, a folder name that changes if the file is replaced
+    private static String cacheKey(File image){
+        return Integer.toHexString(image.getAbsolutePath().hashCode()) + "-"
+                + Long.toHexString(image.length()) + "-"
+                + Long.toHexString(image.lastModified());
+    }
+
+    // helper method, reads a pyramid that was built before, or returns null if there is none
+    private static TilePyramid load(File folder){
+        File info = new File(folder, INFO_FILE);
+        if(!info.isFile()) return null;
+
+        Properties properties = new Properties();
+        try(InputStream in = new FileInputStream(info)){
+            properties.load(in);
+            return new TilePyramid(folder,
+                    Integer.parseInt(properties.getProperty("width")),
+                    Integer.parseInt(properties.getProperty("height")),
+                    Integer.parseInt(properties.getProperty("levels")));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper method:
+     * Cuts the image into tiles at every level. The info file is written last so a pyramid that was only half built
+     * is never used.
+     */
+    private static TilePyramid build(File image, File folder, BuildListener listener) throws IOException{
+        try(ImageInputStream input = ImageIO.createImageInputStream(image)){
+            if(input == null) throw new IOException("Could not open " + image);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if(!readers.hasNext()) throw new IOException(image + " is not an image format that can be read");
+
+            ImageReader reader = readers.next();
+            try{
+                reader.setInput(input);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                int levels = 1;
+                while(Math.max(width, height) > (TILE_SIZE << (levels - 1))) levels++;
+
+                TilePyramid pyramid = new TilePyramid(folder, width, height, levels);
+                pyramid.listener = listener;
+                for(int level = 0; level < levels; level++){
+                    pyramid.tileCount += pyramid.getColumns(level) * pyramid.getRows(level);
+                }
+                listener.started(width, height);
+
+                pyramid.writeBaseLevel(reader);
+                for(int level = 1; level < levels; level++){
+                    pyramid.writeLevelFromBelow(level);
+                }
+                pyramid.writeInfo();
+                return pyramid;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // helper method, decodes the source and writes out the tiles of level 0. Images in other formats, and images whose
+    // rows are not decoded from the top down, like interlaced PNGs and progressive JPEGs, are read one band at a time.
+    private void writeBaseLevel(ImageReader reader) throws IOException{
+        new File(folder, "0").mkdirs();
+
+        if(!ONE_PASS_FORMATS.contains(reader.getFormatName().toLowerCase()) || !writeBaseLevelInOnePass(reader)){
+            tilesWritten = 0;
+            writeBaseLevelByBands(reader);
+        }
+    }
+
+    /**
+     * Helper method:
+     * Decodes the whole source once into an image the size of the source whose pixels are kept in a buffer of one band
+     * of tile rows, and writes out every band as soon as its last row has been decoded, before the next band overwrites
+     * it.
+     * @return false if the rows did not come from the top down, or the image is too big to address as one image, so
+     * nothing useful was written
+     */
+    private boolean writeBaseLevelInOnePass(ImageReader reader) throws IOException{
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        ColorModel colors = type.getColorModel();
+        DataBuffer pixels = type.getSampleModel(width, TILE_SIZE).createDataBuffer();
+
+        // row y of the image goes to row y % TILE_SIZE of the buffer, which only works if the rows follow each other
+        // without gaps, and if the offsets of the whole image still fit in an int
+        int rowSize = type.getSampleModel(width, 1).createDataBuffer().getSize();
+        if(pixels.getSize() != rowSize * TILE_SIZE) return false;
+        if((long) Math.max(width, rowSize) * height >= Integer.MAX_VALUE) return false;
+
+        SampleModel imageModel = type.getSampleModel(width, height);
+        WritableRaster imageRaster = Raster.createWritableRaster(imageModel, new BandBuffer(pixels), null);
+        BufferedImage image = new BufferedImage(colors, imageRaster, colors.isAlphaPremultiplied(), null);
+        WritableRaster bandRaster = Raster.createWritableRaster(type.getSampleModel(width, TILE_SIZE), pixels, null);
+        BufferedImage band = new BufferedImage(colors, bandRaster, colors.isAlphaPremultiplied(), null);
+
+        BandWriter writer = new BandWriter(band);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(image);
+        checkInterrupted();
+        reader.addIIOReadUpdateListener(writer);
+        try{
+            reader.read(0, param);
+        } finally {
+            reader.removeIIOReadUpdateListener(writer);
+        }
+
+        if(writer.failure != null) throw writer.failure;
+        checkInterrupted();
+        return writer.inOrder && writer.nextRow == height;
+    }
+
+    // helper method, decodes the source one band of tile rows at a time. Every band decodes the source again from the
+    // start, so this is only for images that cannot be decoded from the top down in one pass.
+    private void writeBaseLevelByBands(ImageReader reader) throws IOException{
+        for(int row = 0; row < getRows(0); row++){
+            int bandHeight = Math.min(TILE_SIZE, height - row * TILE_SIZE);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, row * TILE_SIZE, width, bandHeight));
+            checkInterrupted();
+            writeBand(reader.read(0, param), row);
+        }
+    }
+
+    // helper method, writes out the tiles of one band of level 0
+    private void writeBand(BufferedImage band, int row) throws IOException{
+        listener.decoded(band, row * TILE_SIZE);
+
+        for(int column = 0; column < getColumns(0); column++){
+            int tileWidth = Math.min(TILE_SIZE, width - column * TILE_SIZE);
+            ImageIO.write(band.getSubimage(column * TILE_SIZE, 0, tileWidth, band.getHeight()), "png", getTileFile(0, column, row));
+        }
+        tileWritten(getColumns(0));
+    }
+
+    /**
+     * The pixels of an image the size of the source, kept in the buffer of a single band: the offset of a pixel in
+     * the image is taken modulo the size of the band, so row y of the image is row y % TILE_SIZE of the band.
+     */
+    private static class BandBuffer extends DataBuffer {
+        private final DataBuffer band;
+
+        BandBuffer(DataBuffer band){
+            super(band.getDataType(), band.getSize(), band.getNumBanks());
+            this.band = band;
+        }
+
+        @Override
+        public int getElem(int bank, int i){
+            return band.getElem(bank, i % band.getSize());
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val){
+            band.setElem(bank, i % band.getSize(), val);
+        }
+    }
+
+    /**
+     * Writes out a band as soon as the reader reports its last row. Stops the reader if the rows do not come in order
+     * from the top down, if writing a tile fails, or if the thread is interrupted.
+     */
+    private class BandWriter implements IIOReadUpdateListener {
+        private final BufferedImage band;
+        private int nextRow;
+        private boolean inOrder = true;
+        private IOException failure;
+
+        BandWriter(BufferedImage band){
+            this.band = band;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands){
+            // (a band is written before the next one starts, so an update may not reach past the end of its band)
+            int bandEnd = Math.min(TilePyramid.this.height, (nextRow / TILE_SIZE + 1) * TILE_SIZE);
+            if(minY != nextRow || periodY != 1 || minY + height > bandEnd){
+                inOrder = false;
+                source.abort();
+                return;
+            }
+
+            nextRow += height;
+            if(nextRow == bandEnd){
+                int row = (bandEnd - 1) / TILE_SIZE;
+                BufferedImage written = band;
+                if(bandEnd - row * TILE_SIZE < TILE_SIZE) written = band.getSubimage(0, 0, band.getWidth(), bandEnd - row * TILE_SIZE);
+                try{
+                    writeBand(written, row);
+                } catch (IOException e) {
+                    failure = e;
+                    source.abort();
+                }
+            }
+            if(Thread.currentThread().isInterrupted()) source.abort();
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass, int minX,
+                                int minY, int periodX, int periodY, int[] bands){}
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image){}
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass, int maxPass,
+                                         int minX, int minY, int periodX, int periodY, int[] bands){}
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands){}
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail){}
+    }
+
+    // helper method, every tile is the four tiles under it on the level below, scaled to half size
+    private void writeLevelFromBelow(int level) throws IOException{
+        new File(folder, Integer.toString(level)).mkdirs();
+        int below = level - 1;
+
+        for(int row = 0; row < getRows(level); row++){
+            checkInterrupted();
+            for(int column = 0; column < getColumns(level); column++){
+                int tileWidth = Math.min(TILE_SIZE, getLevelWidth(level) - column * TILE_SIZE);
+                int tileHeight = Math.min(TILE_SIZE, getLevelHeight(level) - row * TILE_SIZE);
+                BufferedImage tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+
+                Graphics2D g = tile.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                for(int dy = 0; dy < 2; dy++){
+                    for(int dx = 0; dx < 2; dx++){
+                        int childColumn = column * 2 + dx, childRow = row * 2 + dy;
+                        if(childColumn >= getColumns(below) || childRow >= getRows(below)) continue;
+
+                        BufferedImage child = ImageIO.read(getTileFile(below, childColumn, childRow));
+                        g.drawImage(child, dx * TILE_SIZE / 2, dy * TILE_SIZE / 2,
+                                (child.getWidth() + 1) / 2, (child.getHeight() + 1) / 2, null);
+                    }
+                }
+                g.dispose();
+                ImageIO.write(tile, "png", getTileFile(level, column, row));
+            }
+            tileWritten(getColumns(level));
+        }
+    }
+
+    // helper method, counts written tiles and tells the listener how far the build has come
+    private void tileWritten(int count){
+        tilesWritten += count;
+        listener.progress(tilesWritten / (double) tileCount);
+    }
+
+    // helper method, stops a build or read when the thread doing it has been interrupted, e.g. because the import was
+    // cancelled. A half built pyramid has no info file, so it is never used.
+    private static void checkInterrupted() throws InterruptedIOException{
+        if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Interrupted while reading map tiles");
+    }
+
+    // helper method
+    private void writeInfo() throws IOException{
+        Properties properties = new Properties();
+        properties.setProperty("width", Integer.toString(width));
+        properties.setProperty("height", Integer.toString(height));
+        properties.setProperty("levels", Integer.toString(levels));
+        try(OutputStream out = new FileOutputStream(new File(folder, INFO_FILE))){
+            properties.store(out, "Faltkullen map tiles");
+        }
+    }
+}
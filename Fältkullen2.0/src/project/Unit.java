@@ -6,177 +6,200 @@
 
 package project;
 
-import javafx.animation.AnimationTimer;
 import javafx.event.EventHandler;
-import javafx.geometry.Point2D;
+import javafx.scene.Node;
 import javafx.scene.effect.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelReader;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.Pane;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Line;
+import javafx.scene.shape.Polyline;
+import project.sim.FlowField;
+import project.sim.Side;
+import project.sim.Simulation;
 
-import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import static java.lang.Float.floatToIntBits;
-import static java.lang.Float.intBitsToFloat;
+import java.util.Collection;
+import java.util.HashSet;
 
 public class Unit {
     // data about the map
     private Pane map;
-    PixelReader pixelReader;
-    double TOP_EDGE, BOTTOM_EDGE, LEFT_EDGE, RIGHT_EDGE;
+    private Simulation simulation;
 
-    // data about the unit
-    private int xPos, yPos;
+    // data about the unit. Its position and orders are kept in the simulation, this class only shows them on the map
+    private final int id;
     private boolean goNorth, goSouth, goWest, goEast, running;
-    private AnimationTimer timer;
     private boolean isSelectedUnit = false;
-    private boolean hasOrder = false;
     public enum typeOfUnit{
         friend,
         enemy
     }
     typeOfUnit type;
 
-    private Image unitImage;
     private ImageView unitView;
+    private Polyline travelLine;
+    private double[] shownWaypoints;
+    private int shownWaypointIndex;
+
+    // false when the units are drawn on a UnitCanvas instead of having their own nodes in the map
+    private boolean isShownOnMap = true;
+
+    // true once the unit has been disposed of. Paths planned for it in the background can still arrive after that
+    private boolean isRemoved = false;
+
+    // the keyboard handlers the map gets while this unit is selected
+    private final EventHandler<KeyEvent> keyPressed = this::onKeyPressed;
+    private final EventHandler<KeyEvent> keyReleased = this::onKeyReleased;
+
+    // the highlight of selected units, shared by all of them so selecting a whole group creates nothing new
+    private static final DropShadow SELECTED_EFFECT = new DropShadow();
+    static {
+        SELECTED_EFFECT.setRadius(20);
+    }
 
 
     /**
      * Constructor
      * @param content the pane which the unit should be added to
+     * @param simulation the simulation the unit lives in
+     * @param id the id the simulation gave this unit
      */
-    public Unit(Pane content, int x, int y, typeOfUnit type){
+    public Unit(Pane content, Simulation simulation, int id, typeOfUnit type){
         this.type = type;
-
-        // determine what kind of unit this is using the type argument
-        switch(type) {
-            case enemy:
-                unitImage = new Image("https://upload.wikimedia.org/wikipedia/en/thumb/c/ce/Goomba.PNG/220px-Goomba.PNG", 60, 60, true, false);
-                break;
-
-            case friend:
-                unitImage = new Image("http://icons.iconarchive.com/icons/raindropmemory/legendora/64/Hero-icon.png", 60, 60, true, false);
-                break;
-
-                default:
-                    unitImage = new Image("http://icons.iconarchive.com/icons/raindropmemory/legendora/64/Hero-icon.png", 60, 60, true, false);
-        }
+        this.simulation = simulation;
+        this.id = id;
 
         // instantiate variables
         map = content;
-        setMapEdges();
-        xPos = x - (int)(unitImage.getWidth()/2);
-        yPos = y - (int)(unitImage.getHeight()/2);
 
-        unitView = new ImageView(unitImage);
-        unitView.setLayoutX(xPos);
-        unitView.setLayoutY(yPos);
-        unitView.setPickOnBounds(false);
-        pixelReader = map.getBackground().getImages().get(0).getImage().getPixelReader();
+        // the view is one a removed unit left behind if there is one
+        unitView = UnitViewPool.get().takeView(type);
+        updateView();
 
-        // add unit to map
+        // add unit to map, with the line of the order it already has if it was e.g. opened from a scenario file
         map.getChildren().add(unitView);
+        if(simulation.hasOrder(id)) showTravelLine();
+    }
 
-        // timer that constantly checks for WASD movement
-        timer = new AnimationTimer() {
-            @Override
-            public void handle(long now) {
-                if (isSelectedUnit) {
-                    int dx = 0, dy = 0;
-
-                    if (goNorth) dy -= 1;
-                    if (goSouth) dy += 1;
-                    if (goEast) dx += 1;
-                    if (goWest) dx -= 1;
-                    if (running) {
-                        dx *= 3;
-                        dy *= 3;
-                    }
-
-                    moveUnitBy(dx, dy);
-                }
-            }
-        };
-        timer.start();
+    /**
+     * @return the side in the simulation that corresponds to a unit type
+     */
+    public static Side toSide(typeOfUnit type){
+        return type == typeOfUnit.enemy ? Side.enemy : Side.friend;
     }
 
     public void removeUnit(){
-        map.getChildren().remove(unitView);
+        dispose();
+        simulation.removeUnit(id);
     }
 
     /**
-     * This method is ran a bunch of times per second and sligthly adjusts unit position with the distance given as
-     * arguments.
-     * @param dx The distance the unit is moved in the x axis
-     * @param dy The distance the unit is moved in the y axis
+     * Takes the unit off the map and gives its nodes back to be used by other units, but leaves it in the simulation,
+     * e.g. when the simulation is rewound and the units are shown anew. The unit can not be used after this.
      */
-    private void moveUnitBy(double dx, double dy) {
-        if (dx == 0 && dy == 0) return;
+    public void dispose(){
+        if(isRemoved) return;
+        isRemoved = true;
 
-        // calculates the center position of the unit image
-        final double centerX = unitImage.getWidth()  / 2;
-        final double centerY = unitImage.getHeight() / 2;
+        if(isShownOnMap) map.getChildren().remove(unitView);
+        hideTravelLine();
+        UnitViewPool.get().giveBack(unitView, type);
 
-        // calculates the next player position
-        double nextX = centerX + unitView.getLayoutX() + dx;
-        double nextY = centerY + unitView.getLayoutY() + dy;
+        // the map would otherwise keep the unit alive through the keyboard handlers of the last selected unit
+        if(map.getOnKeyPressed() == keyPressed) map.setOnKeyPressed(null);
+        if(map.getOnKeyReleased() == keyReleased) map.setOnKeyReleased(null);
+    }
 
-        // slows the unit down if unit is in water (ie on a blue pixel)
-        if(isInWater(nextX, nextY)) {
-            nextX = centerX + unitView.getLayoutX() + (dx/5.0);
-            nextY = centerY + unitView.getLayoutY() + (dy/5.0);
+    /**
+     * Disposes of many units at once, see dispose(). Their nodes are taken out of the map in one go, which is much
+     * faster than one at a time when there are thousands of them.
+     */
+    public static void disposeAll(Collection<Unit> units){
+        HashSet<Node> nodes = new HashSet<>();
+        Pane map = null;
+        for(Unit unit : units){
+            if(unit.isRemoved || !unit.isShownOnMap) continue;
+            map = unit.map;
+            nodes.add(unit.unitView);
+            if(unit.travelLine != null) nodes.add(unit.travelLine);
         }
+        if(map != null) map.getChildren().removeAll(nodes);
 
-        // makes sure the unit cannot leave the map
-        if (isInMap(nextX, centerX, nextY, centerY)) {
-            unitView.relocate(nextX - centerX, nextY - centerY);
+        for(Unit unit : units){
+            unit.isShownOnMap = false;
+            unit.dispose();
         }
     }
 
     /**
-     * Helper method:
-     * Checks if a position corresponds to a blue pixel on the map
-     * @param x x position to check
-     * @param y y position to check
-     * @return if the pixel at given position is "water"
+     * Decides if this unit has its own nodes in the map pane. When it does not, something else has to draw it.
      */
-    private boolean isInWater(double x, double y){
-        Color color = pixelReader.getColor((int)x, (int)y);
-        return color.getBlue() > 0.92;
+    public void setShownOnMap(boolean shown){
+        if(shown == isShownOnMap || isRemoved) return;
+        isShownOnMap = shown;
+
+        if(shown){
+            map.getChildren().add(unitView);
+            if(travelLine != null) map.getChildren().add(travelLine);
+            updateView();
+        }
+        else{
+            map.getChildren().remove(unitView);
+            if(travelLine != null) map.getChildren().remove(travelLine);
+        }
     }
 
     /**
-     * Helper method:
-     * Checks whether a position is in the map
-     * @return true if position is no outside of map
+     * Moves the graphics of this unit to where the unit is in the simulation. Called once per frame.
      */
-    public boolean isInMap(double nextX, double centerX, double nextY, double centerY){
-        return (
-                nextX - centerX >= LEFT_EDGE &&
-                nextX + centerX <= RIGHT_EDGE &&
-                nextY - centerY >= TOP_EDGE &&
-                nextY + centerY <= BOTTOM_EDGE
-        );
+    public void updateView(){
+        if(isRemoved || !simulation.isAlive(id) || !isShownOnMap) return;
+
+        // calculates the center position of the unit image
+        final double centerX = UnitSprites.SPRITE_SIZE / 2.0;
+        final double centerY = UnitSprites.SPRITE_SIZE / 2.0;
+        unitView.relocate(simulation.getX(id) - centerX, simulation.getY(id) - centerY);
+
+        // enemies are only shown where a friendly unit can see them
+        boolean seen = simulation.isVisibleTo(Side.friend, id);
+        unitView.setVisible(seen);
+        unitView.setOpacity(opacityFor(simulation.getStrength(id)));
+        if(travelLine != null) travelLine.setVisible(seen);
+
+        // orders given without this class, e.g. by a replay, get their line here
+        if(simulation.hasOrder(id) && simulation.getWaypoints(id) != shownWaypoints){
+            showTravelLine();
+            travelLine.setVisible(seen);
+        }
+
+        // update travel line
+        if(travelLine != null){
+            if(simulation.hasOrder(id)){
+                // drop the waypoints that have been passed, then move the start of the line to the unit
+                while(shownWaypointIndex < simulation.getWaypointIndex(id)){
+                    travelLine.getPoints().remove(2, 4);
+                    shownWaypointIndex += 2;
+                }
+                travelLine.getPoints().set(0, simulation.getX(id));
+                travelLine.getPoints().set(1, simulation.getY(id));
+            }
+            else{
+                hideTravelLine();
+            }
+        }
     }
 
-    // helper method
-    private void setMapEdges(){
-        LEFT_EDGE = 0;
-        RIGHT_EDGE = map.getBackground().getImages().get(0).getImage().getWidth();
-        TOP_EDGE = 0;
-        BOTTOM_EDGE = map.getBackground().getImages().get(0).getImage().getHeight();
+    /**
+     * @return how opaque a unit with the given strength is drawn, so units fade as they lose a fight
+     */
+    public static double opacityFor(double strength){
+        return 0.3 + 0.7 * strength;
     }
 
     public void setIsSelectedUnit(boolean selected){
+        if(isRemoved) return;
         if(selected){
             // set an effect so the unit is highlighted
-            DropShadow selectedEffect = new DropShadow();
-            selectedEffect.setRadius(20);
-            unitView.setEffect(selectedEffect); //TODO fixa så effecten inte räknas med i bounds för pixelreader
+            unitView.setEffect(SELECTED_EFFECT); //TODO fixa så effecten inte räknas med i bounds för pixelreader
 
             // set controls so this unit is the one that can be controlled
             updateWASDControls();
@@ -187,6 +210,11 @@ public class Unit {
         else{
             // remove effect
             unitView.setEffect(null);
+
+            // stop any keyboard movement
+            boolean wasMoving = goNorth || goSouth || goWest || goEast || running;
+            goNorth = goSouth = goWest = goEast = running = false;
+            if(wasMoving) sendWASDInput();
         }
         isSelectedUnit = selected;
     }
@@ -199,160 +227,115 @@ public class Unit {
         return unitView;
     }
 
-    public void updateWASDControls(){
-        // set up temporary unit movement
-
-        map.setOnKeyPressed(new EventHandler<KeyEvent>() {
-            @Override
-            public void handle(KeyEvent event) {
-                switch (event.getCode()) {
-                    case W:  goNorth = true; break;
-                    case S:  goSouth = true; break;
-                    case A:  goWest  = true; break;
-                    case D:  goEast  = true; break;
-                    case SHIFT: running = true; break;
-                }
-            }
-        });
-
-        map.setOnKeyReleased(new EventHandler<KeyEvent>() {
-            @Override
-            public void handle(KeyEvent event) {
-                switch (event.getCode()) {
-                    case W:  goNorth = false; break;
-                    case S:  goSouth = false; break;
-                    case A:  goWest  = false; break;
-                    case D:  goEast  = false; break;
-                    case SHIFT: running = false; break;
-                }
-            }
-        });
+    public typeOfUnit getType(){
+        return type;
     }
 
-    /**
-     * Used to move this unit from where it is to the given x and y (a point on the map).
-     * This method makes the unit start moving and keep doing so until it reaches its destination or hits a wall or
-     * enemy. This method also checks and handles moving slower through water correctly.
-     */
-    public void orderMoveToLocation(double x, double y){
-        // make sure the requested order is inside the map
-        if(!isInMap(x, unitImage.getWidth()/2, y, unitImage.getHeight()/2)){
-            return;
-        }
-
-        if(hasOrder) return;
-        hasOrder = true;
-
-        // get the positions to move between
-        Point2D from = new Point2D(unitView.getLayoutX(), unitView.getLayoutY());
-        Point2D to = new Point2D(x-unitImage.getWidth()/2, y-unitImage.getHeight()/2);
-
-        // calculate some neccesary values
-        double distance = from.distance(to);
-        double movemenetSpeed = 1;  // THIS CAN BE CHANGED TO ALTER MOVEMENT SPEED
-        Point2D movementAngle = new Point2D(to.getX()-from.getX(), to.getY()-from.getY()).multiply(movemenetSpeed/distance);
-
-        // make an atomic value that can be changed inside of an animationtimer
-        class AtomicFloat extends Number {
+    public int getId(){
+        return id;
+    }
 
-            private AtomicInteger bits;
+    public void updateWASDControls(){
+        // set up temporary unit movement, the handlers are made once per unit and only handed to the map here
+        map.setOnKeyPressed(keyPressed);
+        map.setOnKeyReleased(keyReleased);
+    }
 
-            public AtomicFloat() {
-                this(0f);
-            }
+    // helper method
+    private void onKeyPressed(KeyEvent event){
+        switch (event.getCode()) {
+            case W:  goNorth = true; break;
+            case S:  goSouth = true; break;
+            case A:  goWest  = true; break;
+            case D:  goEast  = true; break;
+            case SHIFT: running = true; break;
+        }
+        sendWASDInput();
+    }
 
-            public AtomicFloat(float initialValue) {
-                bits = new AtomicInteger(floatToIntBits(initialValue));
-            }
+    // helper method
+    private void onKeyReleased(KeyEvent event){
+        switch (event.getCode()) {
+            case W:  goNorth = false; break;
+            case S:  goSouth = false; break;
+            case A:  goWest  = false; break;
+            case D:  goEast  = false; break;
+            case SHIFT: running = false; break;
+        }
+        sendWASDInput();
+    }
 
-            public final boolean compareAndSet(float expect, float update) {
-                return bits.compareAndSet(floatToIntBits(expect),
-                        floatToIntBits(update));
-            }
+    // helper method, passes the pressed WASD keys on to the simulation
+    private void sendWASDInput(){
+        if(isRemoved) return;
+        int dx = 0, dy = 0;
 
-            public final void set(float newValue) {
-                bits.set(floatToIntBits(newValue));
-            }
+        if (goNorth) dy -= 1;
+        if (goSouth) dy += 1;
+        if (goEast) dx += 1;
+        if (goWest) dx -= 1;
 
-            public final float get() {
-                return intBitsToFloat(bits.get());
-            }
+        simulation.setManualInput(id, dx, dy, running);
+    }
 
-            public float floatValue() {
-                return get();
-            }
+    /**
+     * Used to move this unit from where it is to the given x and y (a point on the map), in a straight line.
+     * The simulation makes the unit move until it reaches its destination or hits a wall or enemy, this method only
+     * gives the order and draws a line which shows where the unit is heading.
+     */
+    public void orderMoveToLocation(double x, double y){
+        orderMoveAlongPath(new double[] {x, y});
+    }
 
-            public final float getAndSet(float newValue) {
-                return intBitsToFloat(bits.getAndSet(floatToIntBits(newValue)));
-            }
+    /**
+     * Used to move this unit along a planned path, given as {x0, y0, x1, y1, ...}
+     */
+    public void orderMoveAlongPath(double[] path){
+        if(isRemoved || !simulation.orderMoveAlong(id, path)) return;
+        showTravelLine();
+    }
 
-            public final boolean weakCompareAndSet(float expect, float update) {
-                return bits.weakCompareAndSet(floatToIntBits(expect),
-                        floatToIntBits(update));
-            }
+    /**
+     * Used to move this unit to x and y as part of a group order, steered by a flow field shared by the whole group
+     */
+    public void orderMoveWithFlowField(FlowField field, double x, double y){
+        if(isRemoved || !simulation.orderMoveWithFlowField(id, field, x, y)) return;
 
-            public double doubleValue() { return (double) floatValue(); }
-            public int intValue()       { return (int) get();           }
-            public long longValue()     { return (long) get();          }
+        // the exact route is not known beforehand, so the line only shows the objective
+        showTravelLine();
+    }
 
+    // helper method, shows a line where the unit is heading, through the waypoints it has left. The line the unit
+    // already has is reused, otherwise one is taken from the pool.
+    private void showTravelLine(){
+        if(travelLine == null){
+            travelLine = UnitViewPool.get().takeLine();
+            if(isShownOnMap) map.getChildren().add(travelLine);
         }
-        AtomicFloat movedDistance = new AtomicFloat(0.0f);
-
-        // create a line which shows where the unit is heading
-        Line travelLine = new Line(
-                from.getX()+unitImage.getWidth()/2,
-                from.getY()+unitImage.getHeight()/2,
-                to.getX()+unitImage.getWidth()/2,
-                to.getY()+unitImage.getHeight()/2
-        );
-        map.getChildren().add(travelLine);
-
-
-        // run code to move the distance of movementAngle until the destination is reached or an enemy is hit.
-        AnimationTimer timer2 = new AnimationTimer() {
-            @Override
-            public void handle(long now) {
-                Point2D before = new Point2D(unitView.getLayoutX(), unitView.getLayoutY());
-                moveUnitBy(movementAngle.getX(), movementAngle.getY());
-                float distanceTravelled = (float) before.distance(unitView.getLayoutX(), unitView.getLayoutY());
-                movedDistance.set(movedDistance.floatValue()+distanceTravelled);
-
-                // update travel line
-                travelLine.setStartX(unitView.getLayoutX()+unitImage.getWidth()/2);
-                travelLine.setStartY(unitView.getLayoutY()+unitImage.getHeight()/2);
-
-                // moving ends when the accumilated distance travelled is greater then the distance between the original
-                // positions
-                if(movedDistance.doubleValue() > distance){
-                    travelLine.setOpacity(0);
-                    hasOrder = false;
-                    this.stop();
-                }
-                if(checkIfUnitCollidedWithEnemy()){
-                    //TODO code for deciding what happens when a unit walks into an enemy unit goes here
-                    System.out.println("A unit hit an enemy. A fight starts!");
-                    travelLine.setOpacity(0);
-                    this.stop();
-                }
-            }
-        };
-        timer2.start();
-    }
 
-    private boolean checkIfUnitCollidedWithEnemy(){
-        for (Unit unit:ZoomablePaneTest.units) {
-            unit.unitView.setPickOnBounds(false);
-            if(!unit.equals(this)) {
-                if (this.unitView.getBoundsInParent().intersects(unit.getImageview().getBoundsInParent())) {
-                    if (!this.type.equals(unit.type)) {
-                        return true;
-                    }
-                }
-            }
+        double[] waypoints = simulation.getWaypoints(id);
+        shownWaypoints = waypoints;
+        shownWaypointIndex = simulation.getWaypointIndex(id);
+        Double[] points = new Double[2 + waypoints.length - shownWaypointIndex];
+        points[0] = simulation.getX(id);
+        points[1] = simulation.getY(id);
+        for(int i = shownWaypointIndex; i < waypoints.length; i++){
+            points[2 + i - shownWaypointIndex] = waypoints[i];
         }
-        return false;
+        travelLine.getPoints().setAll(points);
     }
 
+    // helper method, takes the line off the map once the order is done, and gives it back to the pool
+    private void hideTravelLine(){
+        if(travelLine == null) return;
 
+        if(isShownOnMap) map.getChildren().remove(travelLine);
+        UnitViewPool.get().giveBack(travelLine);
+        travelLine = null;
+        shownWaypoints = null;
+    }
 
+    public boolean hasOrder(){
+        return simulation.isAlive(id) && simulation.hasOrder(id);
+    }
 }
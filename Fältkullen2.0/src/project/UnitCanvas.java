@@ -0,0 +1,215 @@
+/* A canvas laid over the zooming pane that draws all units, selection highlights and travel lines in one go every
+ * frame, reading positions and orders straight from the simulation. Like the unit views, enemies that no friendly unit
+ * can see are not drawn. This is an alternative to giving every unit its
+ * own ImageView and Polyline in the map pane: the scene graph stays the same size no matter how many units there are,
+ * and anything outside of the zooming pane is skipped instead of being laid out and clipped.
+ *
+ * Zoomed out below GROUPS_BELOW_ZOOM the canvas draws groups of units instead, one marker per platoon, company or
+ * battalion of UnitClusters with the total strength of its units. The level is the smallest whose groups are still at
+ * least MIN_GROUP_SPACING apart on the screen, so there are about as many markers however far the map is zoomed out,
+ * and only the cells on the canvas are looked at, not the units.
+ */
+
+package project;
+
+import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Transform;
+import project.sim.Side;
+import project.sim.Simulation;
+import project.sim.UnitClusters;
+import project.sim.Visibility;
+
+import java.util.List;
+
+public class UnitCanvas extends Canvas {
+    private static final Color SELECTION_COLOR = Color.rgb(0, 0, 0, 0.5);
+    private static final double SELECTION_SIZE = 80;
+
+    // below this zoom units are drawn as groups, at it a unit is 30 pixels wide on the screen. The zoom slider goes down
+    // to half of it on every map, see ZoomablePaneTest.
+    public static final double GROUPS_BELOW_ZOOM = 0.5;
+
+    // the groups of a level are at least this far apart on the screen for the level to be drawn
+    private static final double MIN_GROUP_SPACING = 90;
+
+    // the size of a group's marker on the screen, whatever the zoom
+    private static final double MARKER_WIDTH = 44, MARKER_HEIGHT = 28;
+    private static final double MARKER_FONT_SIZE = 12;
+    private static final Color FRIEND_COLOR = Color.rgb(80, 140, 255), ENEMY_COLOR = Color.rgb(255, 90, 80);
+
+    // the signs above a marker for the size of the group, indexed by level of UnitClusters
+    private static final String[] ECHELON_SIGNS = {"\u2022\u2022\u2022", "I", "II"};
+    private static final Side[] SIDES = Side.values();
+
+    private final Pane map;
+
+    // the part of the map on the canvas in the frame being drawn, in map coordinates, and how much it is zoomed
+    private double minX, minY, maxX, maxY, zoom;
+
+    /**
+     * @param map the pane the units belong to, used to know how the map is dragged and zoomed
+     */
+    public UnitCanvas(Pane map){
+        this.map = map;
+        setMouseTransparent(true);
+    }
+
+    /**
+     * Draws all the given units where the simulation says they are
+     */
+    public void draw(List<Unit> units, Simulation simulation){
+        GraphicsContext gc = getGraphicsContext2D();
+        if(!startFrame(gc)) return;
+
+        // travel lines first so units are drawn on top of them
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1);
+        for(Unit unit : units){
+            int id = unit.getId();
+            if(!simulation.isAlive(id) || !simulation.hasOrder(id) || !simulation.isVisibleTo(Side.friend, id)) continue;
+            drawTravelLine(gc, simulation, id);
+        }
+
+        // every sprite is a part of the same atlas image
+        UnitSprites sprites = UnitSprites.get();
+        Image atlas = sprites.getAtlas();
+
+        gc.setFill(SELECTION_COLOR);
+        for(Unit unit : units){
+            int id = unit.getId();
+            if(!simulation.isAlive(id) || !simulation.isVisibleTo(Side.friend, id)) continue;
+
+            double x = simulation.getX(id), y = simulation.getY(id);
+            if(x < minX || x > maxX || y < minY || y > maxY) continue;
+
+            if(unit.getIsSelectedUnit()){
+                gc.fillOval(x - SELECTION_SIZE / 2, y - SELECTION_SIZE / 2, SELECTION_SIZE, SELECTION_SIZE);
+            }
+            Rectangle2D sprite = sprites.getViewport(unit.getType());
+            gc.setGlobalAlpha(Unit.opacityFor(simulation.getStrength(id)));
+            gc.drawImage(atlas, sprite.getMinX(), sprite.getMinY(), sprite.getWidth(), sprite.getHeight(),
+                    x - sprite.getWidth() / 2, y - sprite.getHeight() / 2, sprite.getWidth(), sprite.getHeight());
+            gc.setGlobalAlpha(1);
+        }
+    }
+
+    /**
+     * Draws the groups of units of UnitClusters instead of the units, for a map zoomed out below GROUPS_BELOW_ZOOM.
+     * Enemy groups are only drawn where friendly units can see their middle.
+     */
+    public void drawGroups(Simulation simulation){
+        GraphicsContext gc = getGraphicsContext2D();
+        if(!startFrame(gc)) return;
+
+        UnitClusters clusters = simulation.getUnitClusters();
+        int level = UnitClusters.PLATOON;
+        while(level < UnitClusters.BATTALION && clusters.getCellSize(level) * zoom < MIN_GROUP_SPACING) level++;
+
+        // a group's middle can be anywhere in its cell, so the cells just off the canvas can have markers on it
+        double cellSize = clusters.getCellSize(level);
+        int columns = clusters.getColumns(level), rows = clusters.getRows(level);
+        int firstColumn = Math.max(0, (int) Math.floor(minX / cellSize) - 1);
+        int lastColumn = Math.min(columns - 1, (int) Math.floor(maxX / cellSize) + 1);
+        int firstRow = Math.max(0, (int) Math.floor(minY / cellSize) - 1);
+        int lastRow = Math.min(rows - 1, (int) Math.floor(maxY / cellSize) + 1);
+
+        // the markers keep their size on the screen, so their sizes in map coordinates are divided by the zoom
+        double width = MARKER_WIDTH / zoom, height = MARKER_HEIGHT / zoom;
+        gc.setLineWidth(1.5 / zoom);
+        gc.setFont(Font.font(MARKER_FONT_SIZE / zoom));
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.CENTER);
+
+        Visibility visibility = simulation.getVisibility();
+        for(int row = firstRow; row <= lastRow; row++){
+            for(int column = firstColumn; column <= lastColumn; column++){
+                int cell = row * columns + column;
+                for(Side side : SIDES){
+                    int count = clusters.getCount(side, level, cell);
+                    if(count == 0) continue;
+
+                    double x = clusters.getCenterX(side, level, cell), y = clusters.getCenterY(side, level, cell);
+                    if(side != Side.friend && !visibility.isVisible(Side.friend, x, y)) continue;
+                    if(x + width < minX || x - width > maxX || y + height < minY || y - height > maxY) continue;
+
+                    drawMarker(gc, side, level, x, y, width, height, count, clusters.getStrength(side, level, cell));
+                }
+            }
+        }
+    }
+
+    // helper method, a frame in the color of the side with the total strength in it and the size of the group above it,
+    // as faded as a unit of the group's average strength would be
+    private void drawMarker(GraphicsContext gc, Side side, int level, double x, double y, double width, double height,
+                            int count, double strength){
+        double left = x - width / 2, top = y - height / 2;
+        gc.setGlobalAlpha(Unit.opacityFor(strength / count));
+        gc.setFill(side == Side.friend ? FRIEND_COLOR : ENEMY_COLOR);
+        gc.fillRect(left, top, width, height);
+        gc.setStroke(Color.BLACK);
+        gc.strokeRect(left, top, width, height);
+
+        gc.setFill(Color.BLACK);
+        gc.fillText(String.format("%.1f", strength), x, y);
+        gc.fillText(ECHELON_SIGNS[level], x, top - height / 4);
+        gc.setGlobalAlpha(1);
+    }
+
+    // helper method, clears the canvas, sets it up to draw in map coordinates, the same way the map pane itself is
+    // transformed, and works out the part of the map that is on it, widened by a unit so units on the edge are drawn
+    // @return false if there is nothing to draw on
+    private boolean startFrame(GraphicsContext gc){
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.clearRect(0, 0, getWidth(), getHeight());
+
+        Transform toScreen = map.getLocalToParentTransform();
+        gc.setTransform(toScreen.getMxx(), toScreen.getMyx(), toScreen.getMxy(), toScreen.getMyy(), toScreen.getTx(), toScreen.getTy());
+
+        Point2D topLeft, bottomRight;
+        try {
+            topLeft = toScreen.inverseTransform(0, 0);
+            bottomRight = toScreen.inverseTransform(getWidth(), getHeight());
+        } catch (NonInvertibleTransformException e) {
+            return false;
+        }
+        double margin = Simulation.UNIT_SIZE;
+        minX = topLeft.getX() - margin;
+        minY = topLeft.getY() - margin;
+        maxX = bottomRight.getX() + margin;
+        maxY = bottomRight.getY() + margin;
+        zoom = toScreen.getMxx();
+        return true;
+    }
+
+    // helper method, the line from the unit through the waypoints it has left, if any of it is on the canvas
+    private void drawTravelLine(GraphicsContext gc, Simulation simulation, int id){
+        double[] waypoints = simulation.getWaypoints(id);
+        double x = simulation.getX(id), y = simulation.getY(id);
+
+        double lineMinX = x, lineMinY = y, lineMaxX = x, lineMaxY = y;
+        for(int i = simulation.getWaypointIndex(id); i + 1 < waypoints.length; i += 2){
+            lineMinX = Math.min(lineMinX, waypoints[i]);
+            lineMaxX = Math.max(lineMaxX, waypoints[i]);
+            lineMinY = Math.min(lineMinY, waypoints[i + 1]);
+            lineMaxY = Math.max(lineMaxY, waypoints[i + 1]);
+        }
+        if(lineMaxX < minX || lineMinX > maxX || lineMaxY < minY || lineMinY > maxY) return;
+
+        gc.beginPath();
+        gc.moveTo(x, y);
+        for(int i = simulation.getWaypointIndex(id); i + 1 < waypoints.length; i += 2){
+            gc.lineTo(waypoints[i], waypoints[i + 1]);
+        }
+        gc.stroke();
+    }
+}
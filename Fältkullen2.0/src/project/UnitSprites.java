@@ -0,0 +1,69 @@
+/* The images of all unit types, loaded once from the images bundled with the program and packed side by side into
+ * one atlas image. Every unit on the map shows a part of the same atlas, so adding a unit never loads or decodes an
+ * image, and nothing is fetched over the network.
+ */
+
+package project;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+
+import java.net.URL;
+
+public class UnitSprites {
+    public static final int SPRITE_SIZE = 60;
+
+    private static UnitSprites shared;
+
+    private final WritableImage atlas;
+    private final Rectangle2D[] viewports;
+
+    /**
+     * @return the sprites shared by all units. Loaded the first time this is called, which has to be on the javafx thread.
+     */
+    public static UnitSprites get(){
+        if(shared == null) shared = new UnitSprites();
+        return shared;
+    }
+
+    private UnitSprites(){
+        Unit.typeOfUnit[] types = Unit.typeOfUnit.values();
+        atlas = new WritableImage(SPRITE_SIZE * types.length, SPRITE_SIZE);
+        viewports = new Rectangle2D[types.length];
+
+        for(Unit.typeOfUnit type : types){
+            int x = type.ordinal() * SPRITE_SIZE;
+            Image sprite = load(type);
+            PixelReader reader = sprite.getPixelReader();
+
+            // a sprite that is smaller than SPRITE_SIZE is centered in its place in the atlas
+            int width = Math.min(SPRITE_SIZE, (int) sprite.getWidth());
+            int height = Math.min(SPRITE_SIZE, (int) sprite.getHeight());
+            if(reader != null){
+                atlas.getPixelWriter().setPixels(x + (SPRITE_SIZE - width) / 2, (SPRITE_SIZE - height) / 2,
+                        width, height, reader, 0, 0);
+            }
+            viewports[type.ordinal()] = new Rectangle2D(x, 0, SPRITE_SIZE, SPRITE_SIZE);
+        }
+    }
+
+    public Image getAtlas(){
+        return atlas;
+    }
+
+    /**
+     * @return the part of the atlas that holds the image of a unit type
+     */
+    public Rectangle2D getViewport(Unit.typeOfUnit type){
+        return viewports[type.ordinal()];
+    }
+
+    // helper method, reads the bundled image of a unit type at sprite size
+    private static Image load(Unit.typeOfUnit type){
+        URL url = UnitSprites.class.getResource("res/units/" + type.name() + ".png");
+        if(url == null) throw new IllegalStateException("The image of " + type + " units is missing from res/units");
+        return new Image(url.toExternalForm(), SPRITE_SIZE, SPRITE_SIZE, true, true);
+    }
+}
@@ -0,0 +1,80 @@
+/* Keeps the nodes of units that have left the map so that new units can use them again: the image views, one pool per
+ * unit type since the part of the atlas a view shows depends on the type, and the lines that show where units are
+ * heading. Adding and removing thousands of units then creates hardly any new nodes. Every node is reset when it is
+ * given back, so nothing of the unit that had it shows through, and the pools are bounded so a big battle that has
+ * ended does not keep its nodes forever.
+ */
+
+package project;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.shape.Polyline;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+
+class UnitViewPool {
+    // how many nodes of each kind are kept at most
+    private static final int MAX_POOLED = 512;
+
+    private static UnitViewPool shared;
+
+    private final EnumMap<Unit.typeOfUnit, ArrayDeque<ImageView>> views = new EnumMap<>(Unit.typeOfUnit.class);
+    private final ArrayDeque<Polyline> lines = new ArrayDeque<>();
+
+    /**
+     * @return the pool shared by all units. Only to be used on the javafx thread.
+     */
+    static UnitViewPool get(){
+        if(shared == null) shared = new UnitViewPool();
+        return shared;
+    }
+
+    private UnitViewPool(){
+        for(Unit.typeOfUnit type : Unit.typeOfUnit.values()){
+            views.put(type, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * @return a view that shows the image of the given unit type, not in any pane
+     */
+    ImageView takeView(Unit.typeOfUnit type){
+        ImageView view = views.get(type).poll();
+        if(view != null) return view;
+
+        // all units show their part of the same shared image, so no image is loaded here
+        UnitSprites sprites = UnitSprites.get();
+        view = new ImageView(sprites.getAtlas());
+        view.setViewport(sprites.getViewport(type));
+        view.setPickOnBounds(false);
+        return view;
+    }
+
+    /**
+     * Takes back a view that has been taken out of its pane
+     */
+    void giveBack(ImageView view, Unit.typeOfUnit type){
+        view.setEffect(null);
+        view.setOpacity(1);
+        view.setVisible(true);
+        if(views.get(type).size() < MAX_POOLED) views.get(type).push(view);
+    }
+
+    /**
+     * @return an empty line, not in any pane
+     */
+    Polyline takeLine(){
+        Polyline line = lines.poll();
+        return line != null ? line : new Polyline();
+    }
+
+    /**
+     * Takes back a line that has been taken out of its pane
+     */
+    void giveBack(Polyline line){
+        line.getPoints().clear();
+        line.setVisible(true);
+        if(lines.size() < MAX_POOLED) lines.push(line);
+    }
+}
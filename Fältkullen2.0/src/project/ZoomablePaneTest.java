@@ -6,7 +6,13 @@
 
 package project;
 
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
@@ -16,41 +22,129 @@ import javafx.scene.Cursor;
 import javafx.scene.control.Button;
 import javafx.scene.control.Slider;
 import javafx.scene.image.Image;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.transform.Scale;
-
+import project.sim.EnemyPlanner;
+import project.sim.Journal;
+import project.sim.PathService;
+import project.sim.Replay;
+import project.sim.Scenario;
+import project.sim.ScenarioFile;
+import project.sim.Side;
+import project.sim.Simulation;
+import project.sim.SimulationClock;
+import project.sim.SimulationListener;
+import project.sim.TerrainGrid;
+
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.Consumer;
 
 public class ZoomablePaneTest {
 
     // This is the bottom screen slider that controls the zoom level.
     // These values can be modified to change how much can be zoomed.
     Slider slider;
+
+    // every map can be zoomed out this far, well below the zoom the units are drawn as groups at so the groups can
+    // always be seen. Bigger maps can be zoomed out further, to be seen whole.
+    private static final double MIN_ZOOM = UnitCanvas.GROUPS_BELOW_ZOOM / 2;
     Pane content;
     public static ArrayList<Unit> units;
+
+    // the unit views by id, and the ones that are selected, so selecting never has to look through all units
+    private final HashMap<Integer, Unit> unitsById = new HashMap<>();
+    private final ArrayList<Unit> selectedUnits = new ArrayList<>();
+
+    // true while the next click on the map picks a position, e.g. for an order, instead of selecting a unit
+    private boolean isPickingPosition = false;
+
+    // the box drawn while shift-dragging over the map, everything inside it is selected when the mouse is released
+    private Rectangle selectionBox;
+    private double boxStartX, boxStartY;
     ZoomingPane zoomingPane;
     Image background;
 
+    // imported maps are shown as tiles instead of as the background of content
+    private TileLayer tileLayer;
+
+    // the map shown when the program starts, and where the map that is shown now came from (saved in scenarios)
+    private static final String DEFAULT_MAP = "https://i.imgur.com/H6iCEoD.jpg";
+    private String mapReference = DEFAULT_MAP;
+
+    // the map being imported in the background, null while none is. The shown map stays until it is done.
+    private final ReadOnlyObjectWrapper<MapImport> mapImport = new ReadOnlyObjectWrapper<>();
+
+    // when this is on, units are drawn on one canvas instead of having an ImageView each
+    private UnitCanvas unitCanvas;
+    private boolean isCanvasRendering = false;
+
+    // zoomed out far enough, the canvas shows groups of units instead of the units, whichever way they are drawn otherwise
+    private boolean isShowingGroups = false;
+
+    // shows tick and frame times while the user wants to see them, null otherwise
+    private PerformanceOverlay performanceOverlay;
+
+    // the simulation holds the state of all units, the Unit objects only show that state on the map
+    Simulation simulation;
+    private AnimationTimer simulationLoop;
+
+    // decides how many ticks to run every frame, so the simulation can run faster than real time
+    private final SimulationClock clock = new SimulationClock();
+
+    // plans the routes for move orders in the background
+    private PathService pathService;
+
+    // the heat map of which side dominates where while the user wants to see it, null otherwise
+    private InfluenceOverlay influenceOverlay;
+
+    // gives the enemy units orders while the user has the enemy played by the computer, null otherwise
+    private EnemyPlanner enemyPlanner;
+
+    // the journal the session is recorded to while recording
+    private Journal journal;
+    private final ReadOnlyBooleanWrapper recording = new ReadOnlyBooleanWrapper(false);
+
+    // the recorded session being played back, if one is. The map then shows the simulation of the replay
+    private Replay replay;
+    private Slider replaySlider;
+
+    // how long before a contact a jump to it lands, to see the units close in
+    private static final double CONTACT_LEAD_SECONDS = 3;
+
     public ZoomablePaneTest(Pane content, Slider zoomslider, Button addUnitBtn, Button moveUnitBtn) {
         // content is a pane which will be zoomable and movable, so anything shown on screen is put in this pane
         this.content = content;
 
         // set the image to be used as map
-        background = new Image("https://i.imgur.com/H6iCEoD.jpg", 1980, 1020, true, false);
+        background = new Image(DEFAULT_MAP, 1980, 1020, true, false);
         content.setBackground(new Background(new BackgroundImage(background, BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT, null, null)));
 
         slider = zoomslider;
-        slider.setMin(0.5);
+        // starts zoomed out as far as the units are still drawn one by one
+        slider.setMin(MIN_ZOOM);
         slider.setMax(3);
-        slider.setValue(0);
+        slider.setValue(UnitCanvas.GROUPS_BELOW_ZOOM);
 
         // zoomingPane is the "black" square in the program and it gives functionality to zoom its content
         zoomingPane = new ZoomingPane(content);
         zoomingPane.setPrefHeight(10000);
         zoomingPane.setPrefWidth(10000);
         zoomingPane.zoomFactorProperty().bind(slider.valueProperty());
+        zoomingPane.zoomFactorProperty().addListener((observable, oldValue, newValue) ->
+                updateUnitRendering(isCanvasRendering, newValue.doubleValue() < UnitCanvas.GROUPS_BELOW_ZOOM));
+
+        // set up the simulation and start ticking it
+        TerrainGrid terrain = TerrainLoader.fromImage(background);
+        useSimulation(new Simulation(terrain));
+        pathService = new PathService(terrain, Platform::runLater);
+        startSimulationLoop();
+        setUpSelection();
 
 
         //Button addUnitBtn = new Button("Add unit!");
@@ -63,49 +157,579 @@ public class ZoomablePaneTest {
             orderMove();
         });
 
-        // adds a few friendly units to the given positions
+        // adds the units of the default scenario, a few friendly units and an enemy
         units = new ArrayList<>();
-        addUnit(150, 30, Unit.typeOfUnit.friend);
-        addUnit(480, 200, Unit.typeOfUnit.friend);
-        addUnit(530, 150, Unit.typeOfUnit.friend);
-
-        // adds an enemy too
-        addUnit(1200, 600, Unit.typeOfUnit.enemy);
+        for(Scenario.Placement placement:Scenario.defaultScenario().getPlacements()){
+            addUnit((int) placement.x, (int) placement.y, placement.side == Side.enemy ? Unit.typeOfUnit.enemy : Unit.typeOfUnit.friend);
+        }
     }
 
     public ZoomingPane getZoomingPane(){
         return zoomingPane;
     }
 
-    public void changeMap(){
-        Image newMap = new IoControl().changeMapImage();
+    // helper method, makes the map show the given simulation
+    private void useSimulation(Simulation simulation){
+        this.simulation = simulation;
+        simulation.setListener(new SimulationListener() {
+            @Override
+            public void onContact(int unitId, int enemyId) {
+                // the fight that starts is resolved by the simulation every tick, see Combat
+            }
 
-        if(newMap!=null) {
+            @Override
+            public void onUnitDestroyed(int unitId) {
+                Unit unit = unitsById.remove(unitId);
+                if(unit == null) return;
+                unit.dispose();
+                units.remove(unit);
+                selectedUnits.remove(unit);
+            }
+        });
+    }
+
+    public void changeMap(){
+        IoControl ioControl = new IoControl();
+        File file = ioControl.chooseMapFile();
+        if(file == null) return;
+
+        // cut the map into tiles (or find the tiles from an earlier import) and read the terrain from them in the
+        // background, then swap everything over at once
+        startMapImport(file, true, imported -> {
+            // a recording only holds one map, and a replay is left as it is
+            stopRecording();
+            closeReplay();
             removeAllUnits();
-            content.setBackground(new Background(new BackgroundImage(newMap, BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT, null, null)));
+            simulation.setTerrain(imported.getTerrain());
+            pathService.shutdown();
+            pathService = new PathService(imported.getTerrain(), Platform::runLater);
+            showTiledMap(imported.getPyramid());
+            mapReference = file.getAbsolutePath();
+        });
+    }
+
+    /**
+     * @return the map being imported, to show how far it has come, or null while no map is being imported
+     */
+    public ReadOnlyObjectProperty<MapImport> mapImportProperty(){
+        return mapImport.getReadOnlyProperty();
+    }
+
+    /**
+     * Helper method:
+     * Imports a map in the background and hands the result to onImported once it is done. An import that is still
+     * running is cancelled, so only the map chosen last is ever shown.
+     */
+    private void startMapImport(File file, boolean readsTerrain, Consumer<MapImport.Result> onImported){
+        cancelMapImport();
+        MapImport started = new IoControl().startMapImport(file, readsTerrain);
+        mapImport.set(started);
+
+        // (an import can finish just as it is cancelled, so only the current one counts)
+        started.setOnSucceeded(event -> {
+            if(mapImport.get() != started) return;
+            mapImport.set(null);
+            onImported.accept(started.getValue());
+        });
+        started.setOnFailed(event -> {
+            if(mapImport.get() == started) mapImport.set(null);
+        });
+    }
+
+    // helper method, stops the map being imported, e.g. because another map is about to be shown
+    private void cancelMapImport(){
+        if(mapImport.get() == null) return;
+
+        mapImport.get().cancel();
+        mapImport.set(null);
+    }
+
+    /**
+     * Lets the user save the map, units and orders to a scenario file
+     */
+    public void saveScenario(){
+        IoControl ioControl = new IoControl();
+        File file = ioControl.chooseScenarioFile(true);
+        if(file == null) return;
+
+        ioControl.saveScenario(file, simulation, mapReference);
+    }
+
+    /**
+     * Lets the user open a scenario file, which replaces the map and all units
+     */
+    public void openScenario(){
+        IoControl ioControl = new IoControl();
+        File file = ioControl.chooseScenarioFile(false);
+        if(file == null) return;
+
+        ScenarioFile scenario = ioControl.loadScenario(file);
+        if(scenario == null) return;
+
+        stopRecording();
+        closeReplay();
+        removeAllUnits();
+        showMap(scenario.getMapReference());
+        useSimulation(scenario.getSimulation());
+        pathService.shutdown();
+        pathService = new PathService(scenario.getTerrain(), Platform::runLater);
+
+        // the units are already in the simulation, they only need to be shown
+        showSimulationUnits();
+    }
+
+    /**
+     * Helper method:
+     * Shows the map a scenario was saved with. If the map can not be found, the current map is kept and only the
+     * terrain of the scenario is used. The tiles of an image map are made in the background and shown once they are
+     * ready.
+     */
+    private void showMap(String reference){
+        cancelMapImport();
+        if(reference.equals(mapReference)) return;
+
+        if(reference.equals(DEFAULT_MAP)){
+            if(tileLayer != null) content.getChildren().remove(tileLayer);
+            tileLayer = null;
+            content.setBackground(new Background(new BackgroundImage(background, BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT, null, null)));
+            zoomingPane.setMapSize(background.getWidth(), background.getHeight());
+        }
+        else{
+            // the terrain comes with the scenario, only the tiles are imported
+            File file = new File(reference);
+            if(file.isFile()) startMapImport(file, false, imported -> showTiledMap(imported.getPyramid()));
+            else new IoControl().showError("The map of the scenario (" + reference + ") could not be found");
         }
+        mapReference = reference;
+    }
+
+    /**
+     * Replaces the map image with a layer of tiles that are loaded as they come into view
+     */
+    private void showTiledMap(TilePyramid pyramid){
+        content.setBackground(null);
+        if(tileLayer != null) content.getChildren().remove(tileLayer);
+
+        tileLayer = new TileLayer(pyramid, zoomingPane);
+        content.getChildren().add(0, tileLayer);
+        zoomingPane.setMapSize(pyramid.getWidth(), pyramid.getHeight());
+
+        // big maps need to be zoomed out further to be seen whole
+        slider.setMin(Math.min(MIN_ZOOM, zoomingPane.getMaxWidth() / pyramid.getWidth()));
+        zoomingPane.updateTiles();
     }
 
     public void removeAllUnits(){
-        for (Unit unit:units){
-            unit.removeUnit();
+        Unit.disposeAll(units);
+        simulation.removeAllUnits();
+        units.clear();
+        unitsById.clear();
+        selectedUnits.clear();
+    }
+
+
+    /**
+     * Starts the timer that drives the simulation. The simulation is ticked at a fixed rate (times the clock speed) no
+     * matter how often javafx calls the timer, and after that the units on the map are moved to where the simulation
+     * says they are.
+     */
+    private void startSimulationLoop(){
+        simulationLoop = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                FrameEvent event = new FrameEvent();
+                event.begin();
+                long start = System.nanoTime();
+
+                // the clock runs the ticks that are due at the chosen speed, the units are drawn once per frame after
+                int ticks;
+                if(replay != null){
+                    ticks = clock.advance(replay::advance, now);
+                    updateReplayedUnits();
+                }
+                else{
+                    ticks = clock.advance(simulation, now);
+                    if(enemyPlanner != null) enemyPlanner.update(simulation, pathService);
+                }
+
+                if(influenceOverlay != null) influenceOverlay.update(simulation);
+                if(isShowingGroups){
+                    unitCanvas.drawGroups(simulation);
+                }
+                else if(isCanvasRendering){
+                    unitCanvas.draw(units, simulation);
+                }
+                else{
+                    for(Unit unit:units){
+                        unit.updateView();
+                    }
+                }
+
+                long end = System.nanoTime();
+                if(performanceOverlay != null) performanceOverlay.recordFrame(simulation, end - start, end);
+                if(event.shouldCommit()){
+                    event.ticks = ticks;
+                    event.units = units.size();
+                    event.canvasRendering = isCanvasRendering;
+                    event.commit();
+                }
+            }
+        };
+        simulationLoop.start();
+    }
+
+    /**
+     * Sets how many simulated seconds pass per second, e.g. 10 to play out an exercise ten times faster
+     * @param speed the speed, or SimulationClock.AS_FAST_AS_POSSIBLE
+     */
+    public void setSimulationSpeed(double speed){
+        clock.setSpeed(speed);
+    }
+
+    public void setPaused(boolean paused){
+        clock.setPaused(paused);
+    }
+
+    /**
+     * Lets the computer play the enemy side, or stops it. Enemy units that stand idle are given orders to advance,
+     * flank, hold or retreat, which are planned in the background.
+     */
+    public void setEnemyAi(boolean enabled){
+        if(enabled == (enemyPlanner != null)) return;
+
+        if(enabled){
+            enemyPlanner = new EnemyPlanner(Platform::runLater);
+        }
+        else{
+            enemyPlanner.shutdown();
+            enemyPlanner = null;
+        }
+    }
+
+    /**
+     * Lets the user choose a file and records everything that happens from now on to it. While recording, every tick
+     * is run as a single step so the session plays out the same way however fast the computer is.
+     * @return true if the recording was started
+     */
+    public boolean startRecording(){
+        if(journal != null || replay != null) return false;
+
+        IoControl ioControl = new IoControl();
+        File file = ioControl.chooseJournalFile(true);
+        if(file == null) return false;
+
+        journal = ioControl.startJournal(file, simulation, mapReference);
+        if(journal == null) return false;
+        clock.setDeterministic(true);
+        recording.set(true);
+        return true;
+    }
+
+    public void stopRecording(){
+        if(journal == null) return;
+
+        new IoControl().closeJournal(journal);
+        journal = null;
+        clock.setDeterministic(false);
+        recording.set(false);
+    }
+
+    /**
+     * @return true while the session is being recorded. Turns false by itself when something ends the recording, e.g.
+     * another map being loaded.
+     */
+    public ReadOnlyBooleanProperty recordingProperty(){
+        return recording.getReadOnlyProperty();
+    }
+
+    /**
+     * Lets the user open a recorded session and plays it back on the map, at the chosen speed. Nothing can be changed
+     * while it plays, until takeOverReplay() is called.
+     */
+    public void openReplay(){
+        IoControl ioControl = new IoControl();
+        File file = ioControl.chooseJournalFile(false);
+        if(file == null) return;
+
+        Replay opened = ioControl.openReplay(file);
+        if(opened == null) return;
+
+        stopRecording();
+        closeReplay();
+        removeAllUnits();
+        showMap(opened.getMapReference());
+        useSimulation(opened.getSimulation());
+        pathService.shutdown();
+        pathService = new PathService((TerrainGrid) simulation.getTerrain(), Platform::runLater);
+        replay = opened;
+        showSimulationUnits();
+
+        if(replaySlider != null){
+            replaySlider.setMax(replay.getLength() * Simulation.TICK_SECONDS);
+            replaySlider.setValue(0);
+            replaySlider.setDisable(false);
+        }
+    }
+
+    /**
+     * Stops playing back and lets the session go on from where the replay is, e.g. to try something else than what
+     * was done
+     */
+    public void takeOverReplay(){
+        closeReplay();
+    }
+
+    /**
+     * Jumps to the next time in the replay when a unit walked into an enemy, a few seconds before it happened
+     */
+    public void jumpToNextContact(){
+        if(replay == null) return;
+
+        long lead = Math.round(CONTACT_LEAD_SECONDS / Simulation.TICK_SECONDS);
+        for(long contact : replay.findContacts()){
+            if(contact - lead > replay.getPosition()){
+                seekReplay((contact - lead) * Simulation.TICK_SECONDS);
+                return;
+            }
         }
+    }
+
+    /**
+     * Shows the position of the replay on the given slider, and jumps to where the slider is dragged
+     */
+    public void setReplaySlider(Slider slider){
+        replaySlider = slider;
+        slider.setDisable(replay == null);
+        slider.setOnMouseReleased(event -> seekReplay(slider.getValue()));
+    }
+
+    // helper method, jumps to the given number of seconds into the replay
+    private void seekReplay(double seconds){
+        if(replay == null) return;
+
+        replay.seek(Math.round(seconds / Simulation.TICK_SECONDS));
+        updateReplayedUnits();
+    }
+
+    // helper method, stops playing back. The simulation of the replay stays on the map
+    private void closeReplay(){
+        if(replay == null) return;
+
+        replay.close();
+        replay = null;
+        if(replaySlider != null) replaySlider.setDisable(true);
+    }
+
+    /**
+     * Helper method:
+     * The units of a replay come and go as the records say, so the views are made to follow. Ids can be given out
+     * again after all units have been removed, so a view whose id now belongs to a unit of the other side is replaced.
+     */
+    private void updateReplayedUnits(){
+        int idLimit = simulation.getIdLimit();
+        boolean[] shown = new boolean[idLimit];
+
+        for(Iterator<Unit> iterator = units.iterator(); iterator.hasNext(); ){
+            Unit unit = iterator.next();
+            int id = unit.getId();
+            if(simulation.isAlive(id) && simulation.getSide(id) == Unit.toSide(unit.getType())){
+                shown[id] = true;
+                continue;
+            }
+            unit.dispose();
+            iterator.remove();
+            unitsById.remove(id);
+            selectedUnits.remove(unit);
+        }
+        for(int id = 0; id < idLimit; id++){
+            if(shown[id] || !simulation.isAlive(id)) continue;
+            Unit.typeOfUnit type = simulation.getSide(id) == Side.enemy ? Unit.typeOfUnit.enemy : Unit.typeOfUnit.friend;
+            createUnitView(id, type);
+        }
+
+        if(replaySlider != null && !replaySlider.isPressed()){
+            replaySlider.setValue(replay.getPosition() * Simulation.TICK_SECONDS);
+        }
+    }
+
+    /**
+     * Saves the state of all units, see Simulation.takeSnapshot()
+     */
+    public Simulation.Snapshot takeSnapshot(){
+        return simulation.takeSnapshot();
+    }
+
+    /**
+     * Rewinds all units to a snapshot. Only the units are shown anew, the map stays as it is.
+     * @return false if the snapshot was taken on another map, in which case nothing is changed
+     */
+    public boolean restoreSnapshot(Simulation.Snapshot snapshot){
+        if(replay != null || !simulation.canRestore(snapshot)) return false;
+
+        // the old views are taken off first, so they can not send anything to the simulation after it is rewound
+        Unit.disposeAll(units);
         units.clear();
+        unitsById.clear();
+        selectedUnits.clear();
+        simulation.restoreSnapshot(snapshot);
+        showSimulationUnits();
+        return true;
+    }
+
+    /**
+     * Shows live tick and frame times in the given overlay, or stops doing so if it is null
+     */
+    public void setPerformanceOverlay(PerformanceOverlay overlay){
+        performanceOverlay = overlay;
+    }
+
+    /**
+     * Shows or hides a heat map of which side dominates each part of the map. It lies on top of the map image and
+     * under the units.
+     */
+    public void setInfluenceShown(boolean shown){
+        if(shown == (influenceOverlay != null)) return;
+
+        if(shown){
+            influenceOverlay = new InfluenceOverlay();
+            content.getChildren().add(tileLayer == null ? 0 : 1, influenceOverlay);
+        }
+        else{
+            content.getChildren().remove(influenceOverlay);
+            influenceOverlay = null;
+        }
+    }
+
+    /**
+     * Switches between drawing all units on one canvas and giving every unit its own nodes in the map pane
+     */
+    public void setCanvasRendering(boolean canvasRendering){
+        updateUnitRendering(canvasRendering, isShowingGroups);
+    }
+
+    // helper method, shows the canvas whenever it draws the units or their groups, and the nodes of the units otherwise
+    private void updateUnitRendering(boolean canvasRendering, boolean showingGroups){
+        boolean hadNodes = !isCanvasRendering && !isShowingGroups;
+        boolean hasNodes = !canvasRendering && !showingGroups;
+        isCanvasRendering = canvasRendering;
+        isShowingGroups = showingGroups;
+
+        if(!hasNodes && unitCanvas == null){
+            unitCanvas = new UnitCanvas(content);
+            zoomingPane.setUnitCanvas(unitCanvas);
+        }
+        if(unitCanvas != null) unitCanvas.setVisible(!hasNodes);
+        if(hasNodes == hadNodes) return;
+        for(Unit unit:units){
+            unit.setShownOnMap(hasNodes);
+        }
+    }
+
+    /**
+     * Helper method:
+     * Sets up selecting units with the mouse. There is one handler on the map for all units, which looks up what was
+     * clicked in the spatial index of the simulation, so it works the same whether the units have their own nodes or
+     * are drawn on the canvas. A click selects the unit under the mouse, dragging with shift held down draws a box and
+     * selects every unit inside it.
+     */
+    private void setUpSelection(){
+        selectionBox = new Rectangle();
+        selectionBox.setFill(Color.color(0.4, 0.6, 1, 0.2));
+        selectionBox.setStroke(Color.CORNFLOWERBLUE);
+        selectionBox.setManaged(false);
+        selectionBox.setMouseTransparent(true);
+        selectionBox.setVisible(false);
+        content.getChildren().add(selectionBox);
+
+        // these run before the handlers that pick positions for orders, which is why they check isPickingPosition
+        content.addEventHandler(MouseEvent.MOUSE_PRESSED, event -> {
+            if(isPickingPosition || replay != null) return;
+
+            if(event.isShiftDown()){
+                boxStartX = event.getX();
+                boxStartY = event.getY();
+                resizeSelectionBox(boxStartX, boxStartY);
+                selectionBox.setVisible(true);
+                selectionBox.toFront();
+
+                // keeps the map from being dragged along
+                event.consume();
+            }
+            else{
+                selectUnitAt(event.getX(), event.getY());
+            }
+        });
+        content.addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> {
+            if(!selectionBox.isVisible()) return;
+            resizeSelectionBox(event.getX(), event.getY());
+            event.consume();
+        });
+        content.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> {
+            if(!selectionBox.isVisible()) return;
+            selectionBox.setVisible(false);
+            selectUnitsIn(selectionBox.getX(), selectionBox.getY(), selectionBox.getX() + selectionBox.getWidth(), selectionBox.getY() + selectionBox.getHeight());
+            event.consume();
+        });
+    }
+
+    // helper method, stretches the selection box from where the drag started to the given corner
+    private void resizeSelectionBox(double x, double y){
+        selectionBox.setX(Math.min(boxStartX, x));
+        selectionBox.setY(Math.min(boxStartY, y));
+        selectionBox.setWidth(Math.abs(x - boxStartX));
+        selectionBox.setHeight(Math.abs(y - boxStartY));
     }
 
+    // helper method, selects the unit at a position on the map, if there is one
+    private void selectUnitAt(double x, double y){
+        int id = simulation.findUnitAt(x, y);
+        if(id == -1 || !simulation.isVisibleTo(Side.friend, id)) return;
+
+        Unit unit = unitsById.get(id);
+        if(unit == null) return;
+        clearSelection();
+        select(unit);
+    }
+
+    // helper method, selects every unit that can be seen inside a box on the map instead of the ones selected now
+    private void selectUnitsIn(double minX, double minY, double maxX, double maxY){
+        clearSelection();
+        for(int id : simulation.findUnitsIn(minX, minY, maxX, maxY)){
+            Unit unit = unitsById.get(id);
+            if(unit != null && simulation.isVisibleTo(Side.friend, id)) select(unit);
+        }
+    }
+
+    // helper method
+    private void select(Unit unit){
+        unit.setIsSelectedUnit(true);
+        selectedUnits.add(unit);
+    }
+
+    // helper method, deselects the selected units, and only those
+    private void clearSelection(){
+        for(Unit unit:selectedUnits){
+            unit.setIsSelectedUnit(false);
+        }
+        selectedUnits.clear();
+    }
 
     public class ZoomingPane extends Region {
         Pane content;
         private DoubleProperty zoomFactor = new SimpleDoubleProperty(0);
         double offSetX, offSetY;
+        double mapWidth, mapHeight;
+        private UnitCanvas unitCanvas;
 
         double oldMouseX, oldMouseY;
 
         private ZoomingPane(Pane map) {
             content = map;
 
-            offSetX = content.getBackground().getImages().get(0).getImage().getWidth()/2;
-            offSetY = content.getBackground().getImages().get(0).getImage().getHeight()/2;
+            mapWidth = content.getBackground().getImages().get(0).getImage().getWidth();
+            mapHeight = content.getBackground().getImages().get(0).getImage().getHeight();
+            offSetX = mapWidth/2;
+            offSetY = mapHeight/2;
 
             getChildren().add(content);
             Scale scale = new Scale(1, 1);
@@ -117,9 +741,13 @@ public class ZoomablePaneTest {
             this.setMaxHeight(700);
             this.setMaxWidth(1200);
             this.setBackground(new Background(new BackgroundFill(Color.BLACK, new CornerRadii(5), Insets.EMPTY)));
-            content.setTranslateX(this.getMaxWidth()/2 - content.getBackground().getImages().get(0).getImage().getWidth()/4);
+            content.setTranslateX(this.getMaxWidth()/2 - mapWidth/4);
             content.setTranslateY(20);
 
+            // dragging the map can bring new tiles into view
+            content.translateXProperty().addListener((observable, oldValue, newValue) -> updateTiles());
+            content.translateYProperty().addListener((observable, oldValue, newValue) -> updateTiles());
+
 
             zoomFactor.addListener(new ChangeListener<Number>() {
                 public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
@@ -130,6 +758,7 @@ public class ZoomablePaneTest {
                     scale.setX(newValue.doubleValue());
                     scale.setY(newValue.doubleValue());
                     requestLayout();
+                    updateTiles();
                 }
             });
         }
@@ -138,6 +767,9 @@ public class ZoomablePaneTest {
          * Method that is neccesary when extending Region. Defines how children will be added in the Zoomingpane.
          */
         protected void layoutChildren() {
+            LayoutEvent event = new LayoutEvent();
+            event.begin();
+
             Pos pos = Pos.BOTTOM_RIGHT;
             double width = getWidth();
             double height = getHeight();
@@ -145,16 +777,54 @@ public class ZoomablePaneTest {
             double right = getInsets().getRight();
             double left = getInsets().getLeft();
             double bottom = getInsets().getBottom();
-            double contentWidth = 9999;  //TODO ÄNDRA DENNA FÖR ATT UNDVIKA CROPPING
-            double contentHeight = 9999; //TODO DEN HÄR OXÅ!!
+            double contentWidth = Math.max(9999, mapWidth);  //TODO ÄNDRA DENNA FÖR ATT UNDVIKA CROPPING
+            double contentHeight = Math.max(9999, mapHeight); //TODO DEN HÄR OXÅ!!
             layoutInArea(content, left, top,
                     contentWidth, contentHeight,
                     0, null,
                     pos.getHpos(),
                     pos.getVpos());
+
+            // the unit canvas covers exactly what can be seen
+            if(unitCanvas != null){
+                unitCanvas.relocate(0, 0);
+                unitCanvas.setWidth(width);
+                unitCanvas.setHeight(height);
+            }
+
+            if(event.shouldCommit()){
+                event.width = width;
+                event.height = height;
+                event.commit();
+            }
         }
 
 
+        /**
+         * Sets the size of the map in content, used when the map is not the background image of content
+         */
+        public void setMapSize(double width, double height){
+            mapWidth = width;
+            mapHeight = height;
+            requestLayout();
+        }
+
+        /**
+         * Lays a canvas over the map that is kept the same size as this pane
+         */
+        public void setUnitCanvas(UnitCanvas canvas){
+            unitCanvas = canvas;
+            getChildren().add(canvas);
+            requestLayout();
+        }
+
+        /**
+         * Makes the tile layer (if the map is tiled) show the tiles that are in view at the current zoom
+         */
+        public void updateTiles(){
+            if(tileLayer != null) tileLayer.updateVisibleTiles(getZoomFactor());
+        }
+
         public final Double getZoomFactor() {
             return zoomFactor.get();
         }
@@ -217,6 +887,7 @@ public class ZoomablePaneTest {
             this.layoutBoundsProperty().addListener((ov, oldValue, newValue) -> {
                 outputClip.setWidth(newValue.getWidth());
                 outputClip.setHeight(newValue.getHeight());
+                updateTiles();
             });
         }
     }
@@ -227,36 +898,50 @@ public class ZoomablePaneTest {
      * @param type a string determining what kind of unit this is. The type can be used to determine stats, image etc
      */
     private void addUnit(int X, int Y, Unit.typeOfUnit type){
-        //create new unit at given position
-        Unit unit = new Unit(content, X, Y, type);
+        // handles if unit was placed outside of map
+        int id = simulation.addUnit(X, Y, Unit.toSide(type));
+        if(id == -1) return;
 
-        units.add(unit);
+        //create new unit at given position, and make it the only selected one
+        Unit unit = createUnitView(id, type);
+        clearSelection();
+        select(unit);
+    }
 
-        // handles if unit was placed outside of map
-        if(!unit.isInMap(X, unit.getImageview().getImage().getWidth()/2, Y, unit.getImageview().getImage().getHeight()/2))
-        {
-            unit.removeUnit();
-            units.remove(unit);
-            return;
+    // helper method, shows every unit that is in the simulation but not yet on the map
+    private void showSimulationUnits(){
+        for(int id = 0; id < simulation.getIdLimit(); id++){
+            if(!simulation.isAlive(id)) continue;
+            Unit.typeOfUnit type = simulation.getSide(id) == Side.enemy ? Unit.typeOfUnit.enemy : Unit.typeOfUnit.friend;
+            createUnitView(id, type);
         }
-        // make sure all other units are deselected
-        updateUnitsOnClick();
+    }
 
-        // make it the selected one
-        unit.setIsSelectedUnit(true);
+    // helper method, shows a unit that is in the simulation on the map
+    private Unit createUnitView(int id, Unit.typeOfUnit type){
+        Unit unit = new Unit(content, simulation, id, type);
+        unit.setShownOnMap(!isCanvasRendering && !isShowingGroups);
+        units.add(unit);
+        unitsById.put(id, unit);
+        return unit;
     }
 
     /**
      * Sets up an OnClick so the user can press anywhere on the map to add a unit there.
      */
     private void changeOnClickToAddUnit(){
+        // a replay only shows what happened
+        if(replay != null) return;
+
         content.setCursor(Cursor.CROSSHAIR);
+        isPickingPosition = true;
         content.setOnMousePressed(event -> {
             if(FxmlController.isFriendlySelected) addUnit((int) (event.getX()), (int) event.getY(), Unit.typeOfUnit.friend);
             else addUnit((int) (event.getX()), (int) event.getY(), Unit.typeOfUnit.enemy);
 
             content.setOnMousePressed(event1 -> {});
             content.setCursor(Cursor.DEFAULT);
+            isPickingPosition = false;
         });
     }
 
@@ -264,36 +949,42 @@ public class ZoomablePaneTest {
      * This is the method ran when pressing the "order move" button
      */
     private void orderMove(){
+        if(replay != null) return;
+
         content.setCursor(Cursor.CROSSHAIR);
+        isPickingPosition = true;
 
         content.setOnMousePressed(event -> {
-            for(Unit unit:units){
-                if(unit.getIsSelectedUnit()){
-                    unit.orderMoveToLocation(event.getX(), event.getY());
+            double x = event.getX(), y = event.getY();
+
+            ArrayList<Unit> ordered = new ArrayList<>();
+            for(Unit unit:selectedUnits){
+                if(!unit.hasOrder() && simulation.isInMap(x, y)){
+                    ordered.add(unit);
+                }
+            }
+
+            // a group shares one flow field to the objective, a single unit gets its own path. Either way the
+            // planning is done in the background and the units start moving once it is done
+            if(ordered.size() > 1){
+                pathService.requestFlowField(x, y, field -> {
+                    for(Unit unit:ordered){
+                        unit.orderMoveWithFlowField(field, x, y);
+                    }
+                });
+            }
+            else{
+                for(Unit unit:ordered){
+                    int id = unit.getId();
+                    pathService.requestPath(simulation.getX(id), simulation.getY(id), x, y, path -> {
+                        if(path != null) unit.orderMoveAlongPath(path);
+                    });
                 }
             }
             content.setOnMousePressed(event1 -> {});
             content.setCursor(Cursor.DEFAULT);
+            isPickingPosition = false;
         });
     }
 
-    /**
-     * For every created unit, makes it possible to click that unit to select it and move it and only it around.
-     * On clicking a unit, all other units become deselected.
-     */
-    private void updateUnitsOnClick(){
-        for (Unit unit:units){
-            unit.setIsSelectedUnit(false);
-            unit.getImageview().setOnMousePressed(event -> {
-                // makes every other unit deselected and unable to move
-                for (Unit unitTemp:units){
-                    unitTemp.setIsSelectedUnit(false);
-                }
-
-                // select the clicked unit
-                unit.setIsSelectedUnit(true);
-            });
-        }
-    }
-
 }
\ No newline at end of file
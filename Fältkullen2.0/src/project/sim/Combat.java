@@ -0,0 +1,251 @@
+/* Resolves the fights between units of opposing sides that have run into each other. Every pair of units in contact is
+ * an engagement, and each tick both units of every engagement lose strength by Lanchester's square law: in proportion to
+ * the strength of the enemy firing at them, so a stronger unit wins and keeps more of its strength the bigger its lead.
+ * A unit in several engagements splits its fire between them. Ground that gives cover, or none, changes how much of the
+ * fire hits, see Terrain.getExposure(). A unit whose strength falls below BREAK_STRENGTH is out of the fight. How well
+ * each side fights can be scaled by an effectiveness, which is 1 for both sides unless it is set, e.g. by the Monte
+ * Carlo runner to draw how well the sides fight in a run.
+ *
+ * The engagements are kept as pairs of ids in int arrays, with a set of the pairs so that a new contact finds out in
+ * constant time whether its units are already engaged. Every tick all of them are resolved in one pass over primitive
+ * arrays: the strength and exposure of the engaged units are gathered first, then the fire of every engagement is
+ * computed, each one independently of the others so that with many engagements the work is split over all cores, and
+ * last the losses are added up per unit in order, so the outcome is the same however the work was split.
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+public class Combat {
+
+    // THESE CAN BE CHANGED TO ALTER HOW FIGHTS GO
+    public static final double ATTRITION_RATE = 0.1;    // strength lost per second to a full strength enemy on open ground
+    public static final double BREAK_STRENGTH = 0.2;    // a unit weaker than this is out of the fight and removed
+    public static final double WATER_EXPOSURE = 1.5;    // how much more fire hits a unit in water than on open ground
+
+    // an engagement is over when the units are further apart than this (center to center), e.g. one was ordered away
+    public static final double ENGAGEMENT_RANGE = Simulation.UNIT_SIZE * 1.5;
+
+    // with fewer engagements than this the pass runs on the simulation thread, splitting it would cost more than it saves
+    private static final int PARALLEL_ENGAGEMENTS = 2048;
+
+    private static final int[] NONE = new int[0];
+
+    // the two units of every engagement
+    private int[] first = new int[16], second = new int[16];
+    private int count = 0;
+
+    // every engaged pair, see pairKey()
+    private final HashSet<Long> pairs = new HashSet<>();
+
+    // how much of its strength every side brings to bear, indexed by Side.ordinal()
+    private final double[] effectiveness = {1, 1};
+
+    // the units taking part in the engagements of the current tick, by slot: their ids, strength, the fire they give
+    // (their strength times the effectiveness of their side), exposure, how many enemies they fire at and the strength
+    // they lose. The engagements refer to them by slot while being resolved.
+    private int[] slotIds = new int[32];
+    private double[] strengths = new double[32], firepowers = new double[32], exposures = new double[32];
+    private double[] losses = new double[32];
+    private int[] opponents = new int[32];
+    private int[] firstSlot = new int[16], secondSlot = new int[16];
+    private double[] fireOnFirst = new double[16], fireOnSecond = new double[16];
+    private int engaged = 0;
+
+    // the slot of every unit id plus one, 0 for units that have none. Only the entries of the engaged units are set,
+    // and they are cleared again at the end of the pass.
+    private int[] slotOfId = new int[64];
+
+    Combat(){}
+
+    /**
+     * Starts an engagement between two units, unless they are already engaged with each other
+     */
+    void engage(int unitId, int enemyId){
+        if(!pairs.add(pairKey(unitId, enemyId))) return;
+
+        if(count == first.length){
+            first = Arrays.copyOf(first, count * 2);
+            second = Arrays.copyOf(second, count * 2);
+        }
+        first[count] = unitId;
+        second[count] = enemyId;
+        count++;
+    }
+
+    /**
+     * Sets how much of its strength a side brings to bear, 1 by default. It is not part of save(), so a snapshot, a
+     * journal or a scenario file always plays with the default.
+     */
+    void setEffectiveness(Side side, double effectiveness){
+        this.effectiveness[side.ordinal()] = effectiveness;
+    }
+
+    void clear(){
+        count = 0;
+        pairs.clear();
+    }
+
+    /**
+     * @return how many engagements are going on
+     */
+    int getCount(){
+        return count;
+    }
+
+    /**
+     * @return the engagements as {first0, second0, first1, second1, ...}, e.g. for a snapshot
+     */
+    int[] save(){
+        int[] pairs = new int[count * 2];
+        for(int e = 0; e < count; e++){
+            pairs[2 * e] = first[e];
+            pairs[2 * e + 1] = second[e];
+        }
+        return pairs;
+    }
+
+    /**
+     * Replaces the engagements with ones from save()
+     */
+    void load(int[] engagements){
+        clear();
+        for(int i = 0; i + 1 < engagements.length; i += 2){
+            engage(engagements[i], engagements[i + 1]);
+        }
+    }
+
+    /**
+     * Resolves every engagement for the given time. Engagements whose units are gone or have moved apart end first.
+     * @return the ids of the units that fell below BREAK_STRENGTH, which the simulation removes
+     */
+    int[] resolve(UnitStore units, Terrain terrain, double seconds){
+        gather(units, terrain);
+        if(count == 0) return NONE;
+
+        // the fire of every engagement, which only reads the gathered arrays and writes its own index
+        double rate = ATTRITION_RATE * seconds;
+        if(count >= PARALLEL_ENGAGEMENTS){
+            IntStream.range(0, count).parallel().forEach(e -> fire(e, rate));
+        }
+        else{
+            for(int e = 0; e < count; e++){
+                fire(e, rate);
+            }
+        }
+
+        // the losses per unit, added up in the order of the engagements
+        Arrays.fill(losses, 0, engaged, 0);
+        for(int e = 0; e < count; e++){
+            losses[firstSlot[e]] += fireOnFirst[e];
+            losses[secondSlot[e]] += fireOnSecond[e];
+        }
+
+        int[] broken = NONE;
+        int brokenCount = 0;
+        for(int slot = 0; slot < engaged; slot++){
+            slotOfId[slotIds[slot]] = 0;
+            int id = slotIds[slot];
+            double strength = Math.max(0, strengths[slot] - losses[slot]);
+            units.chunkForWrite(id).strength[id & UnitStore.SLOT_MASK] = strength;
+            if(strength < BREAK_STRENGTH){
+                if(brokenCount == broken.length) broken = Arrays.copyOf(broken, Math.max(4, brokenCount * 2));
+                broken[brokenCount++] = id;
+            }
+        }
+        return Arrays.copyOf(broken, brokenCount);
+    }
+
+    /**
+     * Calls the action with the id of every unit that took part in the last resolve(), e.g. to follow up on the
+     * strength they lost
+     */
+    void forEachEngagedUnit(IntConsumer action){
+        for(int slot = 0; slot < engaged; slot++){
+            action.accept(slotIds[slot]);
+        }
+    }
+
+    /**
+     * Helper method:
+     * Ends the engagements that are over, gives every unit still engaged a slot and gathers its strength and exposure
+     * into the slot arrays.
+     */
+    private void gather(UnitStore units, Terrain terrain){
+        engaged = 0;
+        if(slotOfId.length < units.size()) slotOfId = new int[Math.max(units.size(), slotOfId.length * 2)];
+
+        int kept = 0;
+        for(int e = 0; e < count; e++){
+            if(!units.isAlive(first[e]) || !units.isAlive(second[e])){
+                pairs.remove(pairKey(first[e], second[e]));
+                continue;
+            }
+            UnitStore.Chunk a = units.chunk(first[e]), b = units.chunk(second[e]);
+            int i = first[e] & UnitStore.SLOT_MASK, j = second[e] & UnitStore.SLOT_MASK;
+            double dx = a.x[i] - b.x[j], dy = a.y[i] - b.y[j];
+            if(dx*dx + dy*dy > ENGAGEMENT_RANGE * ENGAGEMENT_RANGE){
+                pairs.remove(pairKey(first[e], second[e]));
+                continue;
+            }
+
+            first[kept] = first[e];
+            second[kept] = second[e];
+            kept++;
+        }
+        count = kept;
+
+        if(firstSlot.length < count){
+            firstSlot = new int[first.length];
+            secondSlot = new int[first.length];
+            fireOnFirst = new double[first.length];
+            fireOnSecond = new double[first.length];
+        }
+        for(int e = 0; e < count; e++){
+            firstSlot[e] = slotOf(first[e], units, terrain);
+            secondSlot[e] = slotOf(second[e], units, terrain);
+            opponents[firstSlot[e]]++;
+            opponents[secondSlot[e]]++;
+        }
+    }
+
+    // helper method, the same key for a pair of units whichever of them comes first
+    private static long pairKey(int unitId, int otherId){
+        return ((long) Math.min(unitId, otherId) << 32) | Math.max(unitId, otherId);
+    }
+
+    // helper method, the slot of a unit, which gets the next free one the first time it is seen in this tick
+    private int slotOf(int id, UnitStore units, Terrain terrain){
+        if(slotOfId[id] != 0) return slotOfId[id] - 1;
+
+        int next = engaged++;
+        if(next == slotIds.length){
+            slotIds = Arrays.copyOf(slotIds, next * 2);
+            strengths = Arrays.copyOf(strengths, next * 2);
+            firepowers = Arrays.copyOf(firepowers, next * 2);
+            exposures = Arrays.copyOf(exposures, next * 2);
+            losses = Arrays.copyOf(losses, next * 2);
+            opponents = Arrays.copyOf(opponents, next * 2);
+        }
+        UnitStore.Chunk c = units.chunk(id);
+        int i = id & UnitStore.SLOT_MASK;
+        slotIds[next] = id;
+        strengths[next] = c.strength[i];
+        firepowers[next] = c.strength[i] * effectiveness[c.side[i]];
+        exposures[next] = terrain.getExposure(c.x[i], c.y[i]);
+        opponents[next] = 0;
+        slotOfId[id] = next + 1;
+        return next;
+    }
+
+    // helper method, the fire both units of an engagement take, each enemy splitting its fire between its opponents
+    private void fire(int e, double rate){
+        int a = firstSlot[e], b = secondSlot[e];
+        fireOnFirst[e] = rate * firepowers[b] / opponents[b] * exposures[a];
+        fireOnSecond[e] = rate * firepowers[a] / opponents[a] * exposures[b];
+    }
+}
@@ -0,0 +1,347 @@
+/* Plays the enemy side: every PLAN_INTERVAL_TICKS it decides for every enemy unit that is standing idle whether to
+ * advance on the nearest friendly unit it knows of, go round it on a flank, hold where it is or retreat.
+ *
+ * How strong the own force around a unit is comes from the influence map of the simulation. The friendly side is only
+ * judged by the units the enemy can see, with the same falloff as the influence map.
+ *
+ * The planning runs on a small pool of background threads, so the javafx thread only pays for starting a round: a
+ * snapshot of the simulation, which takes the same short time no matter how many units there are. Everything else is
+ * worked out from the snapshot in the background: first the enemy's own influence map and what it sees, in maps the
+ * planner keeps for the purpose, and the lists of idle enemy units and the friendly units they can see. Then the idle
+ * units are split into batches that are planned in parallel, each decision within DECISION_BUDGET_NANOS, and every
+ * decision is turned into a path around water and impassable ground by the PathService, like the orders of the
+ * player. When all batches are done the orders are handed to the callback executor and given through the normal order
+ * methods of the simulation, so they are recorded like any other order. A new round is only started once the last one
+ * is done, so a slow round is never queued up behind another.
+ */
+
+package project.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class EnemyPlanner {
+    // how often the enemy makes new decisions, twice a simulated second
+    public static final int PLAN_INTERVAL_TICKS = 30;
+
+    // how long one decision may take. A decision that runs out of time is made on what it has looked at so far.
+    public static final long DECISION_BUDGET_NANOS = 200_000;
+
+    // THESE CAN BE CHANGED TO ALTER HOW THE ENEMY FIGHTS
+    private static final double DANGER_RADIUS = 300;        // a friendly unit this close is a threat to retreat from
+    private static final double RETREAT_STRENGTH = 0.5;     // a weaker unit retreats when threatened
+    private static final double OUTNUMBERED_RATIO = 0.6;    // a force weaker than this part of the threat retreats
+    private static final double RETREAT_DISTANCE = 300;
+    private static final double FLANK_OFFSET = 200;         // how far to the side of the target a flank goes round
+    private static final double FLANK_INFLUENCE = 0.5;      // own influence at a target that means others are on it
+
+    // how many units one background task plans for
+    private static final int BATCH_SIZE = 32;
+
+    // the deadline is checked every this many units looked at
+    private static final int BUDGET_CHECK_INTERVAL = 256;
+
+    private final ExecutorService executor;
+    private final Executor callbackExecutor;
+    private volatile boolean isShutDown = false;
+
+    // only used by the thread that runs the simulation
+    private Simulation simulation;
+    private long lastRoundTick;
+    private boolean isPlanning = false;
+
+    // what the enemy sees and its influence in the round being planned, made again for every map. Only used by the
+    // background threads, by one round at a time.
+    private Terrain surveyedTerrain;
+    private Visibility enemyView;
+    private InfluenceMap enemyInfluence;
+
+    /**
+     * @param callbackExecutor where the orders are given, which has to be the thread that runs the simulation, e.g.
+     *                         Platform::runLater
+     */
+    public EnemyPlanner(Executor callbackExecutor){
+        this.callbackExecutor = callbackExecutor;
+
+        // at most half of the cores, at low priority, so planning never competes with drawing the map
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "enemy-planner");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a planning round for the given simulation if one is due and the last one is done. Called on the thread
+     * that runs the simulation, e.g. once per frame.
+     * @param pathService plans the paths of the orders, on the map of the simulation
+     */
+    public void update(Simulation simulation, PathService pathService){
+        if(isShutDown) return;
+
+        // a round planned on another simulation, or before it was rewound, is thrown away when it is done
+        long tick = simulation.getTickCount();
+        if(simulation != this.simulation || tick < lastRoundTick){
+            this.simulation = simulation;
+            lastRoundTick = tick - PLAN_INTERVAL_TICKS;
+        }
+        if(isPlanning || tick - lastRoundTick < PLAN_INTERVAL_TICKS) return;
+
+        lastRoundTick = tick;
+        Round round = new Round(simulation, pathService);
+        isPlanning = true;
+
+        CompletableFuture.runAsync(() -> survey(round), executor)
+                .thenCompose(surveyed -> planInBatches(round))
+                .whenCompleteAsync((decisions, failure) -> {
+                    isPlanning = false;
+                    if(failure != null || isShutDown || round.simulation != this.simulation) return;
+                    if(round.simulation.getTickCount() < round.tick) return;
+
+                    for(Decision decision : decisions){
+                        // the unit can have been destroyed or given an order since the round started
+                        if(round.simulation.isAlive(decision.id) && !round.simulation.hasOrder(decision.id)){
+                            round.simulation.orderMoveAlong(decision.id, decision.waypoints);
+                        }
+                    }
+                }, callbackExecutor);
+    }
+
+    /**
+     * Helper method, on a background thread:
+     * Works out from the snapshot of a round what the enemy sees, its influence, the idle enemy units and the friendly
+     * units they can see. The view and influence are the same as the simulation's own, except that they follow the
+     * strength of the units exactly rather than in steps.
+     */
+    private void survey(Round round){
+        Terrain terrain = round.simulation.getTerrain();
+        if(terrain != surveyedTerrain){
+            enemyView = new Visibility(terrain);
+            enemyInfluence = new InfluenceMap(terrain);
+            surveyedTerrain = terrain;
+        }
+        enemyView.clear();
+        enemyInfluence.clear();
+
+        // every cell the enemy stands in only has to be looked out of once
+        UnitStore.Frozen units = round.units;
+        BitSet viewpoints = new BitSet();
+        int idle = 0;
+        int[] idleIds = new int[units.size()];
+        for(int id = 0; id < units.size(); id++){
+            UnitStore.Chunk c = units.chunk(id);
+            int i = id & UnitStore.SLOT_MASK;
+            if(!c.alive[i] || c.sideOf(i) != Side.enemy) continue;
+
+            int cell = enemyView.cellAt(c.x[i], c.y[i]);
+            if(!viewpoints.get(cell)){
+                viewpoints.set(cell);
+                enemyView.addViewer(Side.enemy, cell);
+            }
+            enemyInfluence.add(Side.enemy, enemyInfluence.cellAt(c.x[i], c.y[i]), c.strength[i]);
+            if(!c.hasOrder[i] && c.inputX[i] == 0 && c.inputY[i] == 0) idleIds[idle++] = id;
+        }
+
+        int seen = 0;
+        int[] seenIds = new int[units.size()];
+        for(int id = 0; id < units.size(); id++){
+            UnitStore.Chunk c = units.chunk(id);
+            int i = id & UnitStore.SLOT_MASK;
+            if(c.alive[i] && c.sideOf(i) != Side.enemy && enemyView.isVisible(Side.enemy, c.x[i], c.y[i])) seenIds[seen++] = id;
+        }
+        round.setSurvey(enemyInfluence, Arrays.copyOf(idleIds, idle), Arrays.copyOf(seenIds, seen));
+    }
+
+    // helper method, plans the idle units of a surveyed round in batches in parallel
+    private CompletableFuture<List<Decision>> planInBatches(Round round){
+        List<CompletableFuture<List<Decision>>> batches = new ArrayList<>();
+        for(int from = 0; from < round.planned.length; from += BATCH_SIZE){
+            int start = from, end = Math.min(round.planned.length, from + BATCH_SIZE);
+            batches.add(CompletableFuture.supplyAsync(() -> round.plan(start, end), executor));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<Decision> decisions = new ArrayList<>();
+            for(CompletableFuture<List<Decision>> batch : batches){
+                decisions.addAll(batch.join());
+            }
+            return decisions;
+        });
+    }
+
+    /**
+     * Stops the background threads. Rounds that are being planned are thrown away.
+     */
+    public void shutdown(){
+        isShutDown = true;
+        executor.shutdownNow();
+    }
+
+    // an order for one unit
+    private static final class Decision {
+        final int id;
+        final double[] waypoints;
+
+        Decision(int id, double[] waypoints){
+            this.id = id;
+            this.waypoints = waypoints;
+        }
+    }
+
+    /**
+     * One planning round: what the enemy knew when it started, and the decisions made from it. Started on the thread
+     * that runs the simulation with only a snapshot, surveyed by one background thread and then planned by several,
+     * which only read it.
+     */
+    private static final class Round {
+        final Simulation simulation;
+        final PathService pathService;
+        final long tick;
+        final UnitStore.Frozen units;
+        final double width, height;
+
+        // the influence of the enemy side, see survey()
+        InfluenceMap influence;
+
+        // the idle enemy units to plan for
+        int[] planned;
+
+        // the friendly units the enemy can see
+        double[] seenX, seenY, seenStrength;
+
+        Round(Simulation simulation, PathService pathService){
+            this.simulation = simulation;
+            this.pathService = pathService;
+            tick = simulation.getTickCount();
+            units = simulation.takeSnapshot().getUnits();
+            width = simulation.getTerrain().getWidth();
+            height = simulation.getTerrain().getHeight();
+        }
+
+        // takes in what survey() found out
+        void setSurvey(InfluenceMap influence, int[] planned, int[] seenIds){
+            this.influence = influence;
+            this.planned = planned;
+
+            int seen = seenIds.length;
+            seenX = new double[seen];
+            seenY = new double[seen];
+            seenStrength = new double[seen];
+            for(int i = 0; i < seen; i++){
+                UnitStore.Chunk c = units.chunk(seenIds[i]);
+                int slot = seenIds[i] & UnitStore.SLOT_MASK;
+                seenX[i] = c.x[slot];
+                seenY[i] = c.y[slot];
+                seenStrength[i] = c.strength[slot];
+            }
+        }
+
+        // plans for the units planned[start] to planned[end - 1]
+        List<Decision> plan(int start, int end){
+            List<Decision> decisions = new ArrayList<>();
+            for(int i = start; i < end; i++){
+                double[] targets = decide(planned[i], System.nanoTime() + DECISION_BUDGET_NANOS);
+                double[] waypoints = targets != null ? findPath(planned[i], targets) : null;
+                if(waypoints != null) decisions.add(new Decision(planned[i], waypoints));
+            }
+            return decisions;
+        }
+
+        /**
+         * Helper method:
+         * Finds a path for a unit from where it stands through the positions it decided on, in turn
+         * @return the waypoints of the path, or null if there is no way there, in which case the unit holds
+         */
+        private double[] findPath(int id, double[] targets){
+            UnitStore.Chunk c = units.chunk(id);
+            double fromX = c.x[id & UnitStore.SLOT_MASK], fromY = c.y[id & UnitStore.SLOT_MASK];
+
+            double[] waypoints = new double[0];
+            for(int i = 0; i + 1 < targets.length; i += 2){
+                double[] leg = pathService.findPath(fromX, fromY, targets[i], targets[i + 1]);
+                if(leg == null) return null;
+
+                int length = waypoints.length;
+                waypoints = Arrays.copyOf(waypoints, length + leg.length);
+                System.arraycopy(leg, 0, waypoints, length, leg.length);
+                fromX = leg[leg.length - 2];
+                fromY = leg[leg.length - 1];
+            }
+            return waypoints;
+        }
+
+        /**
+         * Helper method:
+         * Decides what one unit does, by comparing the influence of its own force where it stands with the influence
+         * of the friendly units the enemy can see at its target
+         * @return the positions to go to in turn as {x0, y0, x1, y1, ...}, or null if it holds where it is
+         */
+        private double[] decide(int id, long deadline){
+            UnitStore.Chunk c = units.chunk(id);
+            double x = c.x[id & UnitStore.SLOT_MASK], y = c.y[id & UnitStore.SLOT_MASK];
+            double strength = c.strength[id & UnitStore.SLOT_MASK];
+
+            // the nearest friendly unit the enemy knows of is the target
+            int target = -1;
+            double targetDistance = Double.MAX_VALUE;
+            for(int i = 0; i < seenX.length; i++){
+                double distance = Math.hypot(seenX[i] - x, seenY[i] - y);
+                if(distance < targetDistance){
+                    target = i;
+                    targetDistance = distance;
+                }
+                if(i % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) break;
+            }
+            // a unit standing on its target is already fighting it
+            if(target == -1 || targetDistance == 0) return null;
+            double targetX = seenX[target], targetY = seenY[target];
+
+            double threat = 0;
+            for(int i = 0; i < seenX.length; i++){
+                threat += seenStrength[i] * falloff(Math.hypot(seenX[i] - targetX, seenY[i] - targetY));
+                if(i % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) break;
+            }
+
+            // the own force where the unit stands, and whether others of it are at the target already (what is left
+            // there without the unit's own projection)
+            double support = influence.getInfluence(Side.enemy, x, y);
+            double othersAtTarget = influence.getInfluence(Side.enemy, targetX, targetY) - strength * falloff(targetDistance);
+            boolean isTargetEngaged = othersAtTarget > FLANK_INFLUENCE;
+
+            boolean threatened = targetDistance < DANGER_RADIUS;
+            if(threatened && (strength < RETREAT_STRENGTH || support < OUTNUMBERED_RATIO * threat)){
+                // straight away from the target
+                double awayX = (x - targetX) / targetDistance, awayY = (y - targetY) / targetDistance;
+                return order(x + awayX * RETREAT_DISTANCE, y + awayY * RETREAT_DISTANCE);
+            }
+            if(support < threat) return null;
+
+            if(isTargetEngaged){
+                // go round to the side of the target, which side depends on the unit so a group splits up
+                double towardsX = (targetX - x) / targetDistance, towardsY = (targetY - y) / targetDistance;
+                double side = id % 2 == 0 ? 1 : -1;
+                double[] flank = order(targetX - towardsY * side * FLANK_OFFSET, targetY + towardsX * side * FLANK_OFFSET);
+                return new double[] {flank[0], flank[1], targetX, targetY};
+            }
+            return order(targetX, targetY);
+        }
+
+        // helper method, how much of a unit's strength reaches the given distance, as in the influence map
+        private static double falloff(double distance){
+            return Math.max(0, 1 - distance / InfluenceMap.RADIUS);
+        }
+
+        // helper method, a waypoint moved in so a unit standing on it is inside the map
+        private double[] order(double x, double y){
+            double half = Simulation.UNIT_SIZE / 2;
+            return new double[] {Math.min(width - half, Math.max(half, x)), Math.min(height - half, Math.max(half, y))};
+        }
+    }
+}
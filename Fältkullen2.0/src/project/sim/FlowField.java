@@ -0,0 +1,113 @@
+/* A flow field towards one destination on the NavGrid. The integration field holds the cheapest cost from every cell
+ * to the destination and the direction field says which neighbour cell to step to from every cell. Once it is built,
+ * any number of units can be steered towards the destination by looking up the cell they are standing in, without
+ * any of them searching for a path.
+ *
+ * A FlowField is never changed after it is built, so one field can be shared by all units and threads.
+ */
+
+package project.sim;
+
+import java.util.stream.IntStream;
+
+public class FlowField {
+    // the eight neighbour directions, a direction is an index into these
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    private static final byte UNREACHABLE = -1;
+    private static final byte AT_DESTINATION = 8;
+
+    private final NavGrid grid;
+    private final int destination;
+    private final float[] integration;
+    private final byte[] directions;
+
+    private FlowField(NavGrid grid, int destination, float[] integration, byte[] directions){
+        this.grid = grid;
+        this.destination = destination;
+        this.integration = integration;
+        this.directions = directions;
+    }
+
+    /**
+     * Builds the field for a destination cell. The integration field is one Dijkstra search out from the destination
+     * over the whole grid, after which the directions of all rows are worked out in parallel.
+     * @param finder a path finder over the same grid, used for the search
+     */
+    public static FlowField build(NavGrid grid, PathFinder finder, int destination){
+        int columns = grid.getColumns();
+        int rows = grid.getRows();
+        int cellCount = grid.getCellCount();
+
+        // step costs are the same in both directions, so searching out from the destination gives the cost to it
+        finder.expandAll(destination, 0, 0, columns - 1, rows - 1);
+        float[] integration = new float[cellCount];
+        for(int cell = 0; cell < cellCount; cell++){
+            integration[cell] = finder.costTo(cell);
+        }
+
+        byte[] directions = new byte[cellCount];
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            for(int column = 0; column < columns; column++){
+                int cell = row * columns + column;
+                directions[cell] = cheapestDirection(grid, integration, column, row);
+            }
+        });
+        directions[destination] = AT_DESTINATION;
+
+        return new FlowField(grid, destination, integration, directions);
+    }
+
+    // helper method, the neighbour with the lowest cost to the destination
+    private static byte cheapestDirection(NavGrid grid, float[] integration, int column, int row){
+        int columns = grid.getColumns();
+        if(Float.isInfinite(integration[row * columns + column])) return UNREACHABLE;
+
+        byte best = UNREACHABLE;
+        float bestCost = integration[row * columns + column];
+        for(byte direction = 0; direction < 8; direction++){
+            int nextColumn = column + DX[direction];
+            int nextRow = row + DY[direction];
+            if(nextColumn < 0 || nextColumn >= columns || nextRow < 0 || nextRow >= grid.getRows()) continue;
+
+            // same corner rule as the path finder, no squeezing diagonally past cells that cannot be entered
+            if(DX[direction] != 0 && DY[direction] != 0
+                    && (!grid.isPassable(row * columns + nextColumn) || !grid.isPassable(nextRow * columns + column))) continue;
+
+            float cost = integration[nextRow * columns + nextColumn];
+            if(cost < bestCost){
+                bestCost = cost;
+                best = direction;
+            }
+        }
+        return best;
+    }
+
+    public NavGrid getGrid(){
+        return grid;
+    }
+
+    public int getDestination(){
+        return destination;
+    }
+
+    /**
+     * @return the cell to step to from the cell a position is in, the destination cell itself when standing in it, or
+     * -1 if the destination cannot be reached from there
+     */
+    public int nextCell(double x, double y){
+        int cell = grid.cellAt(x, y);
+        byte direction = directions[cell];
+        if(direction == UNREACHABLE) return -1;
+        if(direction == AT_DESTINATION) return destination;
+        return cell + DY[direction] * grid.getColumns() + DX[direction];
+    }
+
+    /**
+     * @return the cost to walk from a position to the destination, infinity if it cannot be reached
+     */
+    public float costAt(double x, double y){
+        return integration[grid.cellAt(x, y)];
+    }
+}
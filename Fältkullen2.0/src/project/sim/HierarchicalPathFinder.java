@@ -0,0 +1,406 @@
+/* Hierarchical path finding (HPA*) over a NavGrid. The grid is cut into square clusters and every stretch of open
+ * border between two clusters gets an entrance. The cheapest paths between the entrances of each cluster are found
+ * once, when the graph is built, so finding a long route only means searching the small graph of entrances and then
+ * gluing together the stored paths.
+ *
+ * After it is built the graph is never changed, so it can be searched from many threads at once as long as every
+ * thread uses its own PathFinder.
+ */
+
+package project.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+public class HierarchicalPathFinder {
+    // clusters are this many nav cells wide and high
+    public static final int CLUSTER_SIZE = 16;
+
+    // a border opening longer than this gets an entrance at each end instead of one in the middle
+    private static final int LONG_ENTRANCE = 6;
+
+    private final NavGrid grid;
+    private final int clusterColumns, clusterRows;
+
+    // the abstract graph. Every node is a nav cell at the edge of a cluster.
+    private int[] nodeCells;
+    private int[][] clusterNodes;
+    private int[][] edgeTargets;
+    private float[][] edgeCosts;
+    private int[][][] edgePaths;
+
+    /**
+     * Builds the abstract graph, which means one search inside a cluster for every entrance
+     * @param finder a path finder over the same grid, only used while building
+     */
+    public HierarchicalPathFinder(NavGrid grid, PathFinder finder){
+        this.grid = grid;
+        clusterColumns = (grid.getColumns() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        clusterRows = (grid.getRows() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        build(finder);
+    }
+
+    public NavGrid getGrid(){
+        return grid;
+    }
+
+    /**
+     * @return the cluster a nav cell is in
+     */
+    public int clusterOf(int cell){
+        int column = (cell % grid.getColumns()) / CLUSTER_SIZE;
+        int row = (cell / grid.getColumns()) / CLUSTER_SIZE;
+        return row * clusterColumns + column;
+    }
+
+    /**
+     * Finds a path between two cells. Cells in the same cluster are searched directly, other paths go through the
+     * abstract graph.
+     * @return the cells of the path from start to goal (both included), or null if there is no path
+     */
+    public int[] findPath(PathFinder finder, int start, int goal){
+        if(clusterOf(start) == clusterOf(goal)){
+            int[] local = searchInCluster(finder, start, goal);
+            if(local != null) return local;
+        }
+
+        int[] route = findRoute(finder, start, goal);
+        return route == null ? null : refine(finder, start, route, goal);
+    }
+
+    /**
+     * Finds which entrances a path between two cells goes through, without turning it into cells
+     * @return the nodes of the route in order, or null if there is no path
+     */
+    public int[] findRoute(PathFinder finder, int start, int goal){
+        int nodeCount = nodeCells.length;
+
+        // the start and goal are connected to the entrances of their clusters with searches inside the clusters
+        float[] startCosts = costsToClusterNodes(finder, start);
+        float[] goalCosts = costsToClusterNodes(finder, goal);
+        int[] startNodes = clusterNodes[clusterOf(start)];
+        int[] goalNodes = clusterNodes[clusterOf(goal)];
+
+        // A* over the abstract graph, node -1 is the start and node nodeCount is the goal
+        float[] cost = new float[nodeCount + 1];
+        int[] parent = new int[nodeCount + 1];
+        boolean[] closed = new boolean[nodeCount + 1];
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+
+        int goalNode = nodeCount;
+        MinQueue open = new MinQueue();
+        for(int i = 0; i < startNodes.length; i++){
+            int node = startNodes[i];
+            if(startCosts[i] < cost[node]){
+                cost[node] = startCosts[i];
+                parent[node] = -1;
+                open.push(node, cost[node] + finder.estimate(nodeCells[node], goal));
+            }
+        }
+
+        while(!open.isEmpty()){
+            int node = open.pop();
+            if(closed[node]) continue;
+            closed[node] = true;
+            if(node == goalNode) break;
+
+            // entering the goal from one of the entrances of its cluster
+            for(int i = 0; i < goalNodes.length; i++){
+                if(goalNodes[i] == node && cost[node] + goalCosts[i] < cost[goalNode]){
+                    cost[goalNode] = cost[node] + goalCosts[i];
+                    parent[goalNode] = node;
+                    open.push(goalNode, cost[goalNode]);
+                }
+            }
+
+            for(int e = 0; e < edgeTargets[node].length; e++){
+                int next = edgeTargets[node][e];
+                float nextCost = cost[node] + edgeCosts[node][e];
+                if(!closed[next] && nextCost < cost[next]){
+                    cost[next] = nextCost;
+                    parent[next] = node;
+                    open.push(next, nextCost + finder.estimate(nodeCells[next], goal));
+                }
+            }
+        }
+
+        if(Float.isInfinite(cost[goalNode])) return null;
+
+        int length = 0;
+        for(int node = parent[goalNode]; node != -1; node = parent[node]) length++;
+        int[] route = new int[length];
+        int node = parent[goalNode];
+        for(int i = length - 1; i >= 0; i--){
+            route[i] = node;
+            node = parent[node];
+        }
+        return route;
+    }
+
+    /**
+     * Turns a route of entrances into cells, joining the start to the first entrance and the last entrance to the goal
+     * with searches inside their clusters. A route found for one start and goal can be refined for any other start
+     * and goal in the same clusters, which is what lets units ordered to the same area share routes.
+     * @return the cells of the path from start to goal (both included), or null if the start or goal cannot reach the
+     * route inside their cluster
+     */
+    public int[] refine(PathFinder finder, int start, int[] route, int goal){
+        if(route.length == 0) return searchInCluster(finder, start, goal);
+
+        int[] head = searchInCluster(finder, start, nodeCells[route[0]]);
+        int[] tail = searchInCluster(finder, nodeCells[route[route.length - 1]], goal);
+        if(head == null || tail == null) return null;
+
+        IntList path = new IntList(head.length + tail.length + route.length * CLUSTER_SIZE);
+        path.addAll(head, 0);
+        for(int i = 0; i + 1 < route.length; i++){
+            int[] between = pathBetween(route[i], route[i + 1]);
+            if(between == null) return null;
+            path.addAll(between, 0);
+        }
+        path.addAll(tail, 1);
+        return path.toArray();
+    }
+
+    // helper method, the stored cells between two connected nodes, without the first node's cell
+    private int[] pathBetween(int from, int to){
+        for(int e = 0; e < edgeTargets[from].length; e++){
+            if(edgeTargets[from][e] == to) return edgePaths[from][e];
+        }
+        return null;
+    }
+
+    // helper method, searches between two cells in the same cluster without leaving it
+    private int[] searchInCluster(PathFinder finder, int from, int to){
+        int cluster = clusterOf(from);
+        if(cluster != clusterOf(to)) return null;
+        int[] b = clusterBounds(cluster);
+        return finder.findPath(from, to, b[0], b[1], b[2], b[3]);
+    }
+
+    // helper method, cost from a cell to every entrance of its cluster
+    private float[] costsToClusterNodes(PathFinder finder, int cell){
+        int cluster = clusterOf(cell);
+        int[] nodes = clusterNodes[cluster];
+        int[] b = clusterBounds(cluster);
+        finder.expandAll(cell, b[0], b[1], b[2], b[3]);
+
+        float[] costs = new float[nodes.length];
+        for(int i = 0; i < nodes.length; i++){
+            costs[i] = finder.costTo(nodeCells[nodes[i]]);
+        }
+        return costs;
+    }
+
+    // helper method, {minColumn, minRow, maxColumn, maxRow} of a cluster in nav cells
+    private int[] clusterBounds(int cluster){
+        int minColumn = (cluster % clusterColumns) * CLUSTER_SIZE;
+        int minRow = (cluster / clusterColumns) * CLUSTER_SIZE;
+        return new int[] {
+                minColumn,
+                minRow,
+                Math.min(minColumn + CLUSTER_SIZE, grid.getColumns()) - 1,
+                Math.min(minRow + CLUSTER_SIZE, grid.getRows()) - 1
+        };
+    }
+
+    /**
+     * Helper method:
+     * Finds the entrances on every border between two clusters, then connects the entrances of each cluster
+     */
+    private void build(PathFinder finder){
+        IntList cells = new IntList(256);
+        IntList pairs = new IntList(256);
+        int columns = grid.getColumns();
+
+        // vertical borders, between a cluster and the one to its right
+        for(int border = CLUSTER_SIZE; border < columns; border += CLUSTER_SIZE){
+            final int leftColumn = border - 1;
+            for(int rowStart = 0; rowStart < grid.getRows(); rowStart += CLUSTER_SIZE){
+                int rowEnd = Math.min(rowStart + CLUSTER_SIZE, grid.getRows());
+                addEntrances(cells, pairs, rowStart, rowEnd, row -> row * columns + leftColumn, 1);
+            }
+        }
+
+        // horizontal borders, between a cluster and the one below it
+        for(int border = CLUSTER_SIZE; border < grid.getRows(); border += CLUSTER_SIZE){
+            final int upperRow = border - 1;
+            for(int columnStart = 0; columnStart < columns; columnStart += CLUSTER_SIZE){
+                int columnEnd = Math.min(columnStart + CLUSTER_SIZE, columns);
+                addEntrances(cells, pairs, columnStart, columnEnd, column -> upperRow * columns + column, columns);
+            }
+        }
+
+        nodeCells = cells.toArray();
+        int nodeCount = nodeCells.length;
+
+        // group the nodes by cluster
+        IntList[] byCluster = new IntList[clusterColumns * clusterRows];
+        for(int i = 0; i < byCluster.length; i++) byCluster[i] = new IntList(8);
+        for(int node = 0; node < nodeCount; node++) byCluster[clusterOf(nodeCells[node])].add(node);
+        clusterNodes = new int[byCluster.length][];
+        for(int i = 0; i < byCluster.length; i++) clusterNodes[i] = byCluster[i].toArray();
+
+        ArrayList<ArrayList<Edge>> edges = new ArrayList<>(nodeCount);
+        for(int node = 0; node < nodeCount; node++) edges.add(new ArrayList<>());
+
+        // edges across borders, a single step between the two cells of an entrance
+        int[] pairArray = pairs.toArray();
+        for(int i = 0; i < pairArray.length; i += 2){
+            int a = pairArray[i], b = pairArray[i + 1];
+            float cost = (grid.getCost(nodeCells[a]) + grid.getCost(nodeCells[b])) / 2;
+            edges.get(a).add(new Edge(b, cost, new int[] {nodeCells[b]}));
+            edges.get(b).add(new Edge(a, cost, new int[] {nodeCells[a]}));
+        }
+
+        // edges inside clusters, one search from every node reaches all the others in the same cluster
+        for(int cluster = 0; cluster < clusterNodes.length; cluster++){
+            int[] nodes = clusterNodes[cluster];
+            int[] b = clusterBounds(cluster);
+            for(int from : nodes){
+                finder.expandAll(nodeCells[from], b[0], b[1], b[2], b[3]);
+                for(int to : nodes){
+                    if(to == from) continue;
+                    int[] path = finder.pathTo(nodeCells[to]);
+                    if(path == null) continue;
+                    edges.get(from).add(new Edge(to, finder.costTo(nodeCells[to]), Arrays.copyOfRange(path, 1, path.length)));
+                }
+            }
+        }
+
+        edgeTargets = new int[nodeCount][];
+        edgeCosts = new float[nodeCount][];
+        edgePaths = new int[nodeCount][][];
+        for(int node = 0; node < nodeCount; node++){
+            ArrayList<Edge> list = edges.get(node);
+            edgeTargets[node] = new int[list.size()];
+            edgeCosts[node] = new float[list.size()];
+            edgePaths[node] = new int[list.size()][];
+            for(int e = 0; e < list.size(); e++){
+                edgeTargets[node][e] = list.get(e).target;
+                edgeCosts[node][e] = list.get(e).cost;
+                edgePaths[node][e] = list.get(e).path;
+            }
+        }
+    }
+
+    /**
+     * Helper method:
+     * Walks along one cluster border and adds a pair of nodes for every stretch where both sides are passable
+     * @param cellBefore gives the cell on the near side of the border for a position along it
+     * @param across what to add to a near side cell to get the cell on the other side
+     */
+    private void addEntrances(IntList cells, IntList pairs, int from, int to, IntUnaryOperator cellBefore, int across){
+        int runStart = -1;
+        for(int i = from; i <= to; i++){
+            boolean open = i < to && grid.isPassable(cellBefore.applyAsInt(i)) && grid.isPassable(cellBefore.applyAsInt(i) + across);
+            if(open && runStart == -1) runStart = i;
+            if(!open && runStart != -1){
+                int length = i - runStart;
+                if(length > LONG_ENTRANCE){
+                    addEntrance(cells, pairs, cellBefore.applyAsInt(runStart), across);
+                    addEntrance(cells, pairs, cellBefore.applyAsInt(i - 1), across);
+                }
+                else{
+                    addEntrance(cells, pairs, cellBefore.applyAsInt(runStart + length / 2), across);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    // helper method
+    private void addEntrance(IntList cells, IntList pairs, int cell, int across){
+        int node = cells.size();
+        cells.add(cell);
+        cells.add(cell + across);
+        pairs.add(node);
+        pairs.add(node + 1);
+    }
+
+    // an edge of the abstract graph while it is being built
+    private static class Edge {
+        final int target;
+        final float cost;
+        final int[] path;
+
+        Edge(int target, float cost, int[] path){
+            this.target = target;
+            this.cost = cost;
+            this.path = path;
+        }
+    }
+
+    // a growing int array, to avoid boxing while the graph is built
+    private static class IntList {
+        private int[] values;
+        private int size = 0;
+
+        IntList(int capacity){
+            values = new int[Math.max(1, capacity)];
+        }
+
+        void add(int value){
+            if(size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(int[] array, int from){
+            for(int i = from; i < array.length; i++) add(array[i]);
+        }
+
+        int size(){
+            return size;
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // a simple binary heap of nodes sorted on a float key, for the search over the abstract graph
+    private static class MinQueue {
+        private int[] nodes = new int[64];
+        private float[] keys = new float[64];
+        private int size = 0;
+
+        boolean isEmpty(){
+            return size == 0;
+        }
+
+        void push(int node, float key){
+            if(size == nodes.length){
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while(i > 0 && keys[(i - 1) / 2] > key){
+                nodes[i] = nodes[(i - 1) / 2];
+                keys[i] = keys[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+        }
+
+        int pop(){
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            float key = keys[size];
+            int i = 0;
+            while(2 * i + 1 < size){
+                int child = 2 * i + 1;
+                if(child + 1 < size && keys[child + 1] < keys[child]) child++;
+                if(keys[child] >= key) break;
+                nodes[i] = nodes[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+            return top;
+        }
+    }
+}
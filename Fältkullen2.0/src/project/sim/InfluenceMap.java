@@ -0,0 +1,198 @@
+/* How much each side dominates every part of the map, kept on a grid of CELL_SIZE cells. Every unit projects its
+ * strength onto the cells around it, fading to nothing at RADIUS and damped by ground that is slow to cross, like
+ * water, and so hard to hold. The influence of a side in a cell is the sum of what its units project there, and the
+ * threat to a side is the influence of the other side.
+ *
+ * Like Visibility the map is kept up to date incrementally: a unit's projection is only taken away and added again when
+ * it moves into another cell or its strength has changed by STRENGTH_STEP. The projections are whole numbers
+ * (INFLUENCE_SCALE to a unit of strength), so taking one away leaves exactly what was there before it was added, no
+ * matter how often that happens. Every change marks the tiles of TILE_CELLS by TILE_CELLS cells it touched, so whatever
+ * draws the map only has to redraw those.
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class InfluenceMap {
+    public static final double CELL_SIZE = 64;
+
+    // how far a unit projects its strength, in map pixels
+    public static final double RADIUS = 480;
+
+    // how much a unit's strength has to change before its projection is updated
+    public static final double STRENGTH_STEP = 0.05;
+
+    // how many cells wide and high the tiles that are marked as changed are
+    public static final int TILE_CELLS = 16;
+
+    // the influence of a unit of full strength standing in the cell
+    private static final int INFLUENCE_SCALE = 1000;
+
+    private final int columns, rows;
+    private final int tileColumns, tileRows;
+
+    // how much of a projection reaches into each cell, INFLUENCE_SCALE for open ground
+    private final int[] terrainWeights;
+
+    // for every side (indexed by Side.ordinal()): the influence in every cell
+    private final int[][] influence;
+
+    // the cells within RADIUS of a cell, as offsets from it, and how much of a projection reaches each of them
+    private final int[] rangeColumns, rangeRows;
+    private final double[] falloff;
+
+    // the tiles that have changed since takeDirtyTiles() was last called
+    private BitSet dirtyTiles;
+
+    InfluenceMap(Terrain terrain){
+        columns = Math.max(1, (int) Math.ceil(terrain.getWidth() / CELL_SIZE));
+        rows = Math.max(1, (int) Math.ceil(terrain.getHeight() / CELL_SIZE));
+        tileColumns = (columns + TILE_CELLS - 1) / TILE_CELLS;
+        tileRows = (rows + TILE_CELLS - 1) / TILE_CELLS;
+
+        // a cell is as slow to cross as the ground in its middle. Ground that is quicker to cross than open ground is
+        // not easier to hold than it, and ground that can not be crossed can not be held at all
+        terrainWeights = new int[columns * rows];
+        for(int row = 0; row < rows; row++){
+            for(int column = 0; column < columns; column++){
+                double cost = terrain.getMovementCost((column + 0.5) * CELL_SIZE, (row + 0.5) * CELL_SIZE);
+                terrainWeights[row * columns + column] = (int) Math.round(INFLUENCE_SCALE / Math.max(1, cost));
+            }
+        }
+
+        influence = new int[Side.values().length][columns * rows];
+
+        // all offsets whose cell middle is within range of the middle of the cell in the center, fading linearly
+        int reach = (int) Math.ceil(RADIUS / CELL_SIZE);
+        double rangeInCells = RADIUS / CELL_SIZE;
+        int count = 0;
+        int[] offsetColumns = new int[(2 * reach + 1) * (2 * reach + 1)];
+        int[] offsetRows = new int[offsetColumns.length];
+        double[] weights = new double[offsetColumns.length];
+        for(int dy = -reach; dy <= reach; dy++){
+            for(int dx = -reach; dx <= reach; dx++){
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                if(distance >= rangeInCells) continue;
+                offsetColumns[count] = dx;
+                offsetRows[count] = dy;
+                weights[count] = 1 - distance / rangeInCells;
+                count++;
+            }
+        }
+        rangeColumns = Arrays.copyOf(offsetColumns, count);
+        rangeRows = Arrays.copyOf(offsetRows, count);
+        falloff = Arrays.copyOf(weights, count);
+
+        dirtyTiles = new BitSet(tileColumns * tileRows);
+        dirtyTiles.set(0, tileColumns * tileRows);
+    }
+
+    /**
+     * @return the cell of the grid a position is in
+     */
+    int cellAt(double x, double y){
+        int column = Math.min(columns - 1, Math.max(0, (int) (x / CELL_SIZE)));
+        int row = Math.min(rows - 1, Math.max(0, (int) (y / CELL_SIZE)));
+        return row * columns + column;
+    }
+
+    /**
+     * Adds the projection of a unit of the given strength standing in the given cell to its side
+     */
+    void add(Side side, int cell, double strength){
+        project(side, cell, strength, 1);
+    }
+
+    /**
+     * Takes away a projection added before with add(), given the same cell and strength
+     */
+    void remove(Side side, int cell, double strength){
+        project(side, cell, strength, -1);
+    }
+
+    void clear(){
+        for(int[] cells : influence){
+            Arrays.fill(cells, 0);
+        }
+        dirtyTiles.set(0, tileColumns * tileRows);
+    }
+
+    /**
+     * @return the influence of a side at a position, where a unit of full strength gives 1 in its own cell
+     */
+    public double getInfluence(Side side, double x, double y){
+        return getCellInfluence(side, cellAt(x, y));
+    }
+
+    /**
+     * @return the influence of a side in a cell (row * columns + column)
+     */
+    public double getCellInfluence(Side side, int cell){
+        return influence[side.ordinal()][cell] / (double) INFLUENCE_SCALE;
+    }
+
+    /**
+     * @return how much the other side threatens a side at a position, the same as the influence of the other side
+     */
+    public double getThreat(Side side, double x, double y){
+        return getInfluence(side.opponent(), x, y);
+    }
+
+    /**
+     * @return how far a side controls a position: its own influence minus that of the other side
+     */
+    public double getControl(Side side, double x, double y){
+        int cell = cellAt(x, y);
+        return getCellInfluence(side, cell) - getCellInfluence(side.opponent(), cell);
+    }
+
+    /**
+     * @return the tiles that have changed since the last call, as tileRow * tileColumns + tileColumn. Starts over with
+     * no tiles marked.
+     */
+    public BitSet takeDirtyTiles(){
+        BitSet dirty = dirtyTiles;
+        dirtyTiles = new BitSet(tileColumns * tileRows);
+        return dirty;
+    }
+
+    public int getColumns(){
+        return columns;
+    }
+
+    public int getRows(){
+        return rows;
+    }
+
+    public int getTileColumns(){
+        return tileColumns;
+    }
+
+    public int getTileRows(){
+        return tileRows;
+    }
+
+    // helper method, adds (sign 1) or takes away (sign -1) the projection of a unit in every cell in range
+    private void project(Side side, int cell, double strength, int sign){
+        if(cell < 0 || strength <= 0) return;
+
+        int[] cells = influence[side.ordinal()];
+        int column = cell % columns, row = cell / columns;
+        for(int i = 0; i < rangeColumns.length; i++){
+            int targetColumn = column + rangeColumns[i], targetRow = row + rangeRows[i];
+            if(targetColumn < 0 || targetRow < 0 || targetColumn >= columns || targetRow >= rows) continue;
+            int target = targetRow * columns + targetColumn;
+            cells[target] += sign * (int) (strength * falloff[i] * terrainWeights[target]);
+        }
+
+        // the tiles the range touched
+        int reach = (int) Math.ceil(RADIUS / CELL_SIZE);
+        int fromTileColumn = Math.max(0, column - reach) / TILE_CELLS, toTileColumn = Math.min(columns - 1, column + reach) / TILE_CELLS;
+        int fromTileRow = Math.max(0, row - reach) / TILE_CELLS, toTileRow = Math.min(rows - 1, row + reach) / TILE_CELLS;
+        for(int tileRow = fromTileRow; tileRow <= toTileRow; tileRow++){
+            dirtyTiles.set(tileRow * tileColumns + fromTileColumn, tileRow * tileColumns + toTileColumn + 1);
+        }
+    }
+}
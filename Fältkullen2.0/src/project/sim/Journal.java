@@ -0,0 +1,306 @@
+/* Records everything that happens in a simulation to an append-only binary file, so the session can be played back
+ * afterwards with Replay: units added and removed, orders, manual input, contacts and every tick with the number of
+ * steps it ran. The simulation has no randomness, so the same inputs between the same ticks always give the same
+ * result and a recorded session plays back exactly.
+ *
+ * Every CHECKPOINT_TICKS the state of all units is saved as well, and the end of the file has an index of the
+ * checkpoints, so a replay can jump to any time by loading the last checkpoint before it and playing only the records
+ * after that.
+ *
+ * The records are put in a buffer on the thread that runs the simulation, and full buffers are written to the file by
+ * a background thread through a FileChannel. Checkpoints are taken as snapshots of the simulation, which costs nothing
+ * up front, and are turned into bytes on the background thread too.
+ *
+ * Layout (big-endian):
+ *   int     MAGIC
+ *   short   VERSION
+ *   int     length of the map reference, then that many bytes of UTF-8
+ *   int     map width, map height, cell size, columns, rows
+ *   byte[]  terrain class of every cell, row by row
+ *   records byte type, then the fields of the type as written by the record methods below
+ *   index   byte END, long session ticks, int number of checkpoints, then the session tick and file offset of each as
+ *           longs, and last the file offset of the END byte as a long and END_MAGIC. Missing if the program stopped
+ *           before the journal was closed, the replay then finds the checkpoints by reading all records.
+ */
+
+package project.sim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class Journal implements Closeable {
+    static final int MAGIC = 0x464B4A52;        // "FKJR"
+    static final int END_MAGIC = 0x464B4A45;    // "FKJE"
+    static final short VERSION = 2;
+
+    // record types
+    static final byte TICK = 1, ADD_UNIT = 2, REMOVE_UNIT = 3, REMOVE_ALL_UNITS = 4, ORDER = 5, FLOW_FIELD_ORDER = 6,
+            MANUAL_INPUT = 7, CONTACT = 8, CHECKPOINT = 9, END = 10;
+
+    // kinds of checkpoints. A periodic checkpoint holds the state the records before it lead to, a jump the state the
+    // simulation was set to, e.g. at the start of the recording or when it was rewound to a snapshot
+    static final byte PERIODIC = 0, JUMP = 1;
+
+    // a checkpoint every ten seconds of the session
+    static final int CHECKPOINT_TICKS = 600;
+
+    // how many bytes of records are collected before they are handed to the writer thread
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Simulation simulation;
+    private final FileChannel channel;
+    private final ExecutorService writer;
+
+    // only used by the thread that runs the simulation
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long sessionTicks = 0;
+    private long lastCheckpoint = 0;
+
+    // only used by the writer thread: the session tick and file offset of every checkpoint written so far
+    private final ArrayList<long[]> checkpoints = new ArrayList<>();
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // the first thing that went wrong on the writer thread, after which nothing more is written
+    private volatile IOException failure;
+
+    private Journal(Simulation simulation, FileChannel channel){
+        this.simulation = simulation;
+        this.channel = channel;
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts recording a simulation, from the state it is in now until close() is called
+     * @param mapReference something that says which map the terrain belongs to, e.g. the path of the map image
+     */
+    public static Journal start(Path file, Simulation simulation, String mapReference) throws IOException{
+        if(!(simulation.getTerrain() instanceof TerrainGrid)) throw new IOException("Only simulations on a terrain raster can be recorded");
+        TerrainGrid terrain = (TerrainGrid) simulation.getTerrain();
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        Journal journal = new Journal(simulation, channel);
+
+        byte[] reference = mapReference == null ? new byte[0] : mapReference.getBytes(StandardCharsets.UTF_8);
+        byte[] cells = terrain.getCells();
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + Integer.BYTES + reference.length + 5 * Integer.BYTES + cells.length);
+        header.putInt(MAGIC).putShort(VERSION);
+        header.putInt(reference.length).put(reference);
+        header.putInt(terrain.getWidth()).putInt(terrain.getHeight()).putInt(terrain.getCellSize())
+                .putInt(terrain.getColumns()).putInt(terrain.getRows());
+        header.put(cells);
+        journal.buffer = header;
+
+        // the first checkpoint is where the replay starts
+        journal.checkpoint(JUMP);
+        simulation.setJournal(journal);
+        return journal;
+    }
+
+    /**
+     * Stops recording and waits until everything has been written
+     * @throws IOException if something could not be written, now or earlier in the background
+     */
+    @Override
+    public void close() throws IOException{
+        simulation.setJournal(null);
+        handOff();
+        long ticks = sessionTicks;
+        submit(() -> writeIndex(ticks));
+        writer.shutdown();
+
+        try{
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+        if(failure != null) throw failure;
+    }
+
+    /**
+     * @return how many ticks have been recorded
+     */
+    public long getSessionTicks(){
+        return sessionTicks;
+    }
+
+    // int steps
+    void recordTick(int steps){
+        if(sessionTicks - lastCheckpoint >= CHECKPOINT_TICKS) checkpoint(PERIODIC);
+
+        makeRoom(1 + Integer.BYTES);
+        buffer.put(TICK).putInt(steps);
+        sessionTicks += steps;
+    }
+
+    // int id, byte side, double x, double y
+    void recordAddUnit(int id, Side side, double x, double y){
+        makeRoom(1 + Integer.BYTES + 1 + 2 * Double.BYTES);
+        buffer.put(ADD_UNIT).putInt(id).put((byte) side.ordinal()).putDouble(x).putDouble(y);
+    }
+
+    // int id
+    void recordRemoveUnit(int id){
+        makeRoom(1 + Integer.BYTES);
+        buffer.put(REMOVE_UNIT).putInt(id);
+    }
+
+    // nothing
+    void recordRemoveAllUnits(){
+        makeRoom(1);
+        buffer.put(REMOVE_ALL_UNITS);
+    }
+
+    // int id, int number of waypoint coordinates, the coordinates
+    void recordOrder(int id, double[] waypoints){
+        makeRoom(1 + 2 * Integer.BYTES + waypoints.length * Double.BYTES);
+        buffer.put(ORDER).putInt(id).putInt(waypoints.length);
+        for(double coordinate : waypoints){
+            buffer.putDouble(coordinate);
+        }
+    }
+
+    // int id, double x, double y. The flow field is built again from the position when the journal is played back
+    void recordFlowFieldOrder(int id, double x, double y){
+        makeRoom(1 + Integer.BYTES + 2 * Double.BYTES);
+        buffer.put(FLOW_FIELD_ORDER).putInt(id).putDouble(x).putDouble(y);
+    }
+
+    // int id, byte dx, byte dy, byte running
+    void recordManualInput(int id, int dx, int dy, boolean running){
+        makeRoom(1 + Integer.BYTES + 3);
+        buffer.put(MANUAL_INPUT).putInt(id).put((byte) dx).put((byte) dy).put((byte) (running ? 1 : 0));
+    }
+
+    // int unit id, int enemy id
+    void recordContact(int unitId, int enemyId){
+        makeRoom(1 + 2 * Integer.BYTES);
+        buffer.put(CONTACT).putInt(unitId).putInt(enemyId);
+    }
+
+    // the simulation was set to another state than the records lead to
+    void recordJump(){
+        checkpoint(JUMP);
+    }
+
+    /**
+     * Helper method:
+     * Saves the state of all units. The snapshot is taken here, the bytes are written on the writer thread.
+     *
+     * byte kind, long session tick, long tick count, int id limit, then for every id a byte that is 1 if the unit is
+     * alive, and if it is: byte side, double x, y, velocity x, velocity y, byte input x, input y, running, double
+     * strength, int number of waypoint coordinates (0 if no order), the coordinates, int waypoint index, byte 1 if it
+     * follows a flow field. Last int number of engagements and the ids of the two units of each.
+     */
+    private void checkpoint(byte kind){
+        Simulation.Snapshot snapshot = simulation.takeSnapshot();
+        long at = sessionTicks;
+        lastCheckpoint = at;
+
+        handOff();
+        submit(() -> {
+            checkpoints.add(new long[] {at, channel.position()});
+
+            UnitStore.Frozen units = snapshot.getUnits();
+            ByteBuffer out = checkpointBuffer;
+            out.put(CHECKPOINT).put(kind).putLong(at).putLong(snapshot.getTickCount()).putInt(units.size());
+            for(int id = 0; id < units.size(); id++){
+                UnitStore.Chunk c = units.chunk(id);
+                int i = id & UnitStore.SLOT_MASK;
+                if(out.remaining() < 1 + 1 + 5 * Double.BYTES + 3 + 2 * Integer.BYTES + 1) write(out);
+                if(!c.alive[i]){
+                    out.put((byte) 0);
+                    continue;
+                }
+
+                double[] waypoints = c.hasOrder[i] ? c.waypoints[i] : new double[0];
+                out.put((byte) 1).put(c.side[i]);
+                out.putDouble(c.x[i]).putDouble(c.y[i]).putDouble(c.velocityX[i]).putDouble(c.velocityY[i]);
+                out.put(c.inputX[i]).put(c.inputY[i]).put((byte) (c.running[i] ? 1 : 0));
+                out.putDouble(c.strength[i]);
+                out.putInt(waypoints.length);
+                for(double coordinate : waypoints){
+                    if(out.remaining() < Double.BYTES) write(out);
+                    out.putDouble(coordinate);
+                }
+                if(out.remaining() < Integer.BYTES + 1) write(out);
+                out.putInt(c.waypointIndex[i]).put((byte) (c.flowField[i] != null ? 1 : 0));
+            }
+
+            int[] engagements = snapshot.getEngagements();
+            if(out.remaining() < Integer.BYTES) write(out);
+            out.putInt(engagements.length / 2);
+            for(int id : engagements){
+                if(out.remaining() < Integer.BYTES) write(out);
+                out.putInt(id);
+            }
+            write(out);
+        });
+    }
+
+    // helper method, runs on the writer thread after everything else has been written
+    private void writeIndex(long ticks) throws IOException{
+        long indexOffset = channel.position();
+        ByteBuffer index = ByteBuffer.allocate(1 + Long.BYTES + Integer.BYTES + checkpoints.size() * 2 * Long.BYTES + Long.BYTES + Integer.BYTES);
+        index.put(END).putLong(ticks).putInt(checkpoints.size());
+        for(long[] checkpoint : checkpoints){
+            index.putLong(checkpoint[0]).putLong(checkpoint[1]);
+        }
+        index.putLong(indexOffset).putInt(END_MAGIC);
+        write(index);
+    }
+
+    // helper method, makes sure the buffer has room for a record of the given size
+    private void makeRoom(int bytes){
+        if(buffer.remaining() >= bytes) return;
+
+        handOff();
+        if(bytes > buffer.capacity()) buffer = ByteBuffer.allocate(bytes);
+    }
+
+    // helper method, gives the collected records to the writer thread and starts on a new buffer
+    private void handOff(){
+        if(buffer.position() == 0) return;
+
+        ByteBuffer full = buffer;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        submit(() -> write(full));
+    }
+
+    // helper method, runs on the writer thread
+    private void write(ByteBuffer out) throws IOException{
+        out.flip();
+        while(out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    // helper method, runs a task on the writer thread unless writing has already failed
+    private void submit(WriteTask task){
+        writer.execute(() -> {
+            if(failure != null) return;
+            try{
+                task.run();
+            } catch (IOException e) {
+                failure = e;
+            }
+        });
+    }
+
+    private interface WriteTask {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,249 @@
+/* Plays out one scenario many times without a display and collects statistics about how the runs ended. The fights are
+ * resolved by Combat the same way as on the map, which on its own always goes the same way, so every run draws what is
+ * not known beforehand: how well each side fights, an effectiveness that scales the fire of all its units, and where
+ * exactly the units start, up to PLACEMENT_SPREAD away from their placements, which changes when and in what order they
+ * run into each other. The effectiveness is log-normal around 1, so a side is as likely to fight twice as well as half
+ * as well, and now and then the weaker side wins. The runs are spread over all cores with a parallel stream
+ * (a fork-join pool), and every run gets its own random generator seeded from the batch seed and the number of the
+ * run, so a batch gives the same results every time no matter how the runs end up on the threads.
+ *
+ * Only running statistics are kept, never the runs themselves, so the memory used does not grow with the number of
+ * runs.
+ *
+ * Usage: java project.sim.MonteCarloRunner <runs> [seed] [map image]
+ */
+
+package project.sim;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+public class MonteCarloRunner {
+
+    // the standard deviation of the logarithm of the effectiveness of a side by default, see Combat.setEffectiveness()
+    public static final double EFFECTIVENESS_SPREAD = 0.5;
+
+    // how far a unit can start from its placement in each direction, in map pixels
+    public static final double PLACEMENT_SPREAD = Simulation.UNIT_SIZE;
+
+    // a run that has not ended after this much simulated time is counted as a draw
+    public static final double MAX_RUN_SECONDS = 2 * 60 * 60;
+
+    private final Scenario scenario;
+    private final TerrainGrid terrain;
+    private final double effectivenessSpread;
+    private final PathService pathService;
+
+    /**
+     * @param scenario the scenario to play out
+     * @param terrain the map, shared by all runs
+     */
+    public MonteCarloRunner(Scenario scenario, TerrainGrid terrain){
+        this(scenario, terrain, EFFECTIVENESS_SPREAD);
+    }
+
+    /**
+     * @param effectivenessSpread the standard deviation of the logarithm of the effectiveness of each side, 0 for both
+     * sides always fighting equally well
+     */
+    public MonteCarloRunner(Scenario scenario, TerrainGrid terrain, double effectivenessSpread){
+        if(effectivenessSpread < 0) throw new IllegalArgumentException("The effectiveness spread can not be negative");
+        this.scenario = scenario;
+        this.terrain = terrain;
+        this.effectivenessSpread = effectivenessSpread;
+
+        // all runs share the graph of one path service, but every run has its own route cache (see runOnce())
+        pathService = new PathService(terrain, Runnable::run);
+    }
+
+    /**
+     * Plays out the scenario the given number of times on all cores
+     * @param seed the batch seed, the same seed always gives the same statistics
+     */
+    public Statistics run(int runs, long seed){
+        return IntStream.range(0, runs).parallel()
+                .mapToObj(run -> runOnce(seed, run))
+                .collect(Statistics::new, Statistics::add, Statistics::merge);
+    }
+
+    /**
+     * Plays out the scenario once
+     * @param run the number of the run, which together with the seed decides its random generator
+     */
+    public RunResult runOnce(long seed, int run){
+        SplittableRandom random = new SplittableRandom(seed ^ (run * 0x9E3779B97F4A7C15L));
+        Simulation simulation = new Simulation(terrain);
+        RunResult result = new RunResult();
+
+        // how well the sides fight in this run
+        for(Side side : Side.values()){
+            double effectiveness = Math.exp(effectivenessSpread * random.nextGaussian());
+            simulation.setCombatEffectiveness(side, effectiveness);
+        }
+
+        // place the units, scattered around their placements. A unit scattered off the map starts on its placement.
+        int[] ids = new int[scenario.getPlacements().size()];
+        for(int i = 0; i < ids.length; i++){
+            Scenario.Placement placement = scenario.getPlacements().get(i);
+            double x = placement.x + random.nextDouble(-PLACEMENT_SPREAD, PLACEMENT_SPREAD);
+            double y = placement.y + random.nextDouble(-PLACEMENT_SPREAD, PLACEMENT_SPREAD);
+            ids[i] = simulation.addUnit(x, y, placement.side);
+            if(ids[i] == -1) ids[i] = simulation.addUnit(placement.x, placement.y, placement.side);
+        }
+        int startingFriends = simulation.countUnits(Side.friend);
+        int startingEnemies = simulation.countUnits(Side.enemy);
+
+        // a contact starts a fight, which Combat resolves over the following ticks
+        simulation.setListener((unitId, enemyId) -> {
+            if(result.firstContactSeconds < 0) result.firstContactSeconds = simulation.getTickCount() * Simulation.TICK_SECONDS;
+        });
+
+        // give the orders. A route cache shared with the other runs would hold whichever route a run running at the
+        // same time found first, so the paths would depend on how the runs are scheduled.
+        PathService.RouteCache routes = new PathService.RouteCache();
+        for(Scenario.Order order : scenario.getOrders()){
+            int id = ids[order.placement];
+            if(id == -1) continue;
+            double[] path = pathService.findPath(simulation.getX(id), simulation.getY(id), order.x, order.y, routes);
+            if(path != null) simulation.orderMoveAlong(id, path);
+        }
+
+        // the run goes on while both sides have units and something can still happen: units are moving or fighting
+        long maxTicks = (long) (MAX_RUN_SECONDS / Simulation.TICK_SECONDS);
+        while(simulation.getTickCount() < maxTicks
+                && simulation.countUnits(Side.friend) > 0
+                && simulation.countUnits(Side.enemy) > 0
+                && (simulation.countUnitsWithOrders() > 0 || simulation.countEngagements() > 0)){
+            simulation.tick();
+        }
+
+        int friends = simulation.countUnits(Side.friend), enemies = simulation.countUnits(Side.enemy);
+        result.seconds = simulation.getTickCount() * Simulation.TICK_SECONDS;
+        result.friendlyLosses = startingFriends - friends;
+        result.enemyLosses = startingEnemies - enemies;
+        if(enemies == 0 && friends > 0) result.winner = Side.friend;
+        else if(friends == 0 && enemies > 0) result.winner = Side.enemy;
+        return result;
+    }
+
+    public void shutdown(){
+        pathService.shutdown();
+    }
+
+    /**
+     * How one run ended. Only lives until it has been added to the statistics.
+     */
+    public static class RunResult {
+        public Side winner = null;    // null if neither side was wiped out, or both were
+        public int friendlyLosses, enemyLosses;
+        public double seconds;
+        public double firstContactSeconds = -1;    // -1 if there was no contact
+    }
+
+    /**
+     * The combined outcome of many runs
+     */
+    public static class Statistics {
+        private long runs = 0;
+        private long friendlyWins = 0, enemyWins = 0;
+        private final RunningStatistics friendlyLosses = new RunningStatistics();
+        private final RunningStatistics enemyLosses = new RunningStatistics();
+        private final RunningStatistics timeToContact = new RunningStatistics();
+        private final RunningStatistics duration = new RunningStatistics();
+
+        public void add(RunResult result){
+            runs++;
+            if(result.winner == Side.friend) friendlyWins++;
+            if(result.winner == Side.enemy) enemyWins++;
+            friendlyLosses.add(result.friendlyLosses);
+            enemyLosses.add(result.enemyLosses);
+            if(result.firstContactSeconds >= 0) timeToContact.add(result.firstContactSeconds);
+            duration.add(result.seconds);
+        }
+
+        public void merge(Statistics other){
+            runs += other.runs;
+            friendlyWins += other.friendlyWins;
+            enemyWins += other.enemyWins;
+            friendlyLosses.merge(other.friendlyLosses);
+            enemyLosses.merge(other.enemyLosses);
+            timeToContact.merge(other.timeToContact);
+            duration.merge(other.duration);
+        }
+
+        public long getRuns(){
+            return runs;
+        }
+
+        public double getFriendlyWinRate(){
+            return runs == 0 ? 0 : (double) friendlyWins / runs;
+        }
+
+        public double getEnemyWinRate(){
+            return runs == 0 ? 0 : (double) enemyWins / runs;
+        }
+
+        public RunningStatistics getFriendlyLosses(){
+            return friendlyLosses;
+        }
+
+        public RunningStatistics getEnemyLosses(){
+            return enemyLosses;
+        }
+
+        public RunningStatistics getTimeToContact(){
+            return timeToContact;
+        }
+
+        public RunningStatistics getDuration(){
+            return duration;
+        }
+
+        @Override
+        public String toString(){
+            return "runs:              " + runs + "\n"
+                    + String.format("friendly win rate: %.4f%n", getFriendlyWinRate())
+                    + String.format("enemy win rate:    %.4f%n", getEnemyWinRate())
+                    + "friendly losses:   " + friendlyLosses + "\n"
+                    + "enemy losses:      " + enemyLosses + "\n"
+                    + "time to contact:   " + timeToContact + " s\n"
+                    + "run length:        " + duration + " s";
+        }
+    }
+
+    /**
+     * Helper method:
+     * Reads a map image from disk into a terrain raster, without javafx. The colors are classified with the palette
+     * of the map, see TerrainPalette.
+     */
+    public static TerrainGrid loadTerrain(File image) throws IOException{
+        BufferedImage map = ImageIO.read(image);
+        if(map == null) throw new IOException("Could not read " + image + " as an image");
+
+        int width = map.getWidth(), height = map.getHeight();
+        int[] pixels = map.getRGB(0, 0, width, height, null, 0, width);
+        return TerrainGrid.fromPixels(pixels, width, height, 1, TerrainPalette.forMap(image.toPath()));
+    }
+
+    public static void main(String[] args) throws IOException{
+        if(args.length < 1){
+            System.out.println("Usage: java project.sim.MonteCarloRunner <runs> [seed] [map image]");
+            return;
+        }
+        int runs = Integer.parseInt(args[0]);
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        TerrainGrid terrain = args.length > 2 ? loadTerrain(new File(args[2])) : TerrainGrid.open(1920, 1080);
+
+        MonteCarloRunner runner = new MonteCarloRunner(Scenario.defaultScenario(), terrain);
+        long start = System.nanoTime();
+        Statistics statistics = runner.run(runs, seed);
+        runner.shutdown();
+
+        System.out.println(statistics);
+        System.out.printf("took %.2f s%n", (System.nanoTime() - start) / 1e9);
+    }
+}
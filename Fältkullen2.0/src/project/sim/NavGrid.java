@@ -0,0 +1,176 @@
+/* A coarse grid over the map used for planning routes. Every cell covers CELL_SIZE x CELL_SIZE map pixels and holds
+ * the cost of moving through that ground, taken from the terrain raster. Searching this grid instead of the
+ * terrain raster itself keeps route planning over a full map fast.
+ *
+ * Routes go from the middle of one cell to the middle of the next, so a cell is impassable if most of its ground is, or
+ * if any impassable ground lies on the lines through its middle that a unit walks on: across, up and down and the two
+ * diagonals, each continued one sample into the neighbouring cells so that a wall on the border between two cells
+ * blocks them both. Otherwise the cell's cost is the average of the ground that can be walked, raised by the share
+ * that cannot, so a shoreline or a few blocked pixels next to the path make a cell dearer to go through rather than
+ * cutting off the units standing next to them.
+ */
+
+package project.sim;
+
+import java.util.stream.IntStream;
+
+public class NavGrid {
+    public static final int CELL_SIZE = 8;
+
+    // a cell with more than this share of impassable ground is impassable
+    private static final double BLOCKED_SHARE = 0.5;
+
+    // how many cells out nearestPassable() looks
+    private static final int SNAP_RADIUS = 16;
+
+    private final float[] costs;
+    private final int columns, rows;
+    private final double mapWidth, mapHeight;
+    private final float minCost;
+
+    private NavGrid(float[] costs, int columns, int rows, double mapWidth, double mapHeight){
+        this.costs = costs;
+        this.columns = columns;
+        this.rows = rows;
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+
+        float min = Float.POSITIVE_INFINITY;
+        for(float cost : costs) min = Math.min(min, cost);
+        minCost = Float.isInfinite(min) ? 1 : min;
+    }
+
+    /**
+     * Builds the grid from a terrain raster. The rows are computed in parallel.
+     */
+    public static NavGrid fromTerrain(TerrainGrid terrain){
+        int columns = (terrain.getWidth() + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (terrain.getHeight() + CELL_SIZE - 1) / CELL_SIZE;
+        float[] costs = new float[columns * rows];
+
+        // no need to look at every map pixel if the terrain cells are bigger than one pixel
+        int step = Math.max(1, Math.min(CELL_SIZE, terrain.getCellSize()));
+
+        // the samples of a cell plus one more on every side, and the one in the middle of the cell
+        int span = (CELL_SIZE + step - 1) / step + 2;
+        int middle = 1 + (CELL_SIZE / 2) / step;
+
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            for(int column = 0; column < columns; column++){
+                double sum = 0;
+                int samples = 0, blocked = 0;
+                boolean isWalkedOver = false;
+                for(int sy = 0; sy < span; sy++){
+                    int y = row * CELL_SIZE + (sy - 1) * step;
+                    for(int sx = 0; sx < span; sx++){
+                        int x = column * CELL_SIZE + (sx - 1) * step;
+                        if(x < 0 || y < 0 || x >= terrain.getWidth() || y >= terrain.getHeight()) continue;
+
+                        double cost = TerrainGrid.movementCost(terrain.getTerrainClass(x, y));
+                        boolean onLines = sx == middle || sy == middle || sx == sy || sx + sy == 2 * middle;
+                        if(onLines && Double.isInfinite(cost)) isWalkedOver = true;
+                        if(sx == 0 || sy == 0 || sx == span - 1 || sy == span - 1) continue;
+
+                        samples++;
+                        if(Double.isInfinite(cost)) blocked++;
+                        else sum += cost;
+                    }
+                }
+
+                double blockedShare = blocked / (double) samples;
+                costs[row * columns + column] = isWalkedOver || blockedShare > BLOCKED_SHARE ? Float.POSITIVE_INFINITY
+                        : (float) (sum / (samples - blocked) / (1 - blockedShare));
+            }
+        });
+        return new NavGrid(costs, columns, rows, terrain.getWidth(), terrain.getHeight());
+    }
+
+    public int getColumns(){
+        return columns;
+    }
+
+    public int getRows(){
+        return rows;
+    }
+
+    public int getCellCount(){
+        return costs.length;
+    }
+
+    /**
+     * @return the cost of moving one cell width through a cell, 1 is open ground
+     */
+    public float getCost(int cell){
+        return costs[cell];
+    }
+
+    /**
+     * @return the lowest cost of any cell, used to keep the A* heuristic from overestimating
+     */
+    public float getMinCost(){
+        return minCost;
+    }
+
+    public boolean isPassable(int cell){
+        return !Float.isInfinite(costs[cell]);
+    }
+
+    /**
+     * @return the passable cell nearest to the given one (the cell itself if it is passable), or -1 if there is none
+     * within SNAP_RADIUS cells, e.g. to start or end a path next to water a unit cannot go into
+     */
+    public int nearestPassable(int cell){
+        if(isPassable(cell)) return cell;
+
+        // square rings of cells further and further out. The corners of a ring are further away than the middle of
+        // the next rings' sides, so the search goes on until no ring can hold a nearer cell.
+        int column = cell % columns, row = cell / columns;
+        int nearest = -1;
+        int nearestDistance = Integer.MAX_VALUE;
+        for(int radius = 1; radius <= SNAP_RADIUS && radius * radius < nearestDistance; radius++){
+            for(int dy = -radius; dy <= radius; dy++){
+                // only the cells on the edge of the ring
+                int dxStep = Math.abs(dy) == radius ? 1 : 2 * radius;
+                for(int dx = -radius; dx <= radius; dx += dxStep){
+                    int c = column + dx, r = row + dy;
+                    if(c < 0 || r < 0 || c >= columns || r >= rows || !isPassable(r * columns + c)) continue;
+                    if(dx * dx + dy * dy < nearestDistance){
+                        nearest = r * columns + c;
+                        nearestDistance = dx * dx + dy * dy;
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * @return the cell that a position on the map is in
+     */
+    public int cellAt(double x, double y){
+        int column = Math.max(0, Math.min(columns - 1, (int) (x / CELL_SIZE)));
+        int row = Math.max(0, Math.min(rows - 1, (int) (y / CELL_SIZE)));
+        return row * columns + column;
+    }
+
+    /**
+     * @return the x position on the map of the middle of a cell, moved in so a unit standing there is inside the map
+     */
+    public double centerX(int cell){
+        double x = (cell % columns) * CELL_SIZE + CELL_SIZE / 2.0;
+        return clamp(x, Simulation.UNIT_SIZE / 2, mapWidth - Simulation.UNIT_SIZE / 2);
+    }
+
+    /**
+     * @return the y position on the map of the middle of a cell, moved in so a unit standing there is inside the map
+     */
+    public double centerY(int cell){
+        double y = (cell / columns) * CELL_SIZE + CELL_SIZE / 2.0;
+        return clamp(y, Simulation.UNIT_SIZE / 2, mapHeight - Simulation.UNIT_SIZE / 2);
+    }
+
+    // helper method
+    private static double clamp(double value, double min, double max){
+        return Math.max(min, Math.min(max, value));
+    }
+}
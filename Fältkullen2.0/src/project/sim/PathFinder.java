@@ -0,0 +1,222 @@
+/* A* and Dijkstra searches over a NavGrid. Searches can be limited to a rectangle of cells, which is what the
+ * hierarchical path finder uses to search inside one cluster at a time.
+ *
+ * A PathFinder keeps its work arrays between searches so it does not allocate per search, which also means that one
+ * PathFinder must only be used by one thread at a time.
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+
+public class PathFinder {
+    private static final float SQRT2 = (float) Math.sqrt(2);
+
+    private final NavGrid grid;
+
+    // work arrays, a cell's values are only valid if its stamp equals the current search's stamp
+    private final float[] gScore;
+    private final int[] parent;
+    private final int[] stamp;
+    private final boolean[] closed;
+    private int currentStamp = 0;
+
+    // binary heap of open cells sorted on f score. Cells can be in it more than once, old entries are skipped.
+    private int[] heapCells = new int[256];
+    private float[] heapKeys = new float[256];
+    private int heapSize;
+
+    // bounds of the current search, inclusive
+    private int minColumn, minRow, maxColumn, maxRow;
+
+    public PathFinder(NavGrid grid){
+        this.grid = grid;
+        int cells = grid.getCellCount();
+        gScore = new float[cells];
+        parent = new int[cells];
+        stamp = new int[cells];
+        closed = new boolean[cells];
+    }
+
+    public NavGrid getGrid(){
+        return grid;
+    }
+
+    /**
+     * Finds the cheapest path between two cells anywhere on the grid
+     * @return the cells of the path from start to goal (both included), or null if there is no path
+     */
+    public int[] findPath(int start, int goal){
+        return findPath(start, goal, 0, 0, grid.getColumns() - 1, grid.getRows() - 1);
+    }
+
+    /**
+     * Finds the cheapest path between two cells without leaving the given rectangle of cells
+     * @return the cells of the path from start to goal (both included), or null if there is no path
+     */
+    public int[] findPath(int start, int goal, int minColumn, int minRow, int maxColumn, int maxRow){
+        search(start, goal, minColumn, minRow, maxColumn, maxRow);
+        return pathTo(goal);
+    }
+
+    /**
+     * Searches out from a cell until every reachable cell in the rectangle has its cheapest cost. Afterwards costTo()
+     * and pathTo() can be used for any cell in the rectangle.
+     */
+    public void expandAll(int start, int minColumn, int minRow, int maxColumn, int maxRow){
+        search(start, -1, minColumn, minRow, maxColumn, maxRow);
+    }
+
+    /**
+     * @return the cost from the start of the last search to a cell, or infinity if it was not reached
+     */
+    public float costTo(int cell){
+        return stamp[cell] == currentStamp && closed[cell] ? gScore[cell] : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the cells from the start of the last search to the given cell (both included), or null if not reached
+     */
+    public int[] pathTo(int cell){
+        if(Float.isInfinite(costTo(cell))) return null;
+
+        int length = 1;
+        for(int c = cell; parent[c] != -1; c = parent[c]) length++;
+
+        int[] path = new int[length];
+        int c = cell;
+        for(int i = length - 1; i >= 0; i--){
+            path[i] = c;
+            c = parent[c];
+        }
+        return path;
+    }
+
+    // helper method, A* towards goal, or Dijkstra over the whole rectangle if goal is -1
+    private void search(int start, int goal, int minColumn, int minRow, int maxColumn, int maxRow){
+        this.minColumn = minColumn;
+        this.minRow = minRow;
+        this.maxColumn = maxColumn;
+        this.maxRow = maxRow;
+        currentStamp++;
+        heapSize = 0;
+
+        if(!grid.isPassable(start) || !inBounds(start)) return;
+        if(goal != -1 && (!grid.isPassable(goal) || !inBounds(goal))) return;
+
+        visit(start, 0, -1);
+        push(start, heuristic(start, goal));
+
+        int columns = grid.getColumns();
+        while(heapSize > 0){
+            int cell = pop();
+            if(closed[cell]) continue;
+            closed[cell] = true;
+            if(cell == goal) return;
+
+            int column = cell % columns;
+            int row = cell / columns;
+            for(int dy = -1; dy <= 1; dy++){
+                for(int dx = -1; dx <= 1; dx++){
+                    if(dx == 0 && dy == 0) continue;
+                    int nextColumn = column + dx;
+                    int nextRow = row + dy;
+                    if(nextColumn < minColumn || nextColumn > maxColumn || nextRow < minRow || nextRow > maxRow) continue;
+
+                    int next = nextRow * columns + nextColumn;
+                    if(!grid.isPassable(next)) continue;
+
+                    // do not cut corners past cells that cannot be entered
+                    if(dx != 0 && dy != 0 && (!grid.isPassable(row * columns + nextColumn) || !grid.isPassable(nextRow * columns + column))) continue;
+
+                    float step = (dx != 0 && dy != 0) ? SQRT2 : 1;
+                    float cost = gScore[cell] + step * (grid.getCost(cell) + grid.getCost(next)) / 2;
+
+                    if(stamp[next] != currentStamp){
+                        visit(next, cost, cell);
+                        push(next, cost + heuristic(next, goal));
+                    }
+                    else if(!closed[next] && cost < gScore[next]){
+                        gScore[next] = cost;
+                        parent[next] = cell;
+                        push(next, cost + heuristic(next, goal));
+                    }
+                }
+            }
+        }
+    }
+
+    // helper method
+    private void visit(int cell, float cost, int from){
+        stamp[cell] = currentStamp;
+        gScore[cell] = cost;
+        parent[cell] = from;
+        closed[cell] = false;
+    }
+
+    // helper method
+    private boolean inBounds(int cell){
+        int column = cell % grid.getColumns();
+        int row = cell / grid.getColumns();
+        return column >= minColumn && column <= maxColumn && row >= minRow && row <= maxRow;
+    }
+
+    /**
+     * Helper method:
+     * Octile distance times the cheapest cell cost, which never overestimates the real cost
+     */
+    private float heuristic(int cell, int goal){
+        if(goal == -1) return 0;
+        int columns = grid.getColumns();
+        int dx = Math.abs(cell % columns - goal % columns);
+        int dy = Math.abs(cell / columns - goal / columns);
+        return (Math.max(dx, dy) + (SQRT2 - 1) * Math.min(dx, dy)) * grid.getMinCost();
+    }
+
+    /**
+     * Octile distance between two cells, for callers that need the same estimate as the searches use
+     */
+    public float estimate(int from, int to){
+        return heuristic(from, to);
+    }
+
+    // helper method
+    private void push(int cell, float key){
+        if(heapSize == heapCells.length){
+            heapCells = Arrays.copyOf(heapCells, heapSize * 2);
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+        }
+        int i = heapSize++;
+        while(i > 0){
+            int up = (i - 1) / 2;
+            if(heapKeys[up] <= key) break;
+            heapCells[i] = heapCells[up];
+            heapKeys[i] = heapKeys[up];
+            i = up;
+        }
+        heapCells[i] = cell;
+        heapKeys[i] = key;
+    }
+
+    // helper method
+    private int pop(){
+        int top = heapCells[0];
+        heapSize--;
+        int cell = heapCells[heapSize];
+        float key = heapKeys[heapSize];
+
+        int i = 0;
+        while(true){
+            int child = 2 * i + 1;
+            if(child >= heapSize) break;
+            if(child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+            if(heapKeys[child] >= key) break;
+            heapCells[i] = heapCells[child];
+            heapKeys[i] = heapKeys[child];
+            i = child;
+        }
+        heapCells[i] = cell;
+        heapKeys[i] = key;
+        return top;
+    }
+}
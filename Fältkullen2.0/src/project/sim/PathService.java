@@ -0,0 +1,226 @@
+/* Plans routes for move orders on background threads, so the javafx thread never waits for a search.
+ *
+ * When a map is loaded the nav grid and the hierarchical graph are built in the background. Routes through the
+ * graph are cached by the pair of clusters they start and end in, so when many units in the same area are ordered to
+ * the same area only the first one searches the graph and the rest only join the cached route inside their own
+ * start and goal clusters. The cache is an LRU of ROUTE_CACHE_SIZE routes, so it stays small however long a session
+ * runs. Which route is cached depends on which unit got there first, so batch runs, which have to come out the same
+ * however their threads are scheduled, each keep their own RouteCache instead of sharing the one of the service.
+ *
+ * For group orders the service also builds flow fields, which are kept in a small LRU cache keyed by destination
+ * cell so that ordering more units to the same objective does not build the field again.
+ */
+
+package project.sim;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+public class PathService {
+    // how many flow fields and routes are kept around
+    private static final int FLOW_FIELD_CACHE_SIZE = 16;
+    private static final int ROUTE_CACHE_SIZE = 1024;
+
+    private final ExecutorService executor;
+    private final Executor callbackExecutor;
+    private final CompletableFuture<HierarchicalPathFinder> graph;
+    private final ThreadLocal<PathFinder> finders;
+    private final RouteCache routeCache = new RouteCache();
+    private volatile boolean isShutDown = false;
+
+    /**
+     * Routes through the graph by the pair of clusters they start and end in, the least recently used one is dropped
+     * when the cache is full. Can be used from several threads.
+     */
+    public static final class RouteCache {
+        private final Map<Long, int[]> routes = new LinkedHashMap<Long, int[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > ROUTE_CACHE_SIZE;
+            }
+        };
+
+        synchronized int[] get(long key){
+            return routes.get(key);
+        }
+
+        synchronized void put(long key, int[] route){
+            routes.put(key, route);
+        }
+    }
+
+    // flow fields by destination cell, the least recently used one is dropped when the cache is full
+    private final Map<Integer, FlowField> flowFields = new LinkedHashMap<Integer, FlowField>(FLOW_FIELD_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, FlowField> eldest) {
+            return size() > FLOW_FIELD_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Starts building the route planning data for a map in the background
+     * @param callbackExecutor where found paths are handed over, e.g. Platform::runLater to get them on the javafx thread
+     */
+    public PathService(TerrainGrid terrain, Executor callbackExecutor){
+        this.callbackExecutor = callbackExecutor;
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "path-finder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // this is the first task given to the threads, so it always runs before any path request that waits for it
+        graph = CompletableFuture.supplyAsync(() -> {
+            NavGrid grid = NavGrid.fromTerrain(terrain);
+            return new HierarchicalPathFinder(grid, new PathFinder(grid));
+        }, executor);
+        finders = ThreadLocal.withInitial(() -> new PathFinder(graph.join().getGrid()));
+    }
+
+    /**
+     * Plans a path in the background. The callback gets the waypoints of the path as {x0, y0, x1, y1, ...} in map
+     * pixels, ending exactly at the requested position, or null if there is no way there. A start or goal on ground
+     * that can not be walked is moved to the nearest cell that can, and a path to a goal that was moved ends in the
+     * middle of that cell.
+     */
+    public void requestPath(double fromX, double fromY, double toX, double toY, Consumer<double[]> onFound){
+        if(isShutDown) return;
+
+        executor.execute(() -> {
+            double[] path = findPath(fromX, fromY, toX, toY);
+            callbackExecutor.execute(() -> {
+                // paths for a map that has been replaced are thrown away
+                if(!isShutDown) onFound.accept(path);
+            });
+        });
+    }
+
+    /**
+     * Plans a path on the calling thread, waiting for the graph to be built if needed. Used when there is no
+     * javafx thread to keep free, e.g. in batch runs.
+     * @return the waypoints of the path as {x0, y0, x1, y1, ...}, or null if there is no way there
+     */
+    public double[] findPath(double fromX, double fromY, double toX, double toY){
+        return findPath(fromX, fromY, toX, toY, routeCache);
+    }
+
+    /**
+     * Plans a path on the calling thread like findPath(), using and filling the given route cache instead of the one
+     * of the service, e.g. so a batch run finds the same paths whatever the other runs do
+     */
+    public double[] findPath(double fromX, double fromY, double toX, double toY, RouteCache routeCache){
+        HierarchicalPathFinder hierarchy = graph.join();
+        PathFinder finder = finders.get();
+        NavGrid grid = hierarchy.getGrid();
+
+        // e.g. a unit standing on a shore, or a goal in a lake
+        int start = grid.nearestPassable(grid.cellAt(fromX, fromY));
+        int goal = grid.nearestPassable(grid.cellAt(toX, toY));
+        if(start == -1 || goal == -1) return null;
+        if(goal != grid.cellAt(toX, toY)){
+            toX = grid.centerX(goal);
+            toY = grid.centerY(goal);
+        }
+
+        int[] cells = null;
+        if(hierarchy.clusterOf(start) == hierarchy.clusterOf(goal)){
+            cells = hierarchy.findPath(finder, start, goal);
+        }
+        else{
+            long key = ((long) hierarchy.clusterOf(start) << 32) | hierarchy.clusterOf(goal);
+            int[] route = routeCache.get(key);
+            if(route != null) cells = hierarchy.refine(finder, start, route, goal);
+
+            // nothing cached, or this start or goal cannot reach the cached route inside its cluster
+            if(cells == null){
+                route = hierarchy.findRoute(finder, start, goal);
+                if(route != null){
+                    routeCache.put(key, route);
+                    cells = hierarchy.refine(finder, start, route, goal);
+                }
+            }
+        }
+        if(cells == null) return null;
+
+        return toWaypoints(grid, cells, toX, toY);
+    }
+
+    /**
+     * Gets the flow field towards a position in the background. The callback gets the field, which is shared with
+     * every other order to the same cell, or null if there is no ground that can be walked near the position.
+     */
+    public void requestFlowField(double toX, double toY, Consumer<FlowField> onFound){
+        if(isShutDown) return;
+
+        executor.execute(() -> {
+            FlowField field = getFlowField(toX, toY);
+            callbackExecutor.execute(() -> {
+                if(!isShutDown) onFound.accept(field);
+            });
+        });
+    }
+
+    /**
+     * Gets the flow field towards a position on the calling thread, building it if it is not in the cache. A position
+     * on ground that can not be walked gets the field of the nearest cell that can.
+     * @return the field, or null if there is no ground that can be walked near the position
+     */
+    public FlowField getFlowField(double toX, double toY){
+        HierarchicalPathFinder hierarchy = graph.join();
+        int destination = hierarchy.getGrid().nearestPassable(hierarchy.getGrid().cellAt(toX, toY));
+        if(destination == -1) return null;
+
+        synchronized(flowFields){
+            FlowField cached = flowFields.get(destination);
+            if(cached != null) return cached;
+        }
+
+        // built outside the lock, if two threads race for the same field one of them is simply thrown away
+        FlowField field = FlowField.build(hierarchy.getGrid(), finders.get(), destination);
+        synchronized(flowFields){
+            flowFields.put(destination, field);
+        }
+        return field;
+    }
+
+    /**
+     * Helper method:
+     * Turns a path of cells into map positions, keeping only the cells where the path turns
+     */
+    private static double[] toWaypoints(NavGrid grid, int[] cells, double toX, double toY){
+        double[] waypoints = new double[cells.length * 2];
+        int count = 0;
+
+        for(int i = 1; i < cells.length - 1; i++){
+            int stepIn = cells[i] - cells[i - 1];
+            int stepOut = cells[i + 1] - cells[i];
+            if(stepIn != stepOut){
+                waypoints[count++] = grid.centerX(cells[i]);
+                waypoints[count++] = grid.centerY(cells[i]);
+            }
+        }
+        waypoints[count++] = toX;
+        waypoints[count++] = toY;
+
+        double[] result = new double[count];
+        System.arraycopy(waypoints, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Stops the background threads. Paths that are still being planned are never handed over, and a graph that is
+     * still being built is given up, so findPath() on other threads fails instead of waiting for it forever.
+     */
+    public void shutdown(){
+        isShutDown = true;
+        executor.shutdownNow();
+        graph.cancel(false);
+    }
+}
@@ -0,0 +1,407 @@
+/* Plays back a session recorded by a Journal, for going through an exercise afterwards. The replay has a simulation of
+ * its own which the records are applied to one by one, so it can be shown on the map like any other simulation and
+ * be played at any speed: advance() with many steps at once plays through the ticks as fast as the simulation can run
+ * them.
+ *
+ * seek() jumps to any time of the session by finding the last checkpoint before it in the index (a binary search),
+ * loading the state saved there and playing the records after it, so a jump never costs more than CHECKPOINT_TICKS of
+ * simulation no matter how long the session was.
+ *
+ * When the records are played in order the periodic checkpoints are compared with the state the replay has reached.
+ * They should always be the same; if one is not the replay counts it as a divergence and continues from the checkpoint.
+ */
+
+package project.sim;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class Replay {
+    private final MappedByteBuffer in;
+    private final String mapReference;
+    private final Simulation simulation;
+
+    // builds the flow fields of group orders again, the same way as during the session
+    private final PathService pathService;
+
+    // where the records start and end in the file, and how many ticks they hold
+    private final int recordsStart;
+    private int recordsEnd;
+    private long length;
+
+    // the session tick and file offset of every checkpoint, in order
+    private long[] checkpointTicks, checkpointOffsets;
+
+    // how many ticks of the session have been played
+    private long position = 0;
+    private int divergences = 0;
+
+    private Replay(MappedByteBuffer in, String mapReference, TerrainGrid terrain){
+        this.in = in;
+        this.mapReference = mapReference;
+        simulation = new Simulation(terrain);
+        pathService = new PathService(terrain, Runnable::run);
+        recordsStart = in.position();
+    }
+
+    /**
+     * Opens a recorded session, ready to be played from the start
+     * @throws IOException if the file can not be read or is not a journal this version understands
+     */
+    public static Replay open(Path file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too big to be played back");
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            Replay replay;
+            try{
+                if(in.getInt() != Journal.MAGIC) throw new IOException(file + " is not a journal");
+                short version = in.getShort();
+                if(version != Journal.VERSION) throw new IOException(file + " has journal version " + version + ", only " + Journal.VERSION + " can be played back");
+
+                byte[] reference = new byte[in.getInt()];
+                in.get(reference);
+
+                int width = in.getInt(), height = in.getInt(), cellSize = in.getInt();
+                int columns = in.getInt(), rows = in.getInt();
+                byte[] cells = new byte[columns * rows];
+                in.get(cells);
+                replay = new Replay(in, new String(reference, StandardCharsets.UTF_8), TerrainGrid.fromCells(cells, width, height, cellSize));
+            } catch (RuntimeException e) {
+                throw new IOException(file + " is not a complete journal", e);
+            }
+
+            if(!replay.readIndex()) replay.findCheckpoints();
+            if(replay.checkpointTicks.length == 0){
+                replay.close();
+                throw new IOException(file + " does not hold any state to start from");
+            }
+            replay.seek(0);
+            return replay;
+        }
+    }
+
+    /**
+     * @return what the journal said its map was, e.g. the path of the map image. Empty if it did not say.
+     */
+    public String getMapReference(){
+        return mapReference;
+    }
+
+    /**
+     * @return the simulation the session is played back in
+     */
+    public Simulation getSimulation(){
+        return simulation;
+    }
+
+    /**
+     * @return how many ticks long the session is
+     */
+    public long getLength(){
+        return length;
+    }
+
+    /**
+     * @return how many ticks of the session have been played
+     */
+    public long getPosition(){
+        return position;
+    }
+
+    public boolean isFinished(){
+        return in.position() >= recordsEnd;
+    }
+
+    /**
+     * @return how many times the replay was found to differ from a checkpoint, which should never happen
+     */
+    public int getDivergences(){
+        return divergences;
+    }
+
+    /**
+     * Plays the given number of ticks of the session. A tick that ran several steps at once during the session is
+     * played whole, so the replay can end up a little past where it was asked to go.
+     * @return how many ticks were played
+     */
+    public int advance(int steps){
+        long start = position;
+        playUntil(position + steps);
+        return (int) (position - start);
+    }
+
+    /**
+     * Jumps to right after the given tick of the session (or the first tick after it where the session had one), before
+     * any orders that were given after it
+     */
+    public void seek(long tick){
+        tick = Math.max(0, Math.min(tick, length));
+
+        // the last checkpoint before the tick. One taken at the tick itself is written at the start of the next tick,
+        // after the orders given in between, so it is already too late
+        long before = Math.max(0, tick - 1);
+        int index = Arrays.binarySearch(checkpointTicks, before);
+        if(index < 0) index = Math.max(0, -index - 2);
+        while(index + 1 < checkpointTicks.length && checkpointTicks[index + 1] == before) index++;
+
+        in.position((int) checkpointOffsets[index]);
+        in.get();
+        readCheckpoint(true);
+        playUntil(tick);
+    }
+
+    /**
+     * @return the session ticks at which a unit walked into an enemy, in order, for jumping to the engagements
+     */
+    public long[] findContacts(){
+        int resume = in.position();
+        in.position(recordsStart);
+
+        long[] contacts = new long[16];
+        int count = 0;
+        long tick = 0;
+        while(in.position() < recordsEnd){
+            byte type = in.get();
+            if(type == Journal.TICK) tick += in.getInt();
+            else if(type == Journal.CONTACT){
+                if(count == contacts.length) contacts = Arrays.copyOf(contacts, count * 2);
+                contacts[count++] = tick;
+            }
+            skipRecord(type);
+        }
+        in.position(resume);
+        return Arrays.copyOf(contacts, count);
+    }
+
+    /**
+     * Stops the background threads of the replay
+     */
+    public void close(){
+        pathService.shutdown();
+    }
+
+    // helper method, plays records until the given tick has been reached or the records end
+    private void playUntil(long tick){
+        while(position < tick && in.position() < recordsEnd){
+            playRecord();
+        }
+    }
+
+    // helper method, applies the next record to the simulation
+    private void playRecord(){
+        byte type = in.get();
+        switch(type){
+            case Journal.TICK:
+                int steps = in.getInt();
+                simulation.tick(steps);
+                position += steps;
+                break;
+            case Journal.ADD_UNIT:
+                int expected = in.getInt();
+                Side side = Side.values()[in.get()];
+                double x = in.getDouble(), y = in.getDouble();
+                if(simulation.addUnit(x, y, side) != expected) divergences++;
+                break;
+            case Journal.REMOVE_UNIT:
+                simulation.removeUnit(in.getInt());
+                break;
+            case Journal.REMOVE_ALL_UNITS:
+                simulation.removeAllUnits();
+                break;
+            case Journal.ORDER:
+                int id = in.getInt();
+                simulation.orderMoveAlong(id, readWaypoints());
+                break;
+            case Journal.FLOW_FIELD_ORDER:
+                int groupMember = in.getInt();
+                double toX = in.getDouble(), toY = in.getDouble();
+                simulation.orderMoveWithFlowField(groupMember, pathService.getFlowField(toX, toY), toX, toY);
+                break;
+            case Journal.MANUAL_INPUT:
+                simulation.setManualInput(in.getInt(), in.get(), in.get(), in.get() == 1);
+                break;
+            case Journal.CHECKPOINT:
+                readCheckpoint(false);
+                break;
+            default:
+                // contacts happen again by themselves when the ticks are played
+                skipRecord(type);
+        }
+    }
+
+    /**
+     * Helper method:
+     * Reads a checkpoint (after its type) and loads it into the simulation if it has to be: always when jumping, and
+     * when playing in order only if the simulation got somewhere else than the session did.
+     */
+    private void readCheckpoint(boolean jumping){
+        byte kind = in.get();
+        long tick = in.getLong();
+        long tickCount = in.getLong();
+        int size = in.getInt();
+
+        UnitStore store = new UnitStore();
+        Side[] sides = Side.values();
+        for(int id = 0; id < size; id++){
+            if(in.get() == 0){
+                store.addRemoved();
+                continue;
+            }
+
+            store.add(sides[in.get()], in.getDouble(), in.getDouble());
+            UnitStore.Chunk c = store.chunkForWrite(id);
+            int i = id & UnitStore.SLOT_MASK;
+            c.velocityX[i] = in.getDouble();
+            c.velocityY[i] = in.getDouble();
+            c.inputX[i] = in.get();
+            c.inputY[i] = in.get();
+            c.running[i] = in.get() == 1;
+            c.strength[i] = in.getDouble();
+            double[] waypoints = readWaypoints();
+            c.waypointIndex[i] = in.getInt();
+            boolean followsFlowField = in.get() == 1;
+            if(waypoints.length > 0){
+                c.hasOrder[i] = true;
+                c.waypoints[i] = waypoints;
+                if(followsFlowField) c.flowField[i] = pathService.getFlowField(waypoints[0], waypoints[1]);
+            }
+        }
+        UnitStore.Frozen units = store.freeze();
+        int[] engagements = new int[2 * in.getInt()];
+        for(int i = 0; i < engagements.length; i++){
+            engagements[i] = in.getInt();
+        }
+
+        position = tick;
+        if(jumping || kind == Journal.JUMP){
+            simulation.loadUnits(units, engagements, tickCount);
+        }
+        else if(!simulation.hasSameUnits(units)){
+            divergences++;
+            simulation.loadUnits(units, engagements, tickCount);
+        }
+    }
+
+    // helper method, int number of coordinates, then the coordinates
+    private double[] readWaypoints(){
+        double[] waypoints = new double[in.getInt()];
+        for(int i = 0; i < waypoints.length; i++){
+            waypoints[i] = in.getDouble();
+        }
+        return waypoints;
+    }
+
+    // helper method, moves past the fields of a record that is not played
+    private void skipRecord(byte type){
+        switch(type){
+            case Journal.TICK:
+                break;
+            case Journal.CONTACT:
+                in.position(in.position() + 2 * Integer.BYTES);
+                break;
+            case Journal.ADD_UNIT:
+                in.position(in.position() + Integer.BYTES + 1 + 2 * Double.BYTES);
+                break;
+            case Journal.REMOVE_UNIT:
+                in.position(in.position() + Integer.BYTES);
+                break;
+            case Journal.REMOVE_ALL_UNITS:
+                break;
+            case Journal.ORDER:
+                in.getInt();
+                readWaypoints();
+                break;
+            case Journal.FLOW_FIELD_ORDER:
+                in.position(in.position() + Integer.BYTES + 2 * Double.BYTES);
+                break;
+            case Journal.MANUAL_INPUT:
+                in.position(in.position() + Integer.BYTES + 3);
+                break;
+            case Journal.CHECKPOINT:
+                in.position(in.position() + 1 + 2 * Long.BYTES);
+                int count = in.getInt();
+                for(int id = 0; id < count; id++){
+                    if(in.get() == 0) continue;
+                    in.position(in.position() + 1 + 4 * Double.BYTES + 3 + Double.BYTES);
+                    readWaypoints();
+                    in.position(in.position() + Integer.BYTES + 1);
+                }
+                int engagements = in.getInt();
+                in.position(in.position() + 2 * Integer.BYTES * engagements);
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Helper method:
+     * Reads the index at the end of a journal that was closed
+     * @return false if there is none
+     */
+    private boolean readIndex(){
+        int size = in.capacity();
+        int footer = Long.BYTES + Integer.BYTES;
+        if(size - recordsStart < footer || in.getInt(size - Integer.BYTES) != Journal.END_MAGIC) return false;
+
+        long indexOffset = in.getLong(size - footer);
+        if(indexOffset < recordsStart || indexOffset >= size - footer) return false;
+
+        in.position((int) indexOffset);
+        if(in.get() != Journal.END) return false;
+        length = in.getLong();
+        int count = in.getInt();
+        checkpointTicks = new long[count];
+        checkpointOffsets = new long[count];
+        for(int i = 0; i < count; i++){
+            checkpointTicks[i] = in.getLong();
+            checkpointOffsets[i] = in.getLong();
+        }
+        recordsEnd = (int) indexOffset;
+        return true;
+    }
+
+    /**
+     * Helper method:
+     * Reads through all records to find the checkpoints of a journal that was never closed, e.g. because the program
+     * stopped. The records end at the last one that was written whole.
+     */
+    private void findCheckpoints(){
+        ArrayList<long[]> found = new ArrayList<>();
+        in.position(recordsStart);
+        recordsEnd = recordsStart;
+        length = 0;
+
+        long tick = 0;
+        try{
+            while(in.hasRemaining()){
+                int offset = in.position();
+                byte type = in.get();
+                if(type == Journal.END) break;
+                if(type == Journal.TICK) tick += in.getInt();
+                skipRecord(type);
+                if(type == Journal.CHECKPOINT) found.add(new long[] {tick, offset});
+
+                recordsEnd = in.position();
+                length = tick;
+            }
+        } catch (BufferUnderflowException | IllegalStateException | IllegalArgumentException e) {
+            // the rest of the file was cut off in the middle of a record
+        }
+
+        checkpointTicks = new long[found.size()];
+        checkpointOffsets = new long[found.size()];
+        for(int i = 0; i < found.size(); i++){
+            checkpointTicks[i] = found.get(i)[0];
+            checkpointOffsets[i] = found.get(i)[1];
+        }
+    }
+}
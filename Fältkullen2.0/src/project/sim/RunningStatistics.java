@@ -0,0 +1,74 @@
+/* Count, mean, variance, min and max of a stream of values, kept without storing the values themselves. Two
+ * RunningStatistics can be merged, which is how the results of runs on different threads are combined.
+ */
+
+package project.sim;
+
+public class RunningStatistics {
+    private long count = 0;
+    private double mean = 0;
+    private double sumOfSquares = 0;    // sum of squared differences from the mean
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds one value, using Welford's method so the variance stays accurate over very many values
+     */
+    public void add(double value){
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        sumOfSquares += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all values seen by another RunningStatistics to this one
+     */
+    public void merge(RunningStatistics other){
+        if(other.count == 0) return;
+        if(count == 0){
+            count = other.count;
+            mean = other.mean;
+            sumOfSquares = other.sumOfSquares;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        sumOfSquares += other.sumOfSquares + delta * delta * ((double) count * other.count / total);
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount(){
+        return count;
+    }
+
+    public double getMean(){
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    public double getStandardDeviation(){
+        return count < 2 ? 0 : Math.sqrt(sumOfSquares / (count - 1));
+    }
+
+    public double getMin(){
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double getMax(){
+        return count == 0 ? Double.NaN : max;
+    }
+
+    @Override
+    public String toString(){
+        if(count == 0) return "no values";
+        return String.format("mean %.2f, sd %.2f, min %.2f, max %.2f (n=%d)", getMean(), getStandardDeviation(), min, max, count);
+    }
+}
@@ -0,0 +1,80 @@
+/* A scenario is where the units of both sides start, and the orders they are given when the scenario is played out.
+ * The map shows the placements when it starts, batch runs play out the orders too.
+ */
+
+package project.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class Scenario {
+
+    /**
+     * A unit of the given side starting with its center at x, y
+     */
+    public static class Placement {
+        public final double x, y;
+        public final Side side;
+
+        public Placement(double x, double y, Side side){
+            this.x = x;
+            this.y = y;
+            this.side = side;
+        }
+    }
+
+    /**
+     * An order for the unit of the placement with the given index to move to x, y
+     */
+    public static class Order {
+        public final int placement;
+        public final double x, y;
+
+        public Order(int placement, double x, double y){
+            this.placement = placement;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private final ArrayList<Placement> placements = new ArrayList<>();
+    private final ArrayList<Order> orders = new ArrayList<>();
+
+    /**
+     * The scenario the map starts with: a few friendly units in the north west and an enemy further south east,
+     * which the friendly units advance on.
+     */
+    public static Scenario defaultScenario(){
+        Scenario scenario = new Scenario();
+        int a = scenario.addPlacement(150, 30, Side.friend);
+        int b = scenario.addPlacement(480, 200, Side.friend);
+        int c = scenario.addPlacement(530, 150, Side.friend);
+        scenario.addPlacement(1200, 600, Side.enemy);
+
+        scenario.addOrder(a, 1200, 600);
+        scenario.addOrder(b, 1200, 600);
+        scenario.addOrder(c, 1200, 600);
+        return scenario;
+    }
+
+    /**
+     * @return the index of the placement, used to give it orders
+     */
+    public int addPlacement(double x, double y, Side side){
+        placements.add(new Placement(x, y, side));
+        return placements.size() - 1;
+    }
+
+    public void addOrder(int placement, double x, double y){
+        orders.add(new Order(placement, x, y));
+    }
+
+    public List<Placement> getPlacements(){
+        return Collections.unmodifiableList(placements);
+    }
+
+    public List<Order> getOrders(){
+        return Collections.unmodifiableList(orders);
+    }
+}
@@ -0,0 +1,194 @@
+/* Saves the state of a simulation to a compact binary file and opens it again: which map it is played on, the terrain
+ * raster of that map, every unit with its strength and the orders the units are following.
+ *
+ * Files are written through a FileChannel in large buffered chunks and read through a memory mapping of the whole
+ * file, so opening a scenario is a straight walk over the mapped bytes that adds each unit to the new simulation as it
+ * is read. Nothing but the simulation itself is built along the way.
+ *
+ * Layout (big-endian):
+ *   int     MAGIC
+ *   short   VERSION
+ *   int     length of the map reference, then that many bytes of UTF-8
+ *   int     map width, map height, cell size, columns, rows
+ *   byte[]  terrain class of every cell, row by row
+ *   int     number of units
+ *   units   byte side, double x, double y, double strength, int number of waypoint coordinates left (0 if no order), the coordinates
+ *
+ * Version 1 files, from before units had a strength, have no strength in their units. They can still be opened, and
+ * their units start at full strength.
+ *
+ * Ids are given out again when a scenario is opened, so a unit can get another id than it had when it was saved.
+ * Units following a flow field are saved as walking straight to the destination of the field. Fights that are going on
+ * are not saved, they start again when the units run into each other.
+ */
+
+package project.sim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ScenarioFile {
+    private static final int MAGIC = 0x464B5343;    // "FKSC"
+    private static final short VERSION = 2;
+
+    // the first version with a strength for every unit
+    private static final short STRENGTH_VERSION = 2;
+
+    // how much is collected in memory before it is written to the channel
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final String mapReference;
+    private final Simulation simulation;
+
+    private ScenarioFile(String mapReference, Simulation simulation){
+        this.mapReference = mapReference;
+        this.simulation = simulation;
+    }
+
+    /**
+     * @return what the scenario said its map was, e.g. the path of the map image. Empty if it did not say.
+     */
+    public String getMapReference(){
+        return mapReference;
+    }
+
+    /**
+     * @return the saved terrain, which the simulation is played on
+     */
+    public TerrainGrid getTerrain(){
+        return (TerrainGrid) simulation.getTerrain();
+    }
+
+    /**
+     * @return a new simulation on the saved terrain, holding the saved units and orders
+     */
+    public Simulation getSimulation(){
+        return simulation;
+    }
+
+    /**
+     * Saves the terrain, units and orders of a simulation
+     * @param mapReference something that says which map the terrain belongs to, e.g. the path of the map image
+     */
+    public static void write(Path file, Simulation simulation, String mapReference) throws IOException{
+        if(!(simulation.getTerrain() instanceof TerrainGrid)) throw new IOException("Only simulations on a terrain raster can be saved");
+        TerrainGrid terrain = (TerrainGrid) simulation.getTerrain();
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+            byte[] reference = mapReference == null ? new byte[0] : mapReference.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(MAGIC).putShort(VERSION);
+            buffer.putInt(reference.length);
+            putBytes(channel, buffer, reference);
+
+            ensureRoom(channel, buffer, 5 * Integer.BYTES);
+            buffer.putInt(terrain.getWidth()).putInt(terrain.getHeight()).putInt(terrain.getCellSize())
+                    .putInt(terrain.getColumns()).putInt(terrain.getRows());
+            putBytes(channel, buffer, terrain.getCells());
+
+            int count = 0;
+            for(int id = 0; id < simulation.getIdLimit(); id++){
+                if(simulation.isAlive(id)) count++;
+            }
+            ensureRoom(channel, buffer, Integer.BYTES);
+            buffer.putInt(count);
+
+            for(int id = 0; id < simulation.getIdLimit(); id++){
+                if(!simulation.isAlive(id)) continue;
+
+                double[] waypoints = simulation.hasOrder(id) ? simulation.getWaypoints(id) : null;
+                int first = waypoints == null ? 0 : simulation.getWaypointIndex(id);
+                int left = waypoints == null ? 0 : waypoints.length - first;
+
+                ensureRoom(channel, buffer, 1 + 3 * Double.BYTES + Integer.BYTES);
+                buffer.put((byte) simulation.getSide(id).ordinal());
+                buffer.putDouble(simulation.getX(id)).putDouble(simulation.getY(id));
+                buffer.putDouble(simulation.getStrength(id));
+                buffer.putInt(left);
+                for(int i = 0; i < left; i++){
+                    ensureRoom(channel, buffer, Double.BYTES);
+                    buffer.putDouble(waypoints[first + i]);
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Opens a saved scenario into a new simulation
+     * @throws IOException if the file can not be read or is not a scenario this version understands
+     */
+    public static ScenarioFile read(Path file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too big to be a scenario");
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            try{
+                if(in.getInt() != MAGIC) throw new IOException(file + " is not a scenario file");
+                short version = in.getShort();
+                if(version < 1 || version > VERSION) throw new IOException(file + " has scenario version " + version + ", only 1 to " + VERSION + " can be opened");
+
+                byte[] reference = new byte[in.getInt()];
+                in.get(reference);
+
+                int width = in.getInt(), height = in.getInt(), cellSize = in.getInt();
+                int columns = in.getInt(), rows = in.getInt();
+                byte[] cells = new byte[columns * rows];
+                in.get(cells);
+                Simulation simulation = new Simulation(TerrainGrid.fromCells(cells, width, height, cellSize));
+
+                Side[] sides = Side.values();
+                int count = in.getInt();
+                for(int i = 0; i < count; i++){
+                    Side side = sides[in.get()];
+                    double x = in.getDouble(), y = in.getDouble();
+                    double strength = version >= STRENGTH_VERSION ? in.getDouble() : 1;
+                    int left = in.getInt();
+
+                    int id = simulation.addUnit(x, y, side);
+                    if(id != -1) simulation.setStrength(id, strength);
+                    if(left == 0) continue;
+
+                    double[] waypoints = new double[left];
+                    for(int w = 0; w < left; w++){
+                        waypoints[w] = in.getDouble();
+                    }
+                    if(id != -1) simulation.orderMoveAlong(id, waypoints);
+                }
+                return new ScenarioFile(new String(reference, StandardCharsets.UTF_8), simulation);
+            } catch (RuntimeException e) {
+                // a cut off file runs out of bytes, a broken one gives sizes that make no sense
+                throw new IOException(file + " is not a complete scenario file", e);
+            }
+        }
+    }
+
+    // helper method, writes out the buffer if it can not take the given number of bytes
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException{
+        if(buffer.remaining() < bytes) flush(channel, buffer);
+    }
+
+    // helper method, writes an array that can be bigger than the buffer
+    private static void putBytes(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException{
+        int offset = 0;
+        while(offset < bytes.length){
+            if(!buffer.hasRemaining()) flush(channel, buffer);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    // helper method
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException{
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
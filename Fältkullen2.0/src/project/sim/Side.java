@@ -0,0 +1,17 @@
+/* Which side of the conflict a simulated unit belongs to. This mirrors Unit.typeOfUnit but lives in the simulation
+ * package so that nothing in here needs javafx.
+ */
+
+package project.sim;
+
+public enum Side {
+    friend,
+    enemy;
+
+    /**
+     * @return the side this side is fighting against
+     */
+    public Side opponent(){
+        return this == friend ? enemy : friend;
+    }
+}
@@ -0,0 +1,831 @@
+/* The simulation engine. This class owns the position, velocity and orders of every unit and moves all of them
+ * forward in fixed steps using tick(), resolving the fights between units that have run into each other as it goes.
+ * It does not know anything about javafx, so it can be driven by an AnimationTimer when there is a window, or simply be
+ * ticked in a loop on a server without a display.
+ *
+ * Units are referred to by an int id which is handed out by addUnit().
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+public class Simulation implements SpatialGrid.PositionSource {
+
+    // the length of one tick. Speeds below are given per tick, so one tick is meant to be one frame at 60 fps
+    public static final double TICK_SECONDS = 1.0 / 60.0;
+
+    // every unit is treated as a square of this size (the size of the unit images)
+    public static final double UNIT_SIZE = 60;
+
+    // THESE CAN BE CHANGED TO ALTER MOVEMENT SPEED
+    public static final double MOVEMENT_SPEED = 1;
+    public static final double RUN_MULTIPLIER = 3;
+    public static final double WATER_SLOWDOWN = 5;
+
+    // a unit this close to a waypoint has reached it
+    private static final double ARRIVAL_DISTANCE = 0.5;
+
+    // when a unit moves several ticks' worth at once it does so in pieces no longer than this, so the water under it is
+    // checked as often as the map is divided up for path finding
+    private static final double MAX_SEGMENT = NavGrid.CELL_SIZE;
+
+    // the state of every unit in arrays indexed by id. Copy-on-write, so a snapshot of all units only costs copies of
+    // the chunks of units that change after it
+    private final UnitStore units = new UnitStore();
+    private Terrain terrain;
+
+    // one grid per side (indexed by Side.ordinal()), so contact checks only ever look at units of the other side
+    private SpatialGrid[] unitGrids;
+    private static final IntPredicate ANY_UNIT = id -> true;
+
+    // the fights going on between units that have run into each other
+    private final Combat combat = new Combat();
+
+    // what each side can see, updated as units move between its cells
+    private Visibility visibility;
+
+    // how much each side dominates every part of the map, updated as units move and lose strength
+    private InfluenceMap influence;
+
+    // the units of each side gathered into groups for the zoomed out map, updated as units move and lose strength
+    private UnitClusters clusters;
+
+    // how many units of each side are alive and how many follow an order, kept up to date as they change
+    private final int[] unitCounts = new int[Side.values().length];
+    private int unitsWithOrders = 0;
+
+    private SimulationListener listener;
+    private long tickCount = 0;
+
+    // where everything that happens is recorded while a session is being recorded, otherwise null
+    private Journal journal;
+
+    // how long the ticks took and how much work there was in the last one, to find out what makes the map stutter
+    private final TimeHistogram tickTimes = new TimeHistogram();
+    private int lastTickUnits, lastTickMovingUnits;
+
+    public Simulation(Terrain terrain){
+        this.terrain = terrain;
+        createUnitGrids();
+    }
+
+    /**
+     * Adds a unit with its center at the given position
+     * @return the id of the new unit, or -1 if the position is outside of the map
+     */
+    public int addUnit(double x, double y, Side side){
+        if(!isInMap(x, y)) return -1;
+
+        int id = units.add(side, x, y);
+        UnitStore.Chunk c = units.chunkForWrite(id);
+        int i = id & UnitStore.SLOT_MASK;
+        unitGrids[side.ordinal()].insert(id, x, y);
+        unitCounts[side.ordinal()]++;
+        c.visionCell[i] = visibility.cellAt(x, y);
+        visibility.addViewer(side, c.visionCell[i]);
+        updateInfluence(c, i);
+        updateClusters(c, i);
+        if(journal != null) journal.recordAddUnit(id, side, x, y);
+        return id;
+    }
+
+    public void removeUnit(int id){
+        if(!isAlive(id)) return;
+
+        forgetUnit(id);
+        if(journal != null) journal.recordRemoveUnit(id);
+    }
+
+    // helper method, takes a unit out of the table and the grids. Its engagements end in the next combat pass.
+    private void forgetUnit(int id){
+        UnitStore.Chunk c = units.chunk(id);
+        int i = id & UnitStore.SLOT_MASK;
+        Side side = c.sideOf(i);
+        unitGrids[side.ordinal()].remove(id);
+        visibility.removeViewer(side, c.visionCell[i]);
+        influence.remove(side, c.influenceCell[i], c.influenceStrength[i]);
+        clusters.remove(side, c.clusterX[i], c.clusterY[i], c.clusterStrength[i]);
+        unitCounts[side.ordinal()]--;
+        if(c.hasOrder[i]) unitsWithOrders--;
+        units.remove(id);
+    }
+
+    public void removeAllUnits(){
+        units.clear();
+        Arrays.fill(unitCounts, 0);
+        unitsWithOrders = 0;
+        for(SpatialGrid grid : unitGrids){
+            grid.clear();
+        }
+        visibility.clear();
+        influence.clear();
+        clusters.clear();
+        combat.clear();
+        if(journal != null) journal.recordRemoveAllUnits();
+    }
+
+    /**
+     * Changes the map the simulation is played on. All units are removed since their positions belong to the old map.
+     * @throws IllegalStateException if the simulation is being recorded, since a journal only holds one map
+     */
+    public void setTerrain(Terrain terrain){
+        if(journal != null) throw new IllegalStateException("The journal has to be closed before the map is changed");
+
+        removeAllUnits();
+        this.terrain = terrain;
+        createUnitGrids();
+    }
+
+    // helper method, the grid cells are as big as a unit so all units touching a position are in the 3x3 cells around it
+    private void createUnitGrids(){
+        unitGrids = new SpatialGrid[Side.values().length];
+        for(int i = 0; i < unitGrids.length; i++){
+            unitGrids[i] = new SpatialGrid(terrain.getWidth(), terrain.getHeight(), UNIT_SIZE, this);
+        }
+        visibility = new Visibility(terrain);
+        influence = new InfluenceMap(terrain);
+        clusters = new UnitClusters(terrain);
+    }
+
+    public Terrain getTerrain(){
+        return terrain;
+    }
+
+    public void setListener(SimulationListener listener){
+        this.listener = listener;
+    }
+
+    // set by the journal when it starts and stops recording this simulation
+    void setJournal(Journal journal){
+        this.journal = journal;
+    }
+
+    /**
+     * Advances every unit one fixed step: manual movement, move orders, checks for contact with enemies and combat.
+     */
+    public void tick(){
+        tick(1);
+    }
+
+    /**
+     * Advances every unit the given number of fixed steps in one go, which is how the simulation is run faster than
+     * real time. Each unit covers the distance of all the steps at once, in segments of at most MAX_SEGMENT, and every
+     * segment is checked for enemies anywhere along it (not just where it ends), so a unit that moves far in one call
+     * can not jump over an enemy. Combat is resolved for the time of all the steps after everything has moved.
+     */
+    public void tick(int steps){
+        if(steps < 1) return;
+        if(journal != null) journal.recordTick(steps);
+
+        TickEvent event = new TickEvent();
+        event.begin();
+        long start = System.nanoTime();
+        tickCount += steps;
+        int alive = 0, moving = 0, contactChecks = 0;
+
+        // chunk by chunk, so the units standing still cost a pass over a few arrays
+        for(int first = 0; first < units.size(); first += UnitStore.CHUNK_SIZE){
+            UnitStore.Chunk c = units.chunk(first);
+            int count = Math.min(UnitStore.CHUNK_SIZE, units.size() - first);
+            for(int i = 0; i < count; i++){
+                if(!c.alive[i]) continue;
+                alive++;
+
+                // units standing still are only read, so their chunk stays shared with any snapshot
+                if(!c.hasOrder[i] && c.inputX[i] == 0 && c.inputY[i] == 0) continue;
+                c = units.chunkForWrite(first);
+                moving++;
+
+                // manual movement
+                if(c.inputX[i] != 0 || c.inputY[i] != 0){
+                    moveManually(c, i, steps);
+                }
+
+                // move orders
+                if(c.hasOrder[i]){
+                    contactChecks += followOrder(c, i, steps * MOVEMENT_SPEED);
+                }
+
+                // only units that crossed into another cell change what their side sees (the unit can have been
+                // removed by a contact listener)
+                if(c.alive[i]){
+                    Side side = c.sideOf(i);
+                    int visionCell = visibility.cellAt(c.x[i], c.y[i]);
+                    if(visionCell != c.visionCell[i]){
+                        visibility.removeViewer(side, c.visionCell[i]);
+                        visibility.addViewer(side, visionCell);
+                        c.visionCell[i] = visionCell;
+                    }
+                    updateInfluence(c, i);
+                    updateClusters(c, i);
+                }
+            }
+        }
+
+        int engagements = resolveCombat(steps);
+
+        tickTimes.record(System.nanoTime() - start);
+        lastTickUnits = alive;
+        lastTickMovingUnits = moving;
+        if(event.shouldCommit()){
+            event.tick = tickCount;
+            event.units = alive;
+            event.movingUnits = moving;
+            event.contactChecks = contactChecks;
+            event.engagements = engagements;
+            event.commit();
+        }
+    }
+
+    /**
+     * Helper method:
+     * Resolves every engagement for the time of the given number of steps and removes the units that are out of the
+     * fight. Not recorded in the journal, since playing back the ticks destroys the same units.
+     * @return how many engagements there were
+     */
+    private int resolveCombat(int steps){
+        int[] destroyed = combat.resolve(units, terrain, steps * TICK_SECONDS);
+        int engagements = combat.getCount();
+        combat.forEachEngagedUnit(id -> {
+            UnitStore.Chunk c = units.chunkForWrite(id);
+            updateInfluence(c, id & UnitStore.SLOT_MASK);
+            updateClusters(c, id & UnitStore.SLOT_MASK);
+        });
+        for(int id : destroyed){
+            forgetUnit(id);
+            if(listener != null) listener.onUnitDestroyed(id);
+        }
+        return engagements;
+    }
+
+    /**
+     * Helper method:
+     * Moves the influence a unit projects to the cell it is in and the strength it has, if either has changed enough.
+     * The chunk has to be one that can be changed.
+     */
+    private void updateInfluence(UnitStore.Chunk c, int i){
+        int cell = influence.cellAt(c.x[i], c.y[i]);
+        if(cell == c.influenceCell[i] && Math.abs(c.strength[i] - c.influenceStrength[i]) < InfluenceMap.STRENGTH_STEP) return;
+
+        Side side = c.sideOf(i);
+        influence.remove(side, c.influenceCell[i], c.influenceStrength[i]);
+        influence.add(side, cell, c.strength[i]);
+        c.influenceCell[i] = cell;
+        c.influenceStrength[i] = c.strength[i];
+    }
+
+    /**
+     * Helper method:
+     * Moves a unit in the groups of UnitClusters to where it stands and the strength it has, if either has changed.
+     * The chunk has to be one that can be changed.
+     */
+    private void updateClusters(UnitStore.Chunk c, int i){
+        int x = (int) c.x[i], y = (int) c.y[i];
+        int strength = UnitClusters.scaleStrength(c.strength[i]);
+        if(x == c.clusterX[i] && y == c.clusterY[i] && strength == c.clusterStrength[i]) return;
+
+        Side side = c.sideOf(i);
+        if(c.clusterX[i] >= 0) clusters.remove(side, c.clusterX[i], c.clusterY[i], c.clusterStrength[i]);
+        clusters.add(side, x, y, strength);
+        c.clusterX[i] = x;
+        c.clusterY[i] = y;
+        c.clusterStrength[i] = strength;
+    }
+
+    /**
+     * Helper method:
+     * Moves a unit the given number of steps in the direction of its manual input, in segments of at most MAX_SEGMENT.
+     */
+    private void moveManually(UnitStore.Chunk c, int i, int steps){
+        double speed = (c.running[i] ? MOVEMENT_SPEED * RUN_MULTIPLIER : MOVEMENT_SPEED) * speedBonus(c, i);
+        double dx = c.inputX[i] * speed * steps;
+        double dy = c.inputY[i] * speed * steps;
+
+        int segments = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)) / MAX_SEGMENT);
+        for(int segment = 0; segment < segments; segment++){
+            if(moveUnitBy(c, i, dx / segments, dy / segments) == 0) return;
+        }
+    }
+
+    /**
+     * Helper method:
+     * Moves a unit the given distance along its order, one segment at a time, through as many waypoints as the distance
+     * reaches. The order is done when the last waypoint is reached or an enemy is met on the way, which starts a fight.
+     * @return how many contact checks were made
+     */
+    private int followOrder(UnitStore.Chunk c, int i, double distanceLeft){
+        int id = c.firstId + i;
+        int contactChecks = 0;
+
+        while(c.hasOrder[i] && distanceLeft > 0){
+            double[] waypoints = c.waypoints[i];
+            double nextX = waypoints[c.waypointIndex[i]];
+            double nextY = waypoints[c.waypointIndex[i] + 1];
+            boolean towardsWaypoint = true;
+
+            // a unit steered by a flow field walks towards the middle of the next cell until it is in the destination cell
+            FlowField field = c.flowField[i];
+            if(field != null){
+                NavGrid grid = field.getGrid();
+                int next = field.nextCell(c.x[i], c.y[i]);
+                if(next == -1){
+                    endOrder(c, i);
+                    break;
+                }
+                // (cell middles are moved in from the edges of the map, so a unit can already be standing on one)
+                double cellX = grid.centerX(next), cellY = grid.centerY(next);
+                if(grid.cellAt(c.x[i], c.y[i]) != field.getDestination() && (cellX != c.x[i] || cellY != c.y[i])){
+                    nextX = cellX;
+                    nextY = cellY;
+                    towardsWaypoint = false;
+                }
+            }
+
+            double toX = nextX - c.x[i];
+            double toY = nextY - c.y[i];
+            double distance = Math.sqrt(toX*toX + toY*toY);
+
+            // never step past the waypoint. On a road a segment covers more ground for the time it takes, in water it
+            // covers less but takes as long
+            double bonus = speedBonus(c, i);
+            double step = Math.min(Math.min(MAX_SEGMENT, distanceLeft * bonus), distance);
+            distanceLeft -= step / bonus;
+            c.velocityX[i] = distance == 0 ? 0 : toX * MOVEMENT_SPEED / distance;
+            c.velocityY[i] = distance == 0 ? 0 : toY * MOVEMENT_SPEED / distance;
+
+            double fromX = c.x[i], fromY = c.y[i];
+            double moved = distance == 0 ? 0 : moveUnitBy(c, i, toX * step / distance, toY * step / distance);
+            if(moved == 0 && distance > 0){
+                // blocked, e.g. by the edge of the map
+                endOrder(c, i);
+                break;
+            }
+
+            if(towardsWaypoint && distance - moved < ARRIVAL_DISTANCE){
+                c.waypointIndex[i] += 2;
+                if(c.waypointIndex[i] >= waypoints.length){
+                    endOrder(c, i);
+                    if(listener != null) listener.onOrderFinished(id);
+                    break;
+                }
+            }
+
+            contactChecks++;
+            int enemy = findEnemyInContact(c, i, fromX, fromY);
+            if(enemy != -1){
+                endOrder(c, i);
+                combat.engage(id, enemy);
+                if(journal != null) journal.recordContact(id, enemy);
+                if(listener != null) listener.onContact(id, enemy);
+            }
+        }
+        return contactChecks;
+    }
+
+    // helper method, a unit is done with its order
+    private void endOrder(UnitStore.Chunk c, int i){
+        c.clearOrder(i);
+        unitsWithOrders--;
+    }
+
+    /**
+     * Helper method:
+     * @return how many times farther a unit gets in a step on the ground it stands on, above 1 on ground that is quicker
+     * to cross than open ground, e.g. a road, and 1 everywhere else since slow ground is taken care of by moveUnitBy()
+     */
+    private double speedBonus(UnitStore.Chunk c, int i){
+        return 1 / Math.min(1, terrain.getMovementCost(c.x[i], c.y[i]));
+    }
+
+    /**
+     * Helper method:
+     * Moves a unit the given distance, slower if it ends up on ground that is slow to cross such as water, and not at
+     * all if it would end up on ground that can not be crossed or leave the map.
+     * @return the distance the unit actually moved
+     */
+    private double moveUnitBy(UnitStore.Chunk c, int i, double dx, double dy){
+        if (dx == 0 && dy == 0) return 0;
+
+        // slows the unit down if unit is in water or on other slow ground
+        double cost = terrain.getMovementCost(c.x[i] + dx, c.y[i] + dy);
+        if(cost == Double.POSITIVE_INFINITY) return 0;
+        if(cost > 1) {
+            dx /= cost;
+            dy /= cost;
+        }
+
+        // makes sure the unit cannot leave the map
+        if(!isInMap(c.x[i] + dx, c.y[i] + dy)) return 0;
+
+        c.x[i] += dx;
+        c.y[i] += dy;
+        unitGrids[c.side[i]].move(c.firstId + i, c.x[i], c.y[i]);
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    /**
+     * Helper method:
+     * @return the id of the first enemy whose square the given unit overlapped on its way from fromX, fromY to where it
+     * is now, or -1 if there is none
+     */
+    private int findEnemyInContact(UnitStore.Chunk c, int i, double fromX, double fromY){
+        return unitGrids[c.sideOf(i).opponent().ordinal()].findFirstOverlapping(fromX, fromY, c.x[i], c.y[i], UNIT_SIZE, ANY_UNIT);
+    }
+
+    /**
+     * Checks whether a unit with its center at the given position would be completely inside the map
+     * @return true if position is not outside of map
+     */
+    public boolean isInMap(double x, double y){
+        double half = UNIT_SIZE / 2;
+        return (
+                x - half >= 0 &&
+                x + half <= terrain.getWidth() &&
+                y - half >= 0 &&
+                y + half <= terrain.getHeight()
+        );
+    }
+
+    /**
+     * Used to move a unit from where it is to the given x and y (a point on the map), in a straight line.
+     * The unit keeps moving every tick until it reaches its destination or hits an enemy.
+     * @return true if the order was accepted
+     */
+    public boolean orderMoveTo(int id, double x, double y){
+        return orderMoveAlong(id, new double[] {x, y});
+    }
+
+    /**
+     * Used to move a unit through a list of positions, e.g. a path from the PathService. The unit walks in a straight
+     * line to each position in turn until it reaches the last one or hits an enemy.
+     * @param waypoints the positions as {x0, y0, x1, y1, ...}
+     * @return true if the order was accepted
+     */
+    public boolean orderMoveAlong(int id, double[] waypoints){
+        if(!startOrder(id, waypoints)) return false;
+
+        if(journal != null) journal.recordOrder(id, waypoints);
+        return true;
+    }
+
+    // helper method, gives a unit an order to walk through the waypoints if it can take it
+    private boolean startOrder(int id, double[] waypoints){
+        if(!isAlive(id) || waypoints == null || waypoints.length < 2) return false;
+
+        // make sure the requested order is inside the map
+        for(int i = 0; i + 1 < waypoints.length; i += 2){
+            if(!isInMap(waypoints[i], waypoints[i + 1])) return false;
+        }
+
+        int i = id & UnitStore.SLOT_MASK;
+        if(units.chunk(id).hasOrder[i]) return false;
+
+        UnitStore.Chunk c = units.chunkForWrite(id);
+        c.hasOrder[i] = true;
+        c.waypoints[i] = waypoints;
+        c.waypointIndex[i] = 0;
+        unitsWithOrders++;
+        return true;
+    }
+
+    /**
+     * Sets the manual (keyboard) movement of a unit. Each direction is -1, 0 or 1.
+     */
+    public void setManualInput(int id, int dx, int dy, boolean running){
+        if(!isAlive(id)) return;
+
+        UnitStore.Chunk c = units.chunkForWrite(id);
+        int i = id & UnitStore.SLOT_MASK;
+        c.inputX[i] = (byte) Integer.signum(dx);
+        c.inputY[i] = (byte) Integer.signum(dy);
+        c.running[i] = running;
+        if(journal != null) journal.recordManualInput(id, c.inputX[i], c.inputY[i], running);
+    }
+
+    /**
+     * Used to move a unit to a position by following a flow field towards it. This is how group orders are given, all
+     * the units share the same field so none of them has to search for a path.
+     * @param field a flow field whose destination cell contains the position
+     * @return true if the order was accepted
+     */
+    public boolean orderMoveWithFlowField(int id, FlowField field, double x, double y){
+        if(field == null || !startOrder(id, new double[] {x, y})) return false;
+
+        units.chunkForWrite(id).flowField[id & UnitStore.SLOT_MASK] = field;
+        if(journal != null) journal.recordFlowFieldOrder(id, x, y);
+        return true;
+    }
+
+    /**
+     * @return the id of a unit whose square contains the given position, or -1 if there is none
+     */
+    public int findUnitAt(double x, double y){
+        for(SpatialGrid grid : unitGrids){
+            int id = grid.findOverlapping(x, y, UNIT_SIZE / 2, ANY_UNIT);
+            if(id != -1) return id;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the ids of all units with their center inside the given box, e.g. to select everything the user drew a
+     * box around
+     */
+    public int[] findUnitsIn(double minX, double minY, double maxX, double maxY){
+        IntStream.Builder found = IntStream.builder();
+        for(SpatialGrid grid : unitGrids){
+            grid.forEachInBox(minX, minY, maxX, maxY, found);
+        }
+        return found.build().toArray();
+    }
+
+    /**
+     * Saves the state of all units, to go back to later with restoreSnapshot(). This takes the same short time no
+     * matter how many units there are; the cost comes afterwards, as one copy of every chunk of units that changes.
+     */
+    public Snapshot takeSnapshot(){
+        return new Snapshot(units.freeze(), combat.save(), tickCount, terrain);
+    }
+
+    /**
+     * @return true if the snapshot was taken on the map this simulation is on now
+     */
+    public boolean canRestore(Snapshot snapshot){
+        return snapshot.terrain == terrain;
+    }
+
+    /**
+     * Puts all units back the way they were when the snapshot was taken. The snapshot can be restored again later,
+     * e.g. to try something else from the same point.
+     * @throws IllegalArgumentException if the snapshot was taken on another map
+     */
+    public void restoreSnapshot(Snapshot snapshot){
+        if(!canRestore(snapshot)) throw new IllegalArgumentException("The snapshot was taken on another map");
+
+        units.restore(snapshot.units);
+        combat.load(snapshot.engagements);
+        tickCount = snapshot.tickCount;
+        rebuildGrids();
+
+        // the records before this no longer lead to the current state, so the journal saves it whole
+        if(journal != null) journal.recordJump();
+    }
+
+    /**
+     * Replaces all units with the given ones, e.g. from a checkpoint of a journal. The cells the units see from and
+     * project their influence from, and how they are counted in their groups, are worked out again, so they do not have
+     * to be set.
+     * @param engagements the fights going on between them, as {first0, second0, first1, second1, ...}
+     */
+    void loadUnits(UnitStore.Frozen loaded, int[] engagements, long tickCount){
+        units.restore(loaded);
+        for(int first = 0; first < units.size(); first += UnitStore.CHUNK_SIZE){
+            UnitStore.Chunk c = units.chunkForWrite(first);
+            for(int i = 0; i < UnitStore.CHUNK_SIZE; i++){
+                if(!c.alive[i]) continue;
+                c.visionCell[i] = visibility.cellAt(c.x[i], c.y[i]);
+                c.influenceCell[i] = influence.cellAt(c.x[i], c.y[i]);
+                c.influenceStrength[i] = c.strength[i];
+                c.clusterX[i] = (int) c.x[i];
+                c.clusterY[i] = (int) c.y[i];
+                c.clusterStrength[i] = UnitClusters.scaleStrength(c.strength[i]);
+            }
+        }
+        combat.load(engagements);
+        this.tickCount = tickCount;
+        rebuildGrids();
+    }
+
+    /**
+     * @return true if the given units, as for loadUnits(), are the units of this simulation and stand where they do
+     */
+    boolean hasSameUnits(UnitStore.Frozen other){
+        if(other.size() != units.size()) return false;
+        for(int id = 0; id < other.size(); id++){
+            UnitStore.Chunk c = units.chunk(id), o = other.chunk(id);
+            int i = id & UnitStore.SLOT_MASK;
+            if(c.alive[i] != o.alive[i]) return false;
+            if(!c.alive[i]) continue;
+            if(c.x[i] != o.x[i] || c.y[i] != o.y[i] || c.hasOrder[i] != o.hasOrder[i]) return false;
+            if(c.strength[i] != o.strength[i]) return false;
+            if(c.hasOrder[i] && c.waypointIndex[i] != o.waypointIndex[i]) return false;
+        }
+        return true;
+    }
+
+    // helper method, the grids, visibility, influence and groups only follow where the units are and how strong they are, so
+    // they can simply be filled in again
+    private void rebuildGrids(){
+        for(SpatialGrid grid : unitGrids){
+            grid.clear();
+        }
+        visibility.clear();
+        influence.clear();
+        clusters.clear();
+        Arrays.fill(unitCounts, 0);
+        unitsWithOrders = 0;
+        for(int id = 0; id < units.size(); id++){
+            UnitStore.Chunk c = units.chunk(id);
+            int i = id & UnitStore.SLOT_MASK;
+            if(!c.alive[i]) continue;
+            Side side = c.sideOf(i);
+            unitGrids[side.ordinal()].insert(id, c.x[i], c.y[i]);
+            visibility.addViewer(side, c.visionCell[i]);
+            influence.add(side, c.influenceCell[i], c.influenceStrength[i]);
+            clusters.add(side, c.clusterX[i], c.clusterY[i], c.clusterStrength[i]);
+            unitCounts[side.ordinal()]++;
+            if(c.hasOrder[i]) unitsWithOrders++;
+        }
+    }
+
+    /**
+     * @return what each side can see
+     */
+    public Visibility getVisibility(){
+        return visibility;
+    }
+
+    /**
+     * @return how much each side dominates every part of the map
+     */
+    public InfluenceMap getInfluenceMap(){
+        return influence;
+    }
+
+    /**
+     * @return the units of each side gathered into platoons, companies and battalions by where they stand
+     */
+    public UnitClusters getUnitClusters(){
+        return clusters;
+    }
+
+    /**
+     * @return true if the unit is on the given side or stands where that side can see it
+     */
+    public boolean isVisibleTo(Side viewer, int id){
+        UnitStore.Chunk c = units.chunk(id);
+        int i = id & UnitStore.SLOT_MASK;
+        return c.sideOf(i) == viewer || visibility.isVisible(viewer, c.x[i], c.y[i]);
+    }
+
+    /**
+     * @return how many units of a side are alive
+     */
+    public int countUnits(Side side){
+        return unitCounts[side.ordinal()];
+    }
+
+    /**
+     * @return how many units are currently following a move order
+     */
+    public int countUnitsWithOrders(){
+        return unitsWithOrders;
+    }
+
+    public boolean isAlive(int id){
+        return units.isAlive(id);
+    }
+
+    /**
+     * @return one more than the highest id handed out so far, so ids can be looped over with a for loop
+     */
+    public int getIdLimit(){
+        return units.size();
+    }
+
+    public long getTickCount(){
+        return tickCount;
+    }
+
+    /**
+     * @return how long the ticks have taken since the histogram was last reset
+     */
+    public TimeHistogram getTickTimes(){
+        return tickTimes;
+    }
+
+    /**
+     * @return how many units were alive in the last tick
+     */
+    public int getLastTickUnits(){
+        return lastTickUnits;
+    }
+
+    /**
+     * @return how many units moved in the last tick, on an order or by manual input
+     */
+    public int getLastTickMovingUnits(){
+        return lastTickMovingUnits;
+    }
+
+    public double getX(int id){
+        return units.chunk(id).x[id & UnitStore.SLOT_MASK];
+    }
+
+    public double getY(int id){
+        return units.chunk(id).y[id & UnitStore.SLOT_MASK];
+    }
+
+    public double getVelocityX(int id){
+        return units.chunk(id).velocityX[id & UnitStore.SLOT_MASK];
+    }
+
+    public double getVelocityY(int id){
+        return units.chunk(id).velocityY[id & UnitStore.SLOT_MASK];
+    }
+
+    /**
+     * @return how much fighting strength the unit has left, 1 at full strength, see Combat
+     */
+    public double getStrength(int id){
+        return units.chunk(id).strength[id & UnitStore.SLOT_MASK];
+    }
+
+    // e.g. for a unit that was weakened when its scenario was saved. Not recorded, since nothing records while a
+    // scenario is opened
+    void setStrength(int id, double strength){
+        UnitStore.Chunk c = units.chunkForWrite(id);
+        int i = id & UnitStore.SLOT_MASK;
+        c.strength[i] = strength;
+        updateInfluence(c, i);
+        updateClusters(c, i);
+    }
+
+    // how much of its strength a side brings to bear in fights, 1 unless set, e.g. by the Monte Carlo runner. Not
+    // recorded, the journal and the replays play with the default.
+    void setCombatEffectiveness(Side side, double effectiveness){
+        combat.setEffectiveness(side, effectiveness);
+    }
+
+    /**
+     * @return how many pairs of units are fighting each other
+     */
+    public int countEngagements(){
+        return combat.getCount();
+    }
+
+    public Side getSide(int id){
+        return units.chunk(id).sideOf(id & UnitStore.SLOT_MASK);
+    }
+
+    public boolean hasOrder(int id){
+        return units.chunk(id).hasOrder[id & UnitStore.SLOT_MASK];
+    }
+
+    /**
+     * @return the waypoints of a unit's current order as {x0, y0, x1, y1, ...}, or null if it has no order
+     */
+    public double[] getWaypoints(int id){
+        return units.chunk(id).waypoints[id & UnitStore.SLOT_MASK];
+    }
+
+    /**
+     * @return the index in getWaypoints() of the x of the waypoint the unit is walking towards
+     */
+    public int getWaypointIndex(int id){
+        return units.chunk(id).waypointIndex[id & UnitStore.SLOT_MASK];
+    }
+
+    /**
+     * The state of all units at one moment of a simulation, see takeSnapshot()
+     */
+    public static final class Snapshot {
+        private final UnitStore.Frozen units;
+        private final int[] engagements;
+        private final long tickCount;
+        private final Terrain terrain;
+
+        private Snapshot(UnitStore.Frozen units, int[] engagements, long tickCount, Terrain terrain){
+            this.units = units;
+            this.engagements = engagements;
+            this.tickCount = tickCount;
+            this.terrain = terrain;
+        }
+
+        public long getTickCount(){
+            return tickCount;
+        }
+
+        // the units as they were, e.g. for the journal to save them on its own thread
+        UnitStore.Frozen getUnits(){
+            return units;
+        }
+
+        // the fights that were going on, as {first0, second0, first1, second1, ...}
+        int[] getEngagements(){
+            return engagements;
+        }
+
+        /**
+         * @return the simulated time the snapshot was taken at, as minutes:seconds
+         */
+        @Override
+        public String toString(){
+            long seconds = (long) (tickCount * TICK_SECONDS);
+            return String.format("%d:%02d", seconds / 60, seconds % 60);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/* Decides how much simulated time passes for the wall time that has passed, so the simulation can be run at real time
+ * or faster (10x, 100x or as fast as the computer manages) while the map keeps being drawn at its own rate. Each call
+ * to advance() runs all the ticks that are due at once with Simulation.tick(int), so a fast clock costs a few long
+ * moves per unit instead of hundreds of single steps.
+ */
+
+package project.sim;
+
+import java.util.function.IntConsumer;
+
+public class SimulationClock {
+    // a speed that runs as many ticks as fit in MAX_BUSY_NANOS every time the clock is advanced
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    // never try to catch up more than a quarter of a second of wall time, e.g. after the window has been frozen
+    private static final double MAX_CATCH_UP_SECONDS = 0.25;
+
+    // the most ticks run in one call to Simulation.tick(int), one second of simulated time
+    private static final int MAX_STEPS_PER_TICK = 60;
+
+    // how long one advance may take when running as fast as possible, leaving the rest of a 60 fps frame for drawing
+    private static final long MAX_BUSY_NANOS = 10_000_000L;
+
+    private double speed = 1;
+    private boolean paused = false;
+    private boolean deterministic = false;
+    private long lastTime = -1;
+    private double unsimulatedTime = 0;
+
+    /**
+     * @param speed how many simulated seconds pass per second of wall time, or AS_FAST_AS_POSSIBLE
+     */
+    public void setSpeed(double speed){
+        if(!(speed > 0)) throw new IllegalArgumentException("The speed must be above 0");
+        this.speed = speed;
+        unsimulatedTime = 0;
+    }
+
+    public double getSpeed(){
+        return speed;
+    }
+
+    /**
+     * While paused no ticks are run, and the time that passes is not caught up on afterwards
+     */
+    public void setPaused(boolean paused){
+        this.paused = paused;
+        unsimulatedTime = 0;
+    }
+
+    public boolean isPaused(){
+        return paused;
+    }
+
+    /**
+     * In deterministic mode every tick is run as a single step. Running several steps at once divides the moves up
+     * differently, so this makes where the units end up depend only on the ticks the orders were given in and not on
+     * how many ticks each frame happened to run, e.g. to play out the same exercise the same way on another computer.
+     */
+    public void setDeterministic(boolean deterministic){
+        this.deterministic = deterministic;
+    }
+
+    public boolean isDeterministic(){
+        return deterministic;
+    }
+
+    /**
+     * Runs the ticks that are due since the last call
+     * @param now the current wall time in nanoseconds, e.g. from an AnimationTimer
+     * @return how many ticks were run
+     */
+    public int advance(Simulation simulation, long now){
+        if(!deterministic) return advance(simulation::tick, now);
+
+        return advance(steps -> {
+            for(int i = 0; i < steps; i++){
+                simulation.tick();
+            }
+        }, now);
+    }
+
+    /**
+     * Runs the ticks that are due since the last call on something else than a simulation, e.g. a Replay
+     * @param ticker is given the number of steps to run, at most one second's worth at a time
+     * @param now the current wall time in nanoseconds
+     * @return how many ticks were run
+     */
+    public int advance(IntConsumer ticker, long now){
+        if(lastTime < 0) lastTime = now;
+        double elapsed = (now - lastTime) / 1e9;
+        lastTime = now;
+        if(paused) return 0;
+
+        if(speed == AS_FAST_AS_POSSIBLE){
+            long start = System.nanoTime();
+            int ticks = 0;
+            do{
+                ticker.accept(MAX_STEPS_PER_TICK);
+                ticks += MAX_STEPS_PER_TICK;
+            } while(System.nanoTime() - start < MAX_BUSY_NANOS);
+            return ticks;
+        }
+
+        unsimulatedTime = Math.min(unsimulatedTime + elapsed * speed, MAX_CATCH_UP_SECONDS * speed);
+        int due = (int) (unsimulatedTime / Simulation.TICK_SECONDS);
+        unsimulatedTime -= due * Simulation.TICK_SECONDS;
+
+        for(int left = due; left > 0; left -= MAX_STEPS_PER_TICK){
+            ticker.accept(Math.min(left, MAX_STEPS_PER_TICK));
+        }
+        return due;
+    }
+}
@@ -0,0 +1,28 @@
+/* Callback for things that happen inside the simulation which something outside of it (the javafx map, a batch
+ * runner etc) wants to react to. All methods are called from inside Simulation.tick().
+ */
+
+package project.sim;
+
+public interface SimulationListener {
+
+    /**
+     * Called when a moving unit walks into a unit of the other side
+     * @param unitId the unit that was moving
+     * @param enemyId the unit it hit
+     */
+    void onContact(int unitId, int enemyId);
+
+    /**
+     * Called when a unit has reached the destination of its move order
+     * @param unitId the unit whose order is done
+     */
+    default void onOrderFinished(int unitId){}
+
+    /**
+     * Called when a unit has lost so much strength in combat that it is out of the fight. The unit has already been
+     * removed from the simulation.
+     * @param unitId the unit that was destroyed
+     */
+    default void onUnitDestroyed(int unitId){}
+}
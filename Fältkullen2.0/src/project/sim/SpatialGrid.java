@@ -0,0 +1,239 @@
+/* A uniform grid over the map that keeps track of which units are in which cell. It is updated a little every time a
+ * unit moves (only when the unit crosses into a new cell), so finding the units near a position only means looking
+ * at a few cells instead of at every unit on the map.
+ *
+ * Every cell holds its unit ids in a small int array, and every unit remembers which cell and which slot in that
+ * array it is in, so adding, moving and removing a unit never has to search.
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+public class SpatialGrid {
+
+    /**
+     * Where the grid reads the current position of a unit from when it has to compare distances. The grid itself only
+     * stores which cell every unit is in.
+     */
+    public interface PositionSource {
+        double getX(int id);
+        double getY(int id);
+    }
+
+    private final PositionSource positions;
+    private final double cellSize;
+    private final int columns, rows;
+
+    // unit ids in every cell, and how many there are
+    private final int[][] cellUnits;
+    private final int[] cellCounts;
+
+    // for every unit id: which cell it is in (-1 if none) and at which index in that cell's array
+    private int[] unitCell = new int[0];
+    private int[] unitSlot = new int[0];
+
+    public SpatialGrid(double width, double height, double cellSize, PositionSource positions){
+        this.positions = positions;
+        this.cellSize = cellSize;
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        cellUnits = new int[columns * rows][];
+        cellCounts = new int[columns * rows];
+    }
+
+    /**
+     * Adds a unit to the grid, or moves it if it is already in it
+     */
+    public void insert(int id, double x, double y){
+        ensureCapacity(id);
+        int cell = cellOf(x, y);
+        int oldCell = unitCell[id];
+
+        if(oldCell == cell) return;
+        if(oldCell != -1) removeFromCell(id, oldCell);
+        addToCell(id, cell);
+    }
+
+    /**
+     * Updates the position of a unit. This is cheap when the unit stays in the same cell, which it usually does.
+     */
+    public void move(int id, double x, double y){
+        insert(id, x, y);
+    }
+
+    public void remove(int id){
+        if(id >= unitCell.length || unitCell[id] == -1) return;
+        removeFromCell(id, unitCell[id]);
+        unitCell[id] = -1;
+    }
+
+    public void clear(){
+        Arrays.fill(cellCounts, 0);
+        Arrays.fill(unitCell, -1);
+    }
+
+    /**
+     * Finds a unit whose square of the given size overlaps the square of a unit at the given position. Only the cells
+     * around the position are searched, so size should not be larger than the cell size.
+     * @param accept decides which of the overlapping units count, e.g. to skip the unit doing the search
+     * @return the id of an overlapping unit, or -1 if there is none
+     */
+    public int findOverlapping(double x, double y, double size, IntPredicate accept){
+        int cellX = clamp((int) (x / cellSize), columns);
+        int cellY = clamp((int) (y / cellSize), rows);
+
+        for(int row = Math.max(0, cellY - 1); row <= Math.min(rows - 1, cellY + 1); row++){
+            for(int column = Math.max(0, cellX - 1); column <= Math.min(columns - 1, cellX + 1); column++){
+                int cell = row * columns + column;
+                int[] ids = cellUnits[cell];
+                for(int i = 0; i < cellCounts[cell]; i++){
+                    int other = ids[i];
+                    if(accept.test(other) && overlaps(other, x, y, size)) return other;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the unit that a square of the given size overlaps first while it moves in a straight line from one position
+     * to another. All cells along the way are searched, so the move can be longer than a cell without skipping over a
+     * unit in between.
+     * @param accept decides which of the overlapping units count, e.g. to skip the unit doing the search
+     * @return the id of the unit that is overlapped earliest on the way, or -1 if there is none
+     */
+    public int findFirstOverlapping(double fromX, double fromY, double toX, double toY, double size, IntPredicate accept){
+        int firstColumn = clamp((int) (Math.min(fromX, toX) / cellSize) - 1, columns);
+        int lastColumn = clamp((int) (Math.max(fromX, toX) / cellSize) + 1, columns);
+        int firstRow = clamp((int) (Math.min(fromY, toY) / cellSize) - 1, rows);
+        int lastRow = clamp((int) (Math.max(fromY, toY) / cellSize) + 1, rows);
+        double dx = toX - fromX, dy = toY - fromY;
+
+        int first = -1;
+        double firstTime = Double.POSITIVE_INFINITY;
+        for(int row = firstRow; row <= lastRow; row++){
+            for(int column = firstColumn; column <= lastColumn; column++){
+                int cell = row * columns + column;
+                int[] ids = cellUnits[cell];
+                for(int i = 0; i < cellCounts[cell]; i++){
+                    int other = ids[i];
+                    if(!accept.test(other)) continue;
+
+                    double time = entryTime(positions.getX(other), positions.getY(other), fromX, fromY, dx, dy, size);
+                    if(time >= 0 && time < firstTime){
+                        first = other;
+                        firstTime = time;
+                    }
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Calls the action with every unit whose position is inside the given box. Only the cells the box covers are
+     * searched, so the cost follows the size of the box rather than the number of units on the map.
+     */
+    public void forEachInBox(double minX, double minY, double maxX, double maxY, IntConsumer action){
+        int firstColumn = clamp((int) (minX / cellSize), columns), lastColumn = clamp((int) (maxX / cellSize), columns);
+        int firstRow = clamp((int) (minY / cellSize), rows), lastRow = clamp((int) (maxY / cellSize), rows);
+
+        for(int row = firstRow; row <= lastRow; row++){
+            for(int column = firstColumn; column <= lastColumn; column++){
+                int cell = row * columns + column;
+                int[] ids = cellUnits[cell];
+                for(int i = 0; i < cellCounts[cell]; i++){
+                    int id = ids[i];
+                    double x = positions.getX(id), y = positions.getY(id);
+                    if(x >= minX && x <= maxX && y >= minY && y <= maxY) action.accept(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method:
+     * How far along a move (0 at the start, 1 at the end) a square first overlaps the square around x, y, found by
+     * clipping the move against the overlapping region one axis at a time.
+     * @return the fraction of the move, or -1 if the squares never overlap
+     */
+    private static double entryTime(double x, double y, double fromX, double fromY, double dx, double dy, double size){
+        double enter = 0, leave = 1;
+
+        if(dx == 0){
+            if(Math.abs(fromX - x) >= size) return -1;
+        }
+        else{
+            double a = (x - size - fromX) / dx, b = (x + size - fromX) / dx;
+            enter = Math.max(enter, Math.min(a, b));
+            leave = Math.min(leave, Math.max(a, b));
+        }
+
+        if(dy == 0){
+            if(Math.abs(fromY - y) >= size) return -1;
+        }
+        else{
+            double a = (y - size - fromY) / dy, b = (y + size - fromY) / dy;
+            enter = Math.max(enter, Math.min(a, b));
+            leave = Math.min(leave, Math.max(a, b));
+        }
+        return enter < leave ? enter : -1;
+    }
+
+    // helper method
+    private boolean overlaps(int id, double x, double y, double size){
+        return Math.abs(positions.getX(id) - x) < size && Math.abs(positions.getY(id) - y) < size;
+    }
+
+    // helper method
+    private int cellOf(double x, double y){
+        return clamp((int) (y / cellSize), rows) * columns + clamp((int) (x / cellSize), columns);
+    }
+
+    // helper method
+    private static int clamp(int value, int size){
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+
+    // helper method
+    private void addToCell(int id, int cell){
+        int[] ids = cellUnits[cell];
+        if(ids == null){
+            ids = new int[4];
+            cellUnits[cell] = ids;
+        }
+        else if(cellCounts[cell] == ids.length){
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            cellUnits[cell] = ids;
+        }
+        ids[cellCounts[cell]] = id;
+        unitCell[id] = cell;
+        unitSlot[id] = cellCounts[cell];
+        cellCounts[cell]++;
+    }
+
+    // helper method, the last unit in the cell takes the place of the removed one
+    private void removeFromCell(int id, int cell){
+        int[] ids = cellUnits[cell];
+        int slot = unitSlot[id];
+        int last = --cellCounts[cell];
+
+        int moved = ids[last];
+        ids[slot] = moved;
+        unitSlot[moved] = slot;
+    }
+
+    // helper method
+    private void ensureCapacity(int id){
+        if(id < unitCell.length) return;
+
+        int oldLength = unitCell.length;
+        int newLength = Math.max(id + 1, oldLength * 2);
+        unitCell = Arrays.copyOf(unitCell, newLength);
+        unitSlot = Arrays.copyOf(unitSlot, newLength);
+        Arrays.fill(unitCell, oldLength, newLength, -1);
+    }
+}
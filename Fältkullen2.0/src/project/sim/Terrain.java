@@ -0,0 +1,50 @@
+/* Describes the ground the simulation is played on. The simulation only asks the terrain how big the map is and what
+ * kind of ground a position is, so the map can come from a javafx image, a file on disk or be made up for a test run.
+ */
+
+package project.sim;
+
+public interface Terrain {
+
+    /**
+     * @return the width of the map in map pixels
+     */
+    int getWidth();
+
+    /**
+     * @return the height of the map in map pixels
+     */
+    int getHeight();
+
+    /**
+     * Checks if a position on the map is water, which units move slower through
+     * @param x x position to check
+     * @param y y position to check
+     * @return if the ground at given position is "water"
+     */
+    boolean isWater(double x, double y);
+
+    /**
+     * How many times longer it takes to cross the ground at a position than open ground. Below 1 for ground that is
+     * quicker to cross, e.g. a road, and infinite for ground that can not be crossed at all.
+     */
+    default double getMovementCost(double x, double y){
+        return isWater(x, y) ? Simulation.WATER_SLOWDOWN : 1;
+    }
+
+    /**
+     * Checks if the ground at a position blocks the line of sight of units looking past it, e.g. a forest
+     * @return true if units can not see through the ground at the given position
+     */
+    default boolean blocksSight(double x, double y){
+        return false;
+    }
+
+    /**
+     * How much of the fire aimed at a unit at a position hits it, compared to a unit on open ground. Below 1 for ground
+     * that gives cover, above 1 for ground that leaves a unit exposed.
+     */
+    default double getExposure(double x, double y){
+        return 1;
+    }
+}
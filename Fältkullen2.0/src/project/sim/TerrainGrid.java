@@ -0,0 +1,209 @@
+/* A precomputed raster of the map where every cell holds one byte saying what kind of ground it is. The raster is
+ * built once when a map is loaded, with a TerrainPalette deciding the class of every pixel color, so checking the
+ * ground under a unit while it moves is only an array read instead of reading and comparing pixel colors every frame.
+ * What a class means for moving, seeing and fighting is looked up in small tables indexed by the class.
+ *
+ * A cell can cover more than one map pixel (cellSize) so that very large maps still give a raster of sensible size.
+ */
+
+package project.sim;
+
+import java.util.stream.IntStream;
+
+public class TerrainGrid implements Terrain {
+
+    // terrain classes
+    public static final byte OPEN = 0;
+    public static final byte WATER = 1;
+    public static final byte FOREST = 2;
+    public static final byte ROAD = 3;
+    public static final byte URBAN = 4;
+    public static final byte MARSH = 5;
+    public static final byte IMPASSABLE = 6;
+
+    // for every terrain class: how many times longer it takes to cross than open ground (below 1 is quicker)
+    private static final double[] MOVEMENT_COSTS = {1, Simulation.WATER_SLOWDOWN, 2, 0.5, 1.5, 3, Double.POSITIVE_INFINITY};
+
+    // for every terrain class: how much of the fire aimed at a unit on it hits, below 1 is cover
+    private static final double[] EXPOSURES = {1, Combat.WATER_EXPOSURE, 0.6, 1.2, 0.5, 1.3, 1};
+
+    // for every terrain class: whether it can not be seen through
+    private static final boolean[] BLOCKS_SIGHT = {false, false, true, false, true, false, false};
+
+    private final byte[] cells;
+    private final int width, height;
+    private final int columns, rows;
+    private final int cellSize;
+
+    private TerrainGrid(byte[] cells, int width, int height, int cellSize){
+        this.cells = cells;
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        columns = (width + cellSize - 1) / cellSize;
+        rows = (height + cellSize - 1) / cellSize;
+    }
+
+    /**
+     * Builds a terrain raster from the pixels of a map image with the standard palette, see
+     * fromPixels(int[], int, int, int, TerrainPalette)
+     */
+    public static TerrainGrid fromPixels(int[] argb, int width, int height, int cellSize){
+        return fromPixels(argb, width, height, cellSize, TerrainPalette.standard());
+    }
+
+    /**
+     * Builds a terrain raster from the pixels of a map image. The rows of the raster are classified in parallel on all
+     * cores.
+     * @param argb the pixels of the map, row by row, in the int ARGB format
+     * @param width the width of the map in pixels
+     * @param height the height of the map in pixels
+     * @param cellSize how many map pixels wide and high each cell is
+     * @param palette which terrain class every color stands for
+     */
+    public static TerrainGrid fromPixels(int[] argb, int width, int height, int cellSize, TerrainPalette palette){
+        if(argb.length < width * height) throw new IllegalArgumentException("Not enough pixels for a " + width + "x" + height + " map");
+        if(cellSize < 1) throw new IllegalArgumentException("Cell size must be at least 1");
+
+        int columns = (width + cellSize - 1) / cellSize;
+        int rows = (height + cellSize - 1) / cellSize;
+        byte[] cells = new byte[columns * rows];
+
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            // every cell is classified by the pixel in its middle
+            int pixelY = Math.min(row * cellSize + cellSize / 2, height - 1);
+            for(int column = 0; column < columns; column++){
+                int pixelX = Math.min(column * cellSize + cellSize / 2, width - 1);
+                cells[row * columns + column] = palette.classify(argb[pixelY * width + pixelX]);
+            }
+        });
+        return new TerrainGrid(cells, width, height, cellSize);
+    }
+
+    /**
+     * Builds a terrain raster from an image that has already been scaled down so one pixel is one cell, e.g. a level
+     * of a tiled map
+     * @param argb the pixels of the scaled image, row by row, in the int ARGB format
+     * @param columns the width of the scaled image, which is the number of cell columns
+     * @param rows the height of the scaled image, which is the number of cell rows
+     * @param cellSize how many map pixels wide and high each cell (pixel of the scaled image) is
+     * @param width the width of the full map in pixels
+     * @param height the height of the full map in pixels
+     * @param palette which terrain class every color stands for
+     */
+    public static TerrainGrid fromCellPixels(int[] argb, int columns, int rows, int cellSize, int width, int height,
+                                             TerrainPalette palette){
+        if(argb.length < columns * rows) throw new IllegalArgumentException("Not enough pixels for " + columns + "x" + rows + " cells");
+
+        byte[] cells = new byte[columns * rows];
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            for(int column = 0; column < columns; column++){
+                cells[row * columns + column] = palette.classify(argb[row * columns + column]);
+            }
+        });
+        return new TerrainGrid(cells, width, height, cellSize);
+    }
+
+    /**
+     * Wraps terrain classes that were saved before, e.g. in a scenario file
+     * @param cells the terrain class of every cell, row by row
+     */
+    static TerrainGrid fromCells(byte[] cells, int width, int height, int cellSize){
+        if(cellSize < 1) throw new IllegalArgumentException("Cell size must be at least 1");
+
+        TerrainGrid grid = new TerrainGrid(cells, width, height, cellSize);
+        if(cells.length != grid.columns * grid.rows) throw new IllegalArgumentException("Wrong number of cells for a " + width + "x" + height + " map");
+        return grid;
+    }
+
+    /**
+     * Makes a map of the given size where all ground is open. Useful when there is no map image, e.g. in batch runs.
+     */
+    public static TerrainGrid open(int width, int height){
+        return new TerrainGrid(new byte[width * height], width, height, 1);
+    }
+
+    /**
+     * @return how many times longer it takes to cross ground of the given class than open ground, below 1 for ground
+     * that is quicker to cross and infinite for ground that can not be crossed at all
+     */
+    public static double movementCost(byte terrainClass){
+        return MOVEMENT_COSTS[terrainClass];
+    }
+
+    @Override
+    public int getWidth(){
+        return width;
+    }
+
+    @Override
+    public int getHeight(){
+        return height;
+    }
+
+    public int getColumns(){
+        return columns;
+    }
+
+    public int getRows(){
+        return rows;
+    }
+
+    public int getCellSize(){
+        return cellSize;
+    }
+
+    // the raster itself, for saving it. Must not be changed.
+    byte[] getCells(){
+        return cells;
+    }
+
+    /**
+     * @return the terrain class of a cell in the raster
+     */
+    public byte getCell(int column, int row){
+        return cells[row * columns + column];
+    }
+
+    /**
+     * @return the terrain class at a position on the map, positions outside of the map count as OPEN
+     */
+    public byte getTerrainClass(double x, double y){
+        if(x < 0 || y < 0 || x >= width || y >= height) return OPEN;
+        return cells[((int) y / cellSize) * columns + ((int) x / cellSize)];
+    }
+
+    @Override
+    public boolean isWater(double x, double y){
+        return getTerrainClass(x, y) == WATER;
+    }
+
+    @Override
+    public double getMovementCost(double x, double y){
+        return MOVEMENT_COSTS[getTerrainClass(x, y)];
+    }
+
+    @Override
+    public boolean blocksSight(double x, double y){
+        return blocksSight(getTerrainClass(x, y));
+    }
+
+    @Override
+    public double getExposure(double x, double y){
+        return exposure(getTerrainClass(x, y));
+    }
+
+    /**
+     * @return how much of the fire aimed at a unit on ground of the given class hits it, compared to open ground
+     */
+    public static double exposure(byte terrainClass){
+        return EXPOSURES[terrainClass];
+    }
+
+    /**
+     * @return true if ground of the given class can not be seen through, which forests and built-up areas can not
+     */
+    public static boolean blocksSight(byte terrainClass){
+        return BLOCKS_SIGHT[terrainClass];
+    }
+}
@@ -0,0 +1,206 @@
+/* Decides which terrain class every color of a map image stands for. A palette is a list of rules, each a range of
+ * red, green and blue that means one class; the first rule a color falls in decides, and colors no rule covers are open
+ * ground. The rules are turned into a lookup table once, so classifying a pixel is an array read however many rules
+ * there are. The table has BITS levels per channel rather than all 256, which keeps it at 256 KB: every entry is a
+ * small block of colors, and only the few blocks that the edge of a rule cuts through are marked MIXED, their colors
+ * being checked against the rules one by one.
+ *
+ * Every map can have its own palette in a text file next to the image, named like the image with ".terrain" added,
+ * e.g. "map.png.terrain". Every line is a class followed by its red, green and blue ranges:
+ *
+ *     # class   red      green    blue
+ *     forest    20-110   80-170   20-100
+ *     road      200-255  120-190  0-80
+ *
+ * Maps without such a file get the standard palette, see standard(). The example map res/karta.png has a palette file
+ * written out this way.
+ */
+
+package project.sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class TerrainPalette {
+    public static final String FILE_EXTENSION = ".terrain";
+
+    // how many bits of every channel the lookup table uses
+    private static final int BITS = 6;
+    private static final int DROPPED_BITS = 8 - BITS;
+    private static final int LEVELS = 1 << BITS;
+
+    // marks a block of colors that are not all of one class
+    private static final byte MIXED = -1;
+
+    // the names of the classes in palette files, indexed by terrain class
+    private static final String[] CLASS_NAMES = {"open", "water", "forest", "road", "urban", "marsh", "impassable"};
+
+    private static TerrainPalette standard;
+
+    private final List<Rule> rules;
+
+    // the terrain class of every block of colors, indexed by red, green and blue (BITS each) in that order
+    private final byte[] lookup = new byte[LEVELS * LEVELS * LEVELS];
+
+    // one range of colors that stands for a terrain class, the ranges include both ends
+    private static final class Rule {
+        final byte terrainClass;
+        final int minRed, maxRed, minGreen, maxGreen, minBlue, maxBlue;
+
+        Rule(byte terrainClass, int minRed, int maxRed, int minGreen, int maxGreen, int minBlue, int maxBlue){
+            this.terrainClass = terrainClass;
+            this.minRed = minRed;
+            this.maxRed = maxRed;
+            this.minGreen = minGreen;
+            this.maxGreen = maxGreen;
+            this.minBlue = minBlue;
+            this.maxBlue = maxBlue;
+        }
+
+        boolean contains(int red, int green, int blue){
+            return red >= minRed && red <= maxRed && green >= minGreen && green <= maxGreen && blue >= minBlue && blue <= maxBlue;
+        }
+
+        // whether all colors of a block of the lookup table are in the range
+        boolean containsBlock(int red, int green, int blue){
+            return contains(first(red), first(green), first(blue)) && contains(last(red), last(green), last(blue));
+        }
+
+        // whether any color of a block of the lookup table is in the range
+        boolean overlapsBlock(int red, int green, int blue){
+            return first(red) <= maxRed && last(red) >= minRed
+                    && first(green) <= maxGreen && last(green) >= minGreen
+                    && first(blue) <= maxBlue && last(blue) >= minBlue;
+        }
+    }
+
+    // fills in the lookup table, one plane of red in parallel with the others
+    private TerrainPalette(List<Rule> rules){
+        this.rules = rules;
+        IntStream.range(0, LEVELS).parallel().forEach(red -> {
+            for(int green = 0; green < LEVELS; green++){
+                for(int blue = 0; blue < LEVELS; blue++){
+                    lookup[(red * LEVELS + green) * LEVELS + blue] = classOfBlock(red, green, blue);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the palette for maps that have none of their own, for the flat colors maps are usually drawn in: dark
+     * green forest, blue-green marsh, orange roads, red or grey built-up areas and light blue water, like the water of
+     * res/karta.png. Any color with a blue channel above 0.92 is water as well, which is how water was told apart
+     * before there were other classes. Everything else is open ground. Nothing is impassable, since the black of text and outlines would block the way;
+     * a map that has impassable ground needs a palette file of its own.
+     */
+    public static synchronized TerrainPalette standard(){
+        if(standard == null){
+            standard = new TerrainPalette(List.of(
+                    new Rule(TerrainGrid.FOREST, 0, 90, 60, 150, 0, 90),
+                    new Rule(TerrainGrid.WATER, 0, 100, 100, 220, 180, 255),
+                    new Rule(TerrainGrid.MARSH, 0, 90, 120, 190, 100, 179),
+                    new Rule(TerrainGrid.ROAD, 200, 255, 120, 190, 0, 90),
+                    new Rule(TerrainGrid.URBAN, 180, 255, 0, 90, 0, 90),
+                    new Rule(TerrainGrid.URBAN, 110, 200, 110, 200, 110, 200),
+                    new Rule(TerrainGrid.WATER, 0, 255, 0, 255, 235, 255)));
+        }
+        return standard;
+    }
+
+    /**
+     * @return the palette of a map image, read from the palette file next to it, or the standard palette if it has none
+     */
+    public static TerrainPalette forMap(Path image) throws IOException{
+        Path file = image.resolveSibling(image.getFileName() + FILE_EXTENSION);
+        return Files.isRegularFile(file) ? read(file) : standard();
+    }
+
+    /**
+     * Reads a palette file, see the top of this file for what it looks like
+     * @throws IOException if the file can not be read or a line is not a class with three ranges
+     */
+    public static TerrainPalette read(Path file) throws IOException{
+        List<Rule> rules = new ArrayList<>();
+        try(BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
+            int lineNumber = 0;
+            for(String line = in.readLine(); line != null; line = in.readLine()){
+                lineNumber++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] parts = line.split("\\s+");
+                if(parts.length != 4) throw new IOException(file + " line " + lineNumber + ": expected a class and three ranges");
+                int[] ranges = new int[6];
+                for(int channel = 0; channel < 3; channel++){
+                    parseRange(parts[channel + 1], ranges, channel * 2, file, lineNumber);
+                }
+                rules.add(new Rule(parseClass(parts[0], file, lineNumber), ranges[0], ranges[1], ranges[2], ranges[3], ranges[4], ranges[5]));
+            }
+        }
+        return new TerrainPalette(rules);
+    }
+
+    /**
+     * @return the terrain class of a pixel in the int ARGB format
+     */
+    public byte classify(int argb){
+        int red = (argb >> 16) & 0xFF, green = (argb >> 8) & 0xFF, blue = argb & 0xFF;
+        byte terrainClass = lookup[((red >> DROPPED_BITS) * LEVELS + (green >> DROPPED_BITS)) * LEVELS + (blue >> DROPPED_BITS)];
+        return terrainClass != MIXED ? terrainClass : classOf(red, green, blue);
+    }
+
+    // helper method, the class of the first rule containing the color
+    private byte classOf(int red, int green, int blue){
+        for(Rule rule : rules){
+            if(rule.contains(red, green, blue)) return rule.terrainClass;
+        }
+        return TerrainGrid.OPEN;
+    }
+
+    // helper method, the class of all colors of a block of the lookup table. The first rule that takes in any of them
+    // decides, unless it only takes in some of them, as the others can end up with a later rule.
+    private byte classOfBlock(int red, int green, int blue){
+        for(Rule rule : rules){
+            if(!rule.overlapsBlock(red, green, blue)) continue;
+            return rule.containsBlock(red, green, blue) ? rule.terrainClass : MIXED;
+        }
+        return TerrainGrid.OPEN;
+    }
+
+    // helper methods, the first and last channel value of a block of the lookup table
+    private static int first(int level){
+        return level << DROPPED_BITS;
+    }
+
+    private static int last(int level){
+        return first(level) + (1 << DROPPED_BITS) - 1;
+    }
+
+    // helper method
+    private static byte parseClass(String name, Path file, int lineNumber) throws IOException{
+        for(byte terrainClass = 0; terrainClass < CLASS_NAMES.length; terrainClass++){
+            if(CLASS_NAMES[terrainClass].equalsIgnoreCase(name)) return terrainClass;
+        }
+        throw new IOException(file + " line " + lineNumber + ": unknown terrain class " + name);
+    }
+
+    // helper method, reads "min-max" (or a single value) into ranges[at] and ranges[at + 1]
+    private static void parseRange(String text, int[] ranges, int at, Path file, int lineNumber) throws IOException{
+        String[] ends = text.split("-", 2);
+        try {
+            ranges[at] = Integer.parseInt(ends[0]);
+            ranges[at + 1] = ends.length > 1 ? Integer.parseInt(ends[1]) : ranges[at];
+        } catch (NumberFormatException e) {
+            throw new IOException(file + " line " + lineNumber + ": " + text + " is not a range like 0-255");
+        }
+        if(ranges[at] < 0 || ranges[at + 1] > 255 || ranges[at] > ranges[at + 1]){
+            throw new IOException(file + " line " + lineNumber + ": " + text + " is not a range within 0-255");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/* A flight recorder event for every simulation tick. Recording it costs next to nothing when no recording is running,
+ * and with one running it shows how long each tick took and how much work was in it next to the garbage collections
+ * and the javafx pulses.
+ */
+
+package project.sim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("project.sim.Tick")
+@Label("Simulation Tick")
+@Category({"Fältkullen", "Simulation"})
+@Description("One fixed step of the simulation")
+class TickEvent extends Event {
+    @Label("Tick")
+    long tick;
+
+    @Label("Units")
+    @Description("Units alive during the tick")
+    int units;
+
+    @Label("Moving Units")
+    @Description("Units that followed an order or manual input")
+    int movingUnits;
+
+    @Label("Contact Checks")
+    int contactChecks;
+
+    @Label("Engagements")
+    @Description("Pairs of units fighting each other")
+    int engagements;
+}
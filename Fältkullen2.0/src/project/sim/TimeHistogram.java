@@ -0,0 +1,74 @@
+/* Counts how long something took, e.g. a tick, in buckets that grow with the duration: every power of two of
+ * nanoseconds is split into SUB_BUCKETS equal buckets, so a percentile is always within about 12% of the true value
+ * while recording is only a few shifts and one array write. Nothing is allocated after construction.
+ *
+ * Not thread-safe, a histogram belongs to the thread that records into it.
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+
+public class TimeHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count = 0;
+    private long max = 0;
+
+    public void record(long nanos){
+        if(nanos < 0) nanos = 0;
+        counts[bucketOf(nanos)]++;
+        count++;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the duration in nanoseconds that the given share of the recorded durations were shorter than, 0 if
+     * nothing has been recorded
+     */
+    public long getPercentile(double percentile){
+        if(count == 0) return 0;
+
+        long wanted = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for(int bucket = 0; bucket < counts.length; bucket++){
+            seen += counts[bucket];
+            if(seen >= wanted) return Math.min(max, upperBound(bucket));
+        }
+        return max;
+    }
+
+    public long getCount(){
+        return count;
+    }
+
+    public long getMax(){
+        return max;
+    }
+
+    public void reset(){
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    // helper method, the power of two of the duration picks the group of buckets, the bits under it the bucket
+    private static int bucketOf(long nanos){
+        if(nanos < SUB_BUCKETS) return (int) nanos;
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // helper method, the longest duration that ends up in a bucket
+    private static long upperBound(int bucket){
+        if(bucket < SUB_BUCKETS) return bucket;
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lowest = (1L << magnitude) + ((long) sub << (magnitude - SUB_BUCKET_BITS));
+        return lowest + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
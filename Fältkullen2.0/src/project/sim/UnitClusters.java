@@ -0,0 +1,145 @@
+/* The units of each side gathered into groups by where they stand, for showing a zoomed out map as a few markers
+ * instead of thousands of units. There are three levels of groups, each on a grid of its own: platoons, companies and
+ * battalions, every level's cells four times as wide as those of the level below. For every side and cell the grids
+ * keep how many units there are, their total strength and the sum of their positions, so the middle of the group is
+ * known without looking at the units.
+ *
+ * Like InfluenceMap the grids are kept up to date incrementally. A unit adds its position in whole pixels and its
+ * strength in whole thousandths, and takes away exactly that again before adding where it is now, which only has to
+ * happen when one of them has changed. Whole numbers keep the sums exact however often that happens.
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+
+public class UnitClusters {
+    public static final int PLATOON = 0;
+    public static final int COMPANY = 1;
+    public static final int BATTALION = 2;
+    public static final int LEVELS = 3;
+
+    // the width of the cells of a platoon, every level above is GROWTH times wider
+    public static final double PLATOON_CELL_SIZE = 4 * Simulation.UNIT_SIZE;
+    private static final int GROWTH = 4;
+
+    // the strength of a unit at full strength, in the sums
+    private static final int STRENGTH_SCALE = 1000;
+
+    private final double[] cellSizes = new double[LEVELS];
+    private final int[] columns = new int[LEVELS], rows = new int[LEVELS];
+
+    // for every level, then every side (indexed by Side.ordinal()): the sums of every cell
+    private final int[][][] counts, strengths;
+    private final long[][][] sumsX, sumsY;
+
+    UnitClusters(Terrain terrain){
+        int sides = Side.values().length;
+        counts = new int[LEVELS][sides][];
+        strengths = new int[LEVELS][sides][];
+        sumsX = new long[LEVELS][sides][];
+        sumsY = new long[LEVELS][sides][];
+
+        for(int level = 0; level < LEVELS; level++){
+            cellSizes[level] = level == 0 ? PLATOON_CELL_SIZE : cellSizes[level - 1] * GROWTH;
+            columns[level] = Math.max(1, (int) Math.ceil(terrain.getWidth() / cellSizes[level]));
+            rows[level] = Math.max(1, (int) Math.ceil(terrain.getHeight() / cellSizes[level]));
+            for(int side = 0; side < sides; side++){
+                counts[level][side] = new int[columns[level] * rows[level]];
+                strengths[level][side] = new int[columns[level] * rows[level]];
+                sumsX[level][side] = new long[columns[level] * rows[level]];
+                sumsY[level][side] = new long[columns[level] * rows[level]];
+            }
+        }
+    }
+
+    /**
+     * @return the strength a unit adds to its group, in the whole numbers the groups are summed in
+     */
+    static int scaleStrength(double strength){
+        return (int) Math.round(strength * STRENGTH_SCALE);
+    }
+
+    /**
+     * Adds a unit at the given position (in whole map pixels) with the given strength (see scaleStrength()) to the
+     * groups of its side on every level
+     */
+    void add(Side side, int x, int y, int strength){
+        change(side, x, y, strength, 1);
+    }
+
+    /**
+     * Takes away a unit added before with add(), given the same position and strength
+     */
+    void remove(Side side, int x, int y, int strength){
+        change(side, x, y, strength, -1);
+    }
+
+    void clear(){
+        for(int level = 0; level < LEVELS; level++){
+            for(int side = 0; side < counts[level].length; side++){
+                Arrays.fill(counts[level][side], 0);
+                Arrays.fill(strengths[level][side], 0);
+                Arrays.fill(sumsX[level][side], 0);
+                Arrays.fill(sumsY[level][side], 0);
+            }
+        }
+    }
+
+    /**
+     * @return how wide and high the cells of a level are, in map pixels
+     */
+    public double getCellSize(int level){
+        return cellSizes[level];
+    }
+
+    public int getColumns(int level){
+        return columns[level];
+    }
+
+    public int getRows(int level){
+        return rows[level];
+    }
+
+    /**
+     * @return how many units of a side are in a cell (row * columns + column) of a level
+     */
+    public int getCount(Side side, int level, int cell){
+        return counts[level][side.ordinal()][cell];
+    }
+
+    /**
+     * @return the total strength of the units of a side in a cell, where a unit at full strength counts as 1
+     */
+    public double getStrength(Side side, int level, int cell){
+        return strengths[level][side.ordinal()][cell] / (double) STRENGTH_SCALE;
+    }
+
+    /**
+     * @return the x of the middle of the units of a side in a cell. Only meaningful if there are any.
+     */
+    public double getCenterX(Side side, int level, int cell){
+        return sumsX[level][side.ordinal()][cell] / (double) counts[level][side.ordinal()][cell];
+    }
+
+    /**
+     * @return the y of the middle of the units of a side in a cell. Only meaningful if there are any.
+     */
+    public double getCenterY(Side side, int level, int cell){
+        return sumsY[level][side.ordinal()][cell] / (double) counts[level][side.ordinal()][cell];
+    }
+
+    // helper method, adds (sign 1) or takes away (sign -1) a unit in the cell it is in on every level
+    private void change(Side side, int x, int y, int strength, int sign){
+        int s = side.ordinal();
+        for(int level = 0; level < LEVELS; level++){
+            int column = Math.min(columns[level] - 1, Math.max(0, (int) (x / cellSizes[level])));
+            int row = Math.min(rows[level] - 1, Math.max(0, (int) (y / cellSizes[level])));
+            int cell = row * columns[level] + column;
+            counts[level][s][cell] += sign;
+            strengths[level][s][cell] += sign * strength;
+            sumsX[level][s][cell] += sign * x;
+            sumsY[level][s][cell] += sign * y;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/* The state of all units of a simulation, stored as a struct of arrays: every field of the units is an array indexed by
+ * id, so the passes over all units (movement, contact checks, combat) stream through a few dense arrays instead of
+ * following a pointer to an object per unit, and giving an order or moving a unit allocates nothing. The arrays hold 86
+ * bytes per unit, and with the headers of the arrays of every chunk a unit takes about 93 bytes (about 102 without
+ * compressed references), so 100 000 units take around 10 MB, plus the waypoints of the orders they follow.
+ *
+ * The arrays are cut into chunks of CHUNK_SIZE ids, and the chunks are the leaves of a tree so that the whole store can
+ * be frozen as a snapshot in constant time. Every node and chunk remembers the edit it was created in. The store only
+ * changes nodes and chunks of the current edit in place; anything older belongs to a snapshot as well, so it is copied
+ * first, together with the nodes on the path to it. Freezing only starts a new edit, and afterwards the work is one copy
+ * of every chunk in which a unit changes, so a snapshot costs in proportion to the part of the store that changes after
+ * it rather than to all units.
+ */
+
+package project.sim;
+
+class UnitStore {
+    static final int CHUNK_BITS = 6;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int SLOT_MASK = CHUNK_SIZE - 1;
+
+    private static final int BITS = 6;
+    private static final int NODE_SIZE = 1 << BITS;
+    private static final int MASK = NODE_SIZE - 1;
+
+    private static final Side[] SIDES = Side.values();
+
+    /**
+     * The units with ids from firstId to firstId + CHUNK_SIZE - 1, the unit with id firstId + i in slot i of every
+     * array. Only the Simulation changes these, and only chunks it got from chunkForWrite().
+     */
+    static final class Chunk {
+        final Object edit;
+        final int firstId;
+
+        boolean[] alive = new boolean[CHUNK_SIZE];
+        byte[] side = new byte[CHUNK_SIZE];
+
+        // position of the center of the unit, in map pixels
+        double[] x = new double[CHUNK_SIZE], y = new double[CHUNK_SIZE];
+
+        // velocity of the current move order, in map pixels per tick
+        double[] velocityX = new double[CHUNK_SIZE], velocityY = new double[CHUNK_SIZE];
+
+        // manual (WASD) movement, each is -1, 0 or 1
+        byte[] inputX = new byte[CHUNK_SIZE], inputY = new byte[CHUNK_SIZE];
+        boolean[] running = new boolean[CHUNK_SIZE];
+
+        // how much of its fighting strength the unit has left, from 1 at full strength down to 0, see Combat
+        double[] strength = new double[CHUNK_SIZE];
+
+        // the current move order, a list of positions {x0, y0, x1, y1, ...} to walk through in order. The waypoints
+        // are never changed, only replaced, so chunks share them.
+        boolean[] hasOrder = new boolean[CHUNK_SIZE];
+        double[][] waypoints = new double[CHUNK_SIZE][];
+        int[] waypointIndex = new int[CHUNK_SIZE];
+
+        // set instead of following the waypoints when the unit is steered by a flow field as part of a group order
+        FlowField[] flowField = new FlowField[CHUNK_SIZE];
+
+        // the cell of the visibility grid the unit sees from, -1 until it has been added to the grid
+        int[] visionCell = new int[CHUNK_SIZE];
+
+        // the cell and strength the unit projects its influence with, see InfluenceMap. -1 until it has been added.
+        int[] influenceCell = new int[CHUNK_SIZE];
+        double[] influenceStrength = new double[CHUNK_SIZE];
+
+        // the position (in whole pixels) and strength the unit is counted with in UnitClusters. -1 until it has been
+        // added.
+        int[] clusterX = new int[CHUNK_SIZE], clusterY = new int[CHUNK_SIZE];
+        int[] clusterStrength = new int[CHUNK_SIZE];
+
+        private Chunk(Object edit, int firstId){
+            this.edit = edit;
+            this.firstId = firstId;
+        }
+
+        // a copy for a newer edit
+        private Chunk(Chunk other, Object edit){
+            this.edit = edit;
+            firstId = other.firstId;
+            alive = other.alive.clone();
+            side = other.side.clone();
+            x = other.x.clone();
+            y = other.y.clone();
+            velocityX = other.velocityX.clone();
+            velocityY = other.velocityY.clone();
+            inputX = other.inputX.clone();
+            inputY = other.inputY.clone();
+            running = other.running.clone();
+            strength = other.strength.clone();
+            hasOrder = other.hasOrder.clone();
+            waypoints = other.waypoints.clone();
+            waypointIndex = other.waypointIndex.clone();
+            flowField = other.flowField.clone();
+            visionCell = other.visionCell.clone();
+            influenceCell = other.influenceCell.clone();
+            influenceStrength = other.influenceStrength.clone();
+            clusterX = other.clusterX.clone();
+            clusterY = other.clusterY.clone();
+            clusterStrength = other.clusterStrength.clone();
+        }
+
+        Side sideOf(int slot){
+            return SIDES[side[slot]];
+        }
+
+        // puts a new unit in a slot, at full strength and without orders
+        void init(int slot, Side unitSide, double unitX, double unitY){
+            alive[slot] = true;
+            side[slot] = (byte) unitSide.ordinal();
+            x[slot] = unitX;
+            y[slot] = unitY;
+            velocityX[slot] = 0;
+            velocityY[slot] = 0;
+            inputX[slot] = 0;
+            inputY[slot] = 0;
+            running[slot] = false;
+            strength[slot] = 1;
+            hasOrder[slot] = false;
+            waypoints[slot] = null;
+            waypointIndex[slot] = 0;
+            flowField[slot] = null;
+            visionCell[slot] = -1;
+            influenceCell[slot] = -1;
+            influenceStrength[slot] = 0;
+            clusterX[slot] = -1;
+            clusterY[slot] = -1;
+            clusterStrength[slot] = 0;
+        }
+
+        void clearOrder(int slot){
+            hasOrder[slot] = false;
+            waypoints[slot] = null;
+            flowField[slot] = null;
+            velocityX[slot] = 0;
+            velocityY[slot] = 0;
+        }
+    }
+
+    // the state of a store at the moment it was frozen. Never changed, so it can be read from any thread.
+    static final class Frozen {
+        private final Node root;
+        private final int size, shift;
+
+        private Frozen(Node root, int size, int shift){
+            this.root = root;
+            this.size = size;
+            this.shift = shift;
+        }
+
+        int size(){
+            return size;
+        }
+
+        /**
+         * @return the chunk holding the unit with the given id. Must not be changed.
+         */
+        Chunk chunk(int id){
+            return find(root, shift, id);
+        }
+
+        boolean isAlive(int id){
+            return id >= 0 && id < size && find(root, shift, id).alive[id & SLOT_MASK];
+        }
+    }
+
+    private static final class Node {
+        final Object edit;
+        final Object[] slots;
+
+        Node(Object edit, Object[] slots){
+            this.edit = edit;
+            this.slots = slots;
+        }
+    }
+
+    private Object edit = new Object();
+    private Node root = new Node(edit, new Object[NODE_SIZE]);
+    private int size = 0;
+
+    // how far the chunk number is shifted to get the slot in the root, BITS for every level below it
+    private int shift = 0;
+
+    /**
+     * @return one more than the highest id handed out
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * @return the chunk holding the unit with the given id. Must not be changed, see chunkForWrite().
+     */
+    Chunk chunk(int id){
+        return find(root, shift, id);
+    }
+
+    /**
+     * @return the chunk holding the unit with the given id, copied first if it is shared with a snapshot, so it can be
+     * changed
+     */
+    Chunk chunkForWrite(int id){
+        int chunkNumber = id >>> CHUNK_BITS;
+        Node node = editable(null, 0, root);
+        root = node;
+        for(int level = shift; level > 0; level -= BITS){
+            int slot = (chunkNumber >>> level) & MASK;
+            node = editable(node, slot, (Node) node.slots[slot]);
+        }
+
+        int slot = chunkNumber & MASK;
+        Chunk chunk = (Chunk) node.slots[slot];
+        if(chunk.edit != edit){
+            chunk = new Chunk(chunk, edit);
+            node.slots[slot] = chunk;
+        }
+        return chunk;
+    }
+
+    boolean isAlive(int id){
+        return id >= 0 && id < size && chunk(id).alive[id & SLOT_MASK];
+    }
+
+    /**
+     * Adds a unit, which gets the next id
+     * @return the id
+     */
+    int add(Side side, double x, double y){
+        int id = addRemoved();
+        chunkForWrite(id).init(id & SLOT_MASK, side, x, y);
+        return id;
+    }
+
+    /**
+     * Adds an id that is already removed, e.g. when the units are loaded from a journal
+     * @return the id
+     */
+    int addRemoved(){
+        int id = size;
+        int chunkNumber = id >>> CHUNK_BITS;
+
+        // the first id of a chunk gets the chunk, and a full tree gets a new root with the old one as its first child
+        if((id & SLOT_MASK) == 0){
+            if(chunkNumber == NODE_SIZE << shift){
+                Object[] slots = new Object[NODE_SIZE];
+                slots[0] = root;
+                root = new Node(edit, slots);
+                shift += BITS;
+            }
+            setChunk(chunkNumber, new Chunk(edit, id));
+        }
+        size++;
+        return id;
+    }
+
+    /**
+     * Removes a unit. Its id is not given out again.
+     */
+    void remove(int id){
+        Chunk chunk = chunkForWrite(id);
+        int slot = id & SLOT_MASK;
+        chunk.clearOrder(slot);
+        chunk.alive[slot] = false;
+    }
+
+    void clear(){
+        root = new Node(edit, new Object[NODE_SIZE]);
+        size = 0;
+        shift = 0;
+    }
+
+    /**
+     * Freezes the current state, which from now on is only changed by copying
+     */
+    Frozen freeze(){
+        Frozen frozen = new Frozen(root, size, shift);
+        edit = new Object();
+        return frozen;
+    }
+
+    /**
+     * Goes back to a frozen state. The frozen state itself stays as it is, so it can be gone back to again.
+     */
+    void restore(Frozen frozen){
+        root = frozen.root;
+        size = frozen.size;
+        shift = frozen.shift;
+        edit = new Object();
+    }
+
+    // helper method, walks down the tree to the chunk of an id
+    private static Chunk find(Node root, int shift, int id){
+        int chunkNumber = id >>> CHUNK_BITS;
+        Node node = root;
+        for(int level = shift; level > 0; level -= BITS){
+            node = (Node) node.slots[(chunkNumber >>> level) & MASK];
+        }
+        return (Chunk) node.slots[chunkNumber & MASK];
+    }
+
+    // helper method, puts a new chunk in the tree, copying the nodes on the way as needed
+    private void setChunk(int chunkNumber, Chunk chunk){
+        Node node = editable(null, 0, root);
+        root = node;
+        for(int level = shift; level > 0; level -= BITS){
+            int slot = (chunkNumber >>> level) & MASK;
+            Node child = (Node) node.slots[slot];
+            if(child == null){
+                child = new Node(edit, new Object[NODE_SIZE]);
+                node.slots[slot] = child;
+            }
+            else{
+                child = editable(node, slot, child);
+            }
+            node = child;
+        }
+        node.slots[chunkNumber & MASK] = chunk;
+    }
+
+    // helper method, a node that can be changed in place: the node itself if it is of this edit, otherwise a copy of it
+    // that takes its place in the parent
+    private Node editable(Node parent, int slot, Node node){
+        if(node.edit == edit) return node;
+
+        Node copy = new Node(edit, node.slots.clone());
+        if(parent != null) parent.slots[slot] = copy;
+        return copy;
+    }
+}
@@ -0,0 +1,212 @@
+/* What each side can see, kept on a grid that is much coarser than the terrain raster. Every unit sees the cells within
+ * SENSOR_RANGE of the cell it stands in, except cells hidden behind ground that blocks sight.
+ *
+ * Visibility is kept up to date incrementally: for every side and cell there is a count of the units that see it, and a
+ * bit set of the cells whose count is above zero. When a unit moves into another cell only its old view is subtracted
+ * and its new view added; units that stay in their cell cost nothing, so the work per tick follows the number of units
+ * that crossed a cell border rather than the number of units.
+ *
+ * What a unit sees only depends on the cell it is in, so on maps with ground that blocks sight the views are computed
+ * once per cell and kept in a small cache. On maps without any, a view is simply every cell in range.
+ */
+
+package project.sim;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Visibility {
+    public static final double CELL_SIZE = 32;
+
+    // how far a unit sees, in map pixels
+    public static final double SENSOR_RANGE = 500;
+
+    // how many views of cells are kept when the map has ground that blocks sight
+    private static final int VIEW_CACHE_SIZE = 4096;
+
+    private final int columns, rows;
+
+    // cells whose ground blocks sight, and whether there are any at all
+    private final BitSet blocked;
+    private final boolean hasBlockedCells;
+
+    // for every side (indexed by Side.ordinal()): how many units see each cell, and the cells seen by at least one
+    private final int[][] viewerCounts;
+    private final BitSet[] visible;
+
+    // the cells in range of a cell, as offsets from it
+    private final int[] rangeColumns, rangeRows;
+
+    // views of cells by the cell, in the order they were last used
+    private final Map<Integer, int[]> views = new LinkedHashMap<Integer, int[]>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+            return size() > VIEW_CACHE_SIZE;
+        }
+    };
+
+    Visibility(Terrain terrain){
+        columns = Math.max(1, (int) Math.ceil(terrain.getWidth() / CELL_SIZE));
+        rows = Math.max(1, (int) Math.ceil(terrain.getHeight() / CELL_SIZE));
+
+        // a cell blocks sight if the ground in its middle does
+        blocked = new BitSet(columns * rows);
+        for(int row = 0; row < rows; row++){
+            for(int column = 0; column < columns; column++){
+                if(terrain.blocksSight((column + 0.5) * CELL_SIZE, (row + 0.5) * CELL_SIZE)) blocked.set(row * columns + column);
+            }
+        }
+        hasBlockedCells = !blocked.isEmpty();
+
+        int sides = Side.values().length;
+        viewerCounts = new int[sides][columns * rows];
+        visible = new BitSet[sides];
+        for(int i = 0; i < sides; i++){
+            visible[i] = new BitSet(columns * rows);
+        }
+
+        // all offsets whose cell middle is within range of the middle of the cell in the center
+        int reach = (int) Math.ceil(SENSOR_RANGE / CELL_SIZE);
+        double rangeInCells = SENSOR_RANGE / CELL_SIZE;
+        int count = 0;
+        int[] offsetColumns = new int[(2 * reach + 1) * (2 * reach + 1)];
+        int[] offsetRows = new int[offsetColumns.length];
+        for(int dy = -reach; dy <= reach; dy++){
+            for(int dx = -reach; dx <= reach; dx++){
+                if(dx * dx + dy * dy > rangeInCells * rangeInCells) continue;
+                offsetColumns[count] = dx;
+                offsetRows[count] = dy;
+                count++;
+            }
+        }
+        rangeColumns = Arrays.copyOf(offsetColumns, count);
+        rangeRows = Arrays.copyOf(offsetRows, count);
+    }
+
+    /**
+     * @return the cell of the grid a position is in
+     */
+    int cellAt(double x, double y){
+        int column = Math.min(columns - 1, Math.max(0, (int) (x / CELL_SIZE)));
+        int row = Math.min(rows - 1, Math.max(0, (int) (y / CELL_SIZE)));
+        return row * columns + column;
+    }
+
+    /**
+     * Adds what a unit standing in the given cell sees to what its side sees
+     */
+    void addViewer(Side side, int cell){
+        changeView(side, cell, 1);
+    }
+
+    /**
+     * Takes what a unit standing in the given cell sees away from what its side sees
+     */
+    void removeViewer(Side side, int cell){
+        changeView(side, cell, -1);
+    }
+
+    void clear(){
+        for(int i = 0; i < visible.length; i++){
+            Arrays.fill(viewerCounts[i], 0);
+            visible[i].clear();
+        }
+    }
+
+    /**
+     * @return true if a unit of the given side sees the position
+     */
+    public boolean isVisible(Side viewer, double x, double y){
+        return visible[viewer.ordinal()].get(cellAt(x, y));
+    }
+
+    /**
+     * @return true if a unit of the given side sees the cell
+     */
+    public boolean isCellVisible(Side viewer, int column, int row){
+        return visible[viewer.ordinal()].get(row * columns + column);
+    }
+
+    public int getColumns(){
+        return columns;
+    }
+
+    public int getRows(){
+        return rows;
+    }
+
+    // helper method, adds delta to the viewer count of every cell seen from the given cell
+    private void changeView(Side side, int cell, int delta){
+        int[] counts = viewerCounts[side.ordinal()];
+        BitSet seen = visible[side.ordinal()];
+
+        if(hasBlockedCells){
+            for(int target : viewFrom(cell)){
+                changeCount(counts, seen, target, delta);
+            }
+            return;
+        }
+
+        int column = cell % columns, row = cell / columns;
+        for(int i = 0; i < rangeColumns.length; i++){
+            int targetColumn = column + rangeColumns[i], targetRow = row + rangeRows[i];
+            if(targetColumn < 0 || targetRow < 0 || targetColumn >= columns || targetRow >= rows) continue;
+            changeCount(counts, seen, targetRow * columns + targetColumn, delta);
+        }
+    }
+
+    // helper method, a cell is visible while at least one unit sees it
+    private static void changeCount(int[] counts, BitSet seen, int cell, int delta){
+        int before = counts[cell];
+        counts[cell] = before + delta;
+        if(before == 0) seen.set(cell);
+        else if(counts[cell] == 0) seen.clear(cell);
+    }
+
+    /**
+     * Helper method:
+     * The cells in range of a cell that are not hidden behind a cell that blocks sight. A cell that blocks sight can
+     * itself be seen, e.g. the edge of a forest, it only hides what is behind it.
+     */
+    private int[] viewFrom(int cell){
+        int[] view = views.get(cell);
+        if(view != null) return view;
+
+        int column = cell % columns, row = cell / columns;
+        int[] cells = new int[rangeColumns.length];
+        int count = 0;
+        for(int i = 0; i < rangeColumns.length; i++){
+            int targetColumn = column + rangeColumns[i], targetRow = row + rangeRows[i];
+            if(targetColumn < 0 || targetRow < 0 || targetColumn >= columns || targetRow >= rows) continue;
+            if(hasLineOfSight(column, row, targetColumn, targetRow)) cells[count++] = targetRow * columns + targetColumn;
+        }
+        view = Arrays.copyOf(cells, count);
+        views.put(cell, view);
+        return view;
+    }
+
+    // helper method, walks the cells between two cells (Bresenham's line) and checks that none of them blocks sight
+    private boolean hasLineOfSight(int fromColumn, int fromRow, int toColumn, int toRow){
+        int dx = Math.abs(toColumn - fromColumn), dy = -Math.abs(toRow - fromRow);
+        int stepX = fromColumn < toColumn ? 1 : -1, stepY = fromRow < toRow ? 1 : -1;
+        int error = dx + dy;
+        int column = fromColumn, row = fromRow;
+        if(column == toColumn && row == toRow) return true;
+
+        while(true){
+            int doubled = 2 * error;
+            if(doubled >= dy){
+                error += dy;
+                column += stepX;
+            }
+            if(doubled <= dx){
+                error += dx;
+                row += stepY;
+            }
+            if(column == toColumn && row == toRow) return true;
+            if(blocked.get(row * columns + column)) return false;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/* Tests the Lanchester losses of Combat: how fire is split, shielded and scaled, when engagements end, and that the
+ * outcome of many engagements, which are resolved on all cores, is the same as adding up every engagement in order.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CombatTest {
+    private static final double TOLERANCE = 1e-12;
+
+    private final TerrainGrid terrain = TerrainGrid.open(4000, 4000);
+    private final UnitStore units = new UnitStore();
+    private final Combat combat = new Combat();
+
+    @Test
+    void equalUnitsLoseTheSame(){
+        int friend = units.add(Side.friend, 100, 100);
+        int enemy = units.add(Side.enemy, 160, 100);
+        combat.engage(friend, enemy);
+
+        combat.resolve(units, terrain, 1);
+
+        assertEquals(1 - Combat.ATTRITION_RATE, strength(friend), TOLERANCE);
+        assertEquals(1 - Combat.ATTRITION_RATE, strength(enemy), TOLERANCE);
+    }
+
+    @Test
+    void enemySplitsItsFire(){
+        int first = units.add(Side.friend, 100, 100);
+        int second = units.add(Side.friend, 100, 160);
+        int enemy = units.add(Side.enemy, 160, 130);
+        combat.engage(first, enemy);
+        combat.engage(second, enemy);
+
+        combat.resolve(units, terrain, 1);
+
+        assertEquals(1 - Combat.ATTRITION_RATE / 2, strength(first), TOLERANCE);
+        assertEquals(1 - Combat.ATTRITION_RATE / 2, strength(second), TOLERANCE);
+        assertEquals(1 - 2 * Combat.ATTRITION_RATE, strength(enemy), TOLERANCE);
+    }
+
+    @Test
+    void coverShieldsFromFire(){
+        byte[] cells = new byte[400 * 200];
+        for(int y = 0; y < 200; y++){
+            for(int x = 0; x < 130; x++) cells[y * 400 + x] = TerrainGrid.FOREST;
+        }
+        TerrainGrid forest = TerrainGrid.fromCells(cells, 400, 200, 1);
+        int hidden = units.add(Side.friend, 100, 100);
+        int open = units.add(Side.enemy, 160, 100);
+        combat.engage(hidden, open);
+
+        combat.resolve(units, forest, 1);
+
+        assertEquals(1 - Combat.ATTRITION_RATE * TerrainGrid.exposure(TerrainGrid.FOREST), strength(hidden), TOLERANCE);
+        assertEquals(1 - Combat.ATTRITION_RATE, strength(open), TOLERANCE);
+    }
+
+    @Test
+    void effectivenessScalesTheFireOfASide(){
+        int friend = units.add(Side.friend, 100, 100);
+        int enemy = units.add(Side.enemy, 160, 100);
+        combat.setEffectiveness(Side.enemy, 2);
+        combat.engage(friend, enemy);
+
+        combat.resolve(units, terrain, 1);
+
+        assertEquals(1 - 2 * Combat.ATTRITION_RATE, strength(friend), TOLERANCE);
+        assertEquals(1 - Combat.ATTRITION_RATE, strength(enemy), TOLERANCE);
+    }
+
+    @Test
+    void weakUnitBreaks(){
+        int weak = units.add(Side.friend, 100, 100);
+        int enemy = units.add(Side.enemy, 160, 100);
+        setStrength(weak, Combat.BREAK_STRENGTH + Combat.ATTRITION_RATE / 2);
+        combat.engage(weak, enemy);
+
+        assertArrayEquals(new int[] {weak}, combat.resolve(units, terrain, 1));
+    }
+
+    @Test
+    void pairIsEngagedOnce(){
+        int friend = units.add(Side.friend, 100, 100);
+        int enemy = units.add(Side.enemy, 160, 100);
+        combat.engage(friend, enemy);
+        combat.engage(enemy, friend);
+
+        assertEquals(1, combat.getCount());
+        combat.resolve(units, terrain, 1);
+        assertEquals(1 - Combat.ATTRITION_RATE, strength(friend), TOLERANCE);
+    }
+
+    @Test
+    void engagementEndsWhenUnitsAreApart(){
+        int friend = units.add(Side.friend, 100, 100);
+        int enemy = units.add(Side.enemy, 160, 100);
+        combat.engage(friend, enemy);
+        units.chunkForWrite(enemy).x[enemy & UnitStore.SLOT_MASK] = 100 + Combat.ENGAGEMENT_RANGE + 1;
+
+        combat.resolve(units, terrain, 1);
+
+        assertEquals(0, combat.getCount());
+        assertEquals(1, strength(friend));
+
+        // and can start again
+        combat.engage(friend, enemy);
+        assertEquals(1, combat.getCount());
+    }
+
+    @Test
+    void manyEngagementsGiveTheSameLossesAsInOrder(){
+        // every enemy fights two friends, more engagements than are resolved on one thread
+        int enemies = 1500;
+        int[] first = new int[2 * enemies], second = new int[2 * enemies];
+        for(int e = 0; e < enemies; e++){
+            double x = 100 + (e % 30) * 120, y = 100 + (e / 30) * 70;
+            int enemy = units.add(Side.enemy, x, y);
+            int left = units.add(Side.friend, x - 60, y);
+            int right = units.add(Side.friend, x + 60, y);
+            setStrength(enemy, 0.5 + (e % 7) / 14.0);
+            setStrength(left, 0.3 + (e % 11) / 15.0);
+            setStrength(right, 0.4 + (e % 5) / 8.0);
+            first[2 * e] = left;
+            second[2 * e] = enemy;
+            first[2 * e + 1] = right;
+            second[2 * e + 1] = enemy;
+        }
+        for(int e = 0; e < first.length; e++){
+            combat.engage(first[e], second[e]);
+        }
+
+        // the losses worked out one engagement at a time, the way Combat adds them up
+        double seconds = 0.5, rate = Combat.ATTRITION_RATE * seconds;
+        int[] opponents = new int[units.size()];
+        for(int e = 0; e < first.length; e++){
+            opponents[first[e]]++;
+            opponents[second[e]]++;
+        }
+        double[] losses = new double[units.size()];
+        for(int e = 0; e < first.length; e++){
+            losses[first[e]] += rate * strength(second[e]) / opponents[second[e]];
+            losses[second[e]] += rate * strength(first[e]) / opponents[first[e]];
+        }
+        double[] expected = new double[units.size()];
+        for(int id = 0; id < units.size(); id++){
+            expected[id] = Math.max(0, strength(id) - losses[id]);
+        }
+
+        combat.resolve(units, terrain, seconds);
+
+        double[] strengths = new double[units.size()];
+        for(int id = 0; id < units.size(); id++){
+            strengths[id] = strength(id);
+        }
+        assertArrayEquals(expected, strengths);
+    }
+
+    // helper method
+    private double strength(int id){
+        return units.chunk(id).strength[id & UnitStore.SLOT_MASK];
+    }
+
+    // helper method
+    private void setStrength(int id, double strength){
+        units.chunkForWrite(id).strength[id & UnitStore.SLOT_MASK] = strength;
+    }
+}
@@ -0,0 +1,107 @@
+/* Tests for flow fields: the cost of every cell is the cost of the best path from it, following the directions from
+ * anywhere leads to the destination, and units given a group order all get there.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowFieldTest {
+    private static final float TOLERANCE = 1e-3f;
+
+    // 512 x 512 map pixels: open ground with a lake, a wall with a gap at the bottom and a walled in pocket
+    private static TerrainGrid terrain;
+    private static NavGrid grid;
+    private static FlowField field;
+
+    @BeforeAll
+    static void buildField(){
+        int size = 512;
+        byte[] cells = new byte[size * size];
+        fill(cells, size, 100, 100, 200, 250, TerrainGrid.WATER);
+        fill(cells, size, 300, 0, 316, 440, TerrainGrid.IMPASSABLE);
+        fill(cells, size, 400, 400, 512, 416, TerrainGrid.IMPASSABLE);
+        fill(cells, size, 400, 400, 416, 512, TerrainGrid.IMPASSABLE);
+
+        terrain = TerrainGrid.fromCells(cells, size, size, 1);
+        grid = NavGrid.fromTerrain(terrain);
+        field = FlowField.build(grid, new PathFinder(grid), grid.cellAt(450, 100));
+    }
+
+    @Test
+    void costIsTheCostOfTheBestPath(){
+        PathFinder finder = new PathFinder(grid);
+        SplittableRandom random = new SplittableRandom(1);
+        for(int i = 0; i < 100; i++){
+            int cell = random.nextInt(grid.getCellCount());
+            if(!grid.isPassable(cell)) continue;
+            finder.findPath(cell, field.getDestination());
+
+            assertEquals(finder.costTo(field.getDestination()), field.costAt(middleX(cell), middleY(cell)), TOLERANCE);
+        }
+    }
+
+    @Test
+    void directionsLeadToTheDestination(){
+        for(int start = 0; start < grid.getCellCount(); start++){
+            if(!grid.isPassable(start) || Float.isInfinite(field.costAt(middleX(start), middleY(start)))) continue;
+
+            // every step is to a cell closer to the destination, so the walk has to end there
+            int cell = start, steps = 0;
+            while(cell != field.getDestination()){
+                int next = field.nextCell(middleX(cell), middleY(cell));
+                assertTrue(field.costAt(middleX(next), middleY(next)) < field.costAt(middleX(cell), middleY(cell)));
+                cell = next;
+                assertTrue(++steps < grid.getCellCount());
+            }
+        }
+    }
+
+    @Test
+    void pocketCanNotBeLeft(){
+        assertTrue(Float.isInfinite(field.costAt(460, 460)));
+        assertEquals(-1, field.nextCell(460, 460));
+    }
+
+    @Test
+    void groupGetsThereAroundTheWall(){
+        Simulation simulation = new Simulation(terrain);
+        int[] units = new int[6];
+        for(int i = 0; i < units.length; i++){
+            units[i] = simulation.addUnit(60 + 30 * i, 350 + 20 * (i % 2), Side.friend);
+            assertTrue(simulation.orderMoveWithFlowField(units[i], field, 450, 100));
+        }
+
+        simulation.tick(3000);
+
+        for(int unit : units){
+            assertFalse(simulation.hasOrder(unit));
+            assertEquals(field.getDestination(), grid.cellAt(simulation.getX(unit), simulation.getY(unit)));
+        }
+    }
+
+    // helper methods, the middle of a cell (unlike NavGrid.centerX() not moved in from the edges of the map)
+    private static double middleX(int cell){
+        return (cell % grid.getColumns() + 0.5) * NavGrid.CELL_SIZE;
+    }
+
+    private static double middleY(int cell){
+        return (cell / grid.getColumns() + 0.5) * NavGrid.CELL_SIZE;
+    }
+
+    // helper method, sets the terrain class of a rectangle of map pixels
+    private static void fill(byte[] cells, int size, int minX, int minY, int maxX, int maxY, byte terrainClass){
+        for(int y = minY; y < maxY; y++){
+            for(int x = minX; x < maxX; x++){
+                cells[y * size + x] = terrainClass;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/* Tests comparing the paths of the hierarchical path finder with those of A* over the whole grid. HPA* is only near
+ * optimal: a path that has to go through an entrance can be dearer than the best one. It is exact inside a cluster and
+ * along a line of entrances, and in general it is never cheaper than A* and finds a path exactly when A* does.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HierarchicalPathFinderTest {
+    private static final float SQRT2 = (float) Math.sqrt(2);
+    private static final float TOLERANCE = 1e-3f;
+
+    // 1024 x 1024 map pixels: open ground with a lake, a long wall with gaps at both ends and a walled in pocket
+    private static NavGrid grid;
+    private static PathFinder finder;
+    private static HierarchicalPathFinder hierarchy;
+
+    @BeforeAll
+    static void buildGraph(){
+        int size = 1024;
+        byte[] cells = new byte[size * size];
+        fill(cells, size, 200, 300, 400, 600, TerrainGrid.WATER);
+        fill(cells, size, 500, 100, 520, 900, TerrainGrid.IMPASSABLE);
+        fill(cells, size, 800, 800, 1000, 820, TerrainGrid.IMPASSABLE);
+        fill(cells, size, 800, 800, 820, 1000, TerrainGrid.IMPASSABLE);
+        fill(cells, size, 800, 1000, 1024, 1024, TerrainGrid.IMPASSABLE);
+        fill(cells, size, 1000, 800, 1024, 1024, TerrainGrid.IMPASSABLE);
+
+        grid = NavGrid.fromTerrain(TerrainGrid.fromCells(cells, size, size, 1));
+        finder = new PathFinder(grid);
+        hierarchy = new HierarchicalPathFinder(grid, new PathFinder(grid));
+    }
+
+    @Test
+    void sameCostInsideCluster(){
+        int start = grid.cellAt(20, 20), goal = grid.cellAt(100, 60);
+        assertEquals(hierarchy.clusterOf(start), hierarchy.clusterOf(goal));
+
+        assertEquals(aStarCost(start, goal), cost(hierarchy.findPath(new PathFinder(grid), start, goal)), TOLERANCE);
+    }
+
+    @Test
+    void sameCostAlongEntrances(){
+        // the top row of cells is the end of every long opening between the clusters of the top row
+        int start = grid.cellAt(4, 4), goal = grid.cellAt(1020, 4);
+        assertTrue(hierarchy.clusterOf(start) != hierarchy.clusterOf(goal));
+
+        assertEquals(aStarCost(start, goal), cost(hierarchy.findPath(new PathFinder(grid), start, goal)), TOLERANCE);
+    }
+
+    @Test
+    void neverCheaperThanAStarAndFindsTheSamePaths(){
+        SplittableRandom random = new SplittableRandom(1);
+        PathFinder hierarchyFinder = new PathFinder(grid);
+        for(int i = 0; i < 200; i++){
+            int start = passableCell(random), goal = passableCell(random);
+            float best = aStarCost(start, goal);
+            int[] path = hierarchy.findPath(hierarchyFinder, start, goal);
+
+            if(Float.isInfinite(best)){
+                assertNull(path);
+            }
+            else{
+                assertNotNull(path);
+                assertEquals(start, path[0]);
+                assertEquals(goal, path[path.length - 1]);
+                assertTrue(cost(path) >= best - TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    void noPathIntoWalledInPocket(){
+        int start = grid.cellAt(100, 100), goal = grid.cellAt(900, 900);
+
+        assertTrue(Float.isInfinite(aStarCost(start, goal)));
+        assertNull(hierarchy.findPath(new PathFinder(grid), start, goal));
+    }
+
+    // helper method, the cost of the cheapest path, infinite if there is none
+    private static float aStarCost(int start, int goal){
+        finder.findPath(start, goal);
+        return finder.costTo(goal);
+    }
+
+    // helper method, the cost of a path of cells, the same way as the searches add it up
+    private static float cost(int[] cells){
+        float total = 0;
+        int columns = grid.getColumns();
+        for(int i = 1; i < cells.length; i++){
+            int from = cells[i - 1], to = cells[i];
+            boolean diagonal = from % columns != to % columns && from / columns != to / columns;
+            total += (diagonal ? SQRT2 : 1) * (grid.getCost(from) + grid.getCost(to)) / 2;
+        }
+        return total;
+    }
+
+    // helper method
+    private static int passableCell(SplittableRandom random){
+        int cell;
+        do{
+            cell = random.nextInt(grid.getCellCount());
+        } while(!grid.isPassable(cell));
+        return cell;
+    }
+
+    // helper method, sets the terrain class of a rectangle of map pixels
+    private static void fill(byte[] cells, int size, int minX, int minY, int maxX, int maxY, byte terrainClass){
+        for(int y = minY; y < maxY; y++){
+            for(int x = minX; x < maxX; x++){
+                cells[y * size + x] = terrainClass;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/* Tests for the influence maps: taking a projection away leaves exactly what was there before it was added, however
+ * many come and go, influence fades with distance and in water, and only the tiles a change touched are marked.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InfluenceMapTest {
+    private static final double CELL = InfluenceMap.CELL_SIZE;
+
+    // 4 x 2 tiles
+    private final TerrainGrid terrain = TerrainGrid.open(4096, 2048);
+
+    @Test
+    void removingLeavesExactlyWhatWasThere(){
+        InfluenceMap kept = new InfluenceMap(terrain);
+        List<double[]> units = new ArrayList<>();
+
+        // projections of odd strengths added and taken away in any order, as {side, cell, strength}
+        SplittableRandom random = new SplittableRandom(11);
+        for(int i = 0; i < 2000; i++){
+            if(units.isEmpty() || random.nextInt(3) != 0){
+                double[] unit = {random.nextInt(2), random.nextInt(kept.getColumns() * kept.getRows()), random.nextDouble()};
+                kept.add(Side.values()[(int) unit[0]], (int) unit[1], unit[2]);
+                units.add(unit);
+            }
+            else{
+                double[] unit = units.remove(random.nextInt(units.size()));
+                kept.remove(Side.values()[(int) unit[0]], (int) unit[1], unit[2]);
+            }
+        }
+
+        InfluenceMap fresh = new InfluenceMap(terrain);
+        for(double[] unit : units){
+            fresh.add(Side.values()[(int) unit[0]], (int) unit[1], unit[2]);
+        }
+        for(Side side : Side.values()){
+            for(int cell = 0; cell < kept.getColumns() * kept.getRows(); cell++){
+                assertEquals(fresh.getCellInfluence(side, cell), kept.getCellInfluence(side, cell));
+            }
+        }
+
+        // and with all of them gone, nothing at all is left
+        for(double[] unit : units){
+            kept.remove(Side.values()[(int) unit[0]], (int) unit[1], unit[2]);
+        }
+        for(Side side : Side.values()){
+            for(int cell = 0; cell < kept.getColumns() * kept.getRows(); cell++){
+                assertEquals(0, kept.getCellInfluence(side, cell));
+            }
+        }
+    }
+
+    @Test
+    void influenceFadesWithDistance(){
+        InfluenceMap influence = new InfluenceMap(terrain);
+        influence.add(Side.friend, influence.cellAt(1000, 1000), 1);
+        influence.add(Side.enemy, influence.cellAt(1000 + 3 * CELL, 1000), 0.5);
+
+        assertEquals(1, influence.getInfluence(Side.friend, 1000, 1000), 1e-3);
+        double near = influence.getInfluence(Side.friend, 1000 + 2 * CELL, 1000);
+        double far = influence.getInfluence(Side.friend, 1000 + 5 * CELL, 1000);
+        assertTrue(near < 1 && far < near && far > 0);
+        assertEquals(0, influence.getInfluence(Side.friend, 1000 + InfluenceMap.RADIUS + CELL, 1000));
+
+        assertEquals(influence.getInfluence(Side.enemy, 1000, 1000), influence.getThreat(Side.friend, 1000, 1000));
+        assertEquals(1 - influence.getInfluence(Side.enemy, 1000, 1000), influence.getControl(Side.friend, 1000, 1000), 1e-3);
+    }
+
+    @Test
+    void waterIsHardToHold(){
+        byte[] cells = new byte[1024 * 1024];
+        for(int y = 0; y < 1024; y++){
+            for(int x = 512; x < 1024; x++){
+                cells[y * 1024 + x] = TerrainGrid.WATER;
+            }
+        }
+        InfluenceMap influence = new InfluenceMap(TerrainGrid.fromCells(cells, 1024, 1024, 1));
+        influence.add(Side.friend, influence.cellAt(512, 512), 1);
+
+        // the same distance from the unit, on either side of the shore
+        double land = influence.getInfluence(Side.friend, 512 - 2 * CELL, 512);
+        double water = influence.getInfluence(Side.friend, 512 + 2 * CELL, 512);
+        assertEquals(land / TerrainGrid.movementCost(TerrainGrid.WATER), water, 1e-3);
+    }
+
+    @Test
+    void onlyTouchedTilesAreMarked(){
+        InfluenceMap influence = new InfluenceMap(terrain);
+        assertEquals(influence.getTileColumns() * influence.getTileRows(), influence.takeDirtyTiles().cardinality());
+        assertTrue(influence.takeDirtyTiles().isEmpty());
+
+        // far enough from the other tiles that the projection stays in the first one
+        influence.add(Side.friend, influence.cellAt(100, 100), 1);
+        BitSet dirty = influence.takeDirtyTiles();
+        assertEquals(1, dirty.cardinality());
+        assertTrue(dirty.get(0));
+
+        // on the border of the first two tiles, and taken away again
+        influence.add(Side.enemy, influence.cellAt(1000, 100), 1);
+        influence.remove(Side.enemy, influence.cellAt(1000, 100), 1);
+        dirty = influence.takeDirtyTiles();
+        assertEquals(2, dirty.cardinality());
+        assertTrue(dirty.get(0) && dirty.get(1));
+    }
+}
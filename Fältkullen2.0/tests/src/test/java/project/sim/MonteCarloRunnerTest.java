@@ -0,0 +1,83 @@
+/* Tests that a batch of Monte Carlo runs comes out the same for the same seed, however the runs are spread over the
+ * threads, and differently for another seed, and that the runs end in different ways because of how well the sides
+ * fight in each of them.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MonteCarloRunnerTest {
+    private static final int RUNS = 64;
+
+    private static MonteCarloRunner runner;
+
+    @BeforeAll
+    static void createRunner(){
+        runner = new MonteCarloRunner(Scenario.defaultScenario(), TerrainGrid.open(1920, 1080));
+    }
+
+    @AfterAll
+    static void shutdown(){
+        runner.shutdown();
+    }
+
+    @Test
+    void sameSeedGivesSameStatistics(){
+        MonteCarloRunner.Statistics first = runner.run(RUNS, 42);
+        MonteCarloRunner.Statistics second = runner.run(RUNS, 42);
+
+        assertEquals(RUNS, first.getRuns());
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    void runsGiveTheSameStatisticsOneByOne(){
+        MonteCarloRunner.Statistics parallel = runner.run(RUNS, 7);
+
+        MonteCarloRunner.Statistics inOrder = new MonteCarloRunner.Statistics();
+        for(int run = 0; run < RUNS; run++){
+            inOrder.add(runner.runOnce(7, run));
+        }
+
+        assertEquals(inOrder.getFriendlyWinRate(), parallel.getFriendlyWinRate());
+        assertEquals(inOrder.getEnemyWinRate(), parallel.getEnemyWinRate());
+        assertEquals(inOrder.getFriendlyLosses().getMean(), parallel.getFriendlyLosses().getMean(), 1e-9);
+        assertEquals(inOrder.getDuration().getMean(), parallel.getDuration().getMean(), 1e-9);
+        assertEquals(inOrder.getTimeToContact().getCount(), parallel.getTimeToContact().getCount());
+    }
+
+    @Test
+    void otherSeedGivesOtherRuns(){
+        assertNotEquals(runner.run(RUNS, 1).toString(), runner.run(RUNS, 2).toString());
+    }
+
+    @Test
+    void eitherSideCanWin(){
+        // three friends against one enemy, so the enemy only wins when it fights much better
+        MonteCarloRunner wide = new MonteCarloRunner(Scenario.defaultScenario(), TerrainGrid.open(1920, 1080), 1);
+        MonteCarloRunner.Statistics statistics = wide.run(4 * RUNS, 3);
+        wide.shutdown();
+
+        assertTrue(statistics.getFriendlyWinRate() > 0);
+        assertTrue(statistics.getEnemyWinRate() > 0);
+        assertTrue(statistics.getFriendlyLosses().getStandardDeviation() > 0);
+    }
+
+    @Test
+    void fightsGoTheSameWayWithoutSpread(){
+        MonteCarloRunner even = new MonteCarloRunner(Scenario.defaultScenario(), TerrainGrid.open(1920, 1080), 0);
+        MonteCarloRunner.Statistics statistics = even.run(RUNS, 3);
+        even.shutdown();
+
+        // only when the units meet still differs
+        assertEquals(0, statistics.getEnemyWinRate());
+        assertEquals(0, statistics.getFriendlyLosses().getMax());
+    }
+}
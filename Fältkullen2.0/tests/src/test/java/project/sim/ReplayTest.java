@@ -0,0 +1,120 @@
+/* Tests recording a session with a Journal and playing it back with a Replay: played through, and jumped around in.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayTest {
+    // long enough for several checkpoints, see Journal.CHECKPOINT_TICKS
+    private static final int SESSION_TICKS = 3000;
+    private static final int MIDDLE_TICK = 1000;
+
+    @TempDir
+    Path folder;
+
+    private Simulation simulation;
+    private Replay replay;
+
+    // where the units of the session were after the middle tick and at the end, as {x0, y0, strength0, x1, ...}
+    private double[] middleState, endState;
+
+    // when the units of the session ran into enemies
+    private final long[] contactTicks = new long[64];
+    private int contacts = 0;
+
+    @BeforeEach
+    void recordSession() throws IOException{
+        simulation = new Simulation(TerrainGrid.open(2000, 1000));
+        Path file = folder.resolve("session.fkjr");
+        Journal journal = Journal.start(file, simulation, "map.png");
+        simulation.setListener((unitId, enemyId) -> contactTicks[contacts++] = simulation.getTickCount());
+
+        // two fights, a unit walking on its own and one moved by hand for a while
+        int friend = simulation.addUnit(100, 100, Side.friend);
+        int enemy = simulation.addUnit(700, 100, Side.enemy);
+        simulation.orderMoveTo(friend, 700, 100);
+        int first = simulation.addUnit(100, 500, Side.friend);
+        int second = simulation.addUnit(100, 600, Side.friend);
+        simulation.addUnit(900, 550, Side.enemy);
+        simulation.orderMoveTo(first, 900, 550);
+        simulation.orderMoveTo(second, 900, 550);
+        int walker = simulation.addUnit(1500, 900, Side.friend);
+        simulation.orderMoveAlong(walker, new double[] {1800, 800, 1200, 200});
+        int manual = simulation.addUnit(1000, 900, Side.enemy);
+        simulation.setManualInput(manual, 1, -1, true);
+
+        while(simulation.getTickCount() < SESSION_TICKS){
+            if(simulation.getTickCount() == 400) simulation.setManualInput(manual, 0, 0, false);
+            if(simulation.getTickCount() == 700) simulation.orderMoveTo(enemy, 100, 100);
+            simulation.tick(simulation.getTickCount() % 7 == 0 ? 3 : 1);
+            if(middleState == null && simulation.getTickCount() >= MIDDLE_TICK) middleState = state(simulation);
+        }
+        endState = state(simulation);
+        journal.close();
+
+        replay = Replay.open(file);
+    }
+
+    @AfterEach
+    void closeReplay(){
+        replay.close();
+    }
+
+    @Test
+    void playsBackTheSameSession(){
+        assertEquals("map.png", replay.getMapReference());
+        assertEquals(simulation.getTickCount(), replay.getLength());
+
+        replay.advance((int) replay.getLength());
+
+        assertTrue(replay.isFinished());
+        assertEquals(0, replay.getDivergences());
+        assertArrayEquals(endState, state(replay.getSimulation()));
+    }
+
+    @Test
+    void seekGoesToTheSameState(){
+        replay.seek(MIDDLE_TICK);
+        assertArrayEquals(middleState, state(replay.getSimulation()));
+
+        replay.seek(replay.getLength());
+        assertArrayEquals(endState, state(replay.getSimulation()));
+
+        // back again, and played on from there
+        replay.seek(MIDDLE_TICK);
+        assertArrayEquals(middleState, state(replay.getSimulation()));
+        replay.advance((int) (replay.getLength() - replay.getPosition()));
+        assertArrayEquals(endState, state(replay.getSimulation()));
+        assertEquals(0, replay.getDivergences());
+    }
+
+    @Test
+    void findsTheContacts(){
+        assertTrue(contacts >= 3);
+        assertArrayEquals(Arrays.copyOf(contactTicks, contacts), replay.findContacts());
+    }
+
+    // helper method, the position and strength of every unit, NaN for units that are gone
+    private static double[] state(Simulation simulation){
+        double[] state = new double[3 * simulation.getIdLimit()];
+        for(int id = 0; id < simulation.getIdLimit(); id++){
+            boolean alive = simulation.isAlive(id);
+            state[3 * id] = alive ? simulation.getX(id) : Double.NaN;
+            state[3 * id + 1] = alive ? simulation.getY(id) : Double.NaN;
+            state[3 * id + 2] = alive ? simulation.getStrength(id) : Double.NaN;
+        }
+        return state;
+    }
+}
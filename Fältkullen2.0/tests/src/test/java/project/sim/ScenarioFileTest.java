@@ -0,0 +1,110 @@
+/* Tests saving a scenario and opening it again, opening a file of the first version of the format, which has no
+ * strengths, and that a file that was cut off is not opened.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScenarioFileTest {
+    private static final int MAGIC = 0x464B5343;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void savedScenarioOpensTheSame() throws IOException{
+        byte[] cells = new byte[400 * 300];
+        for(int i = 0; i < 400 * 50; i++) cells[i] = TerrainGrid.FOREST;
+        Simulation simulation = new Simulation(TerrainGrid.fromCells(cells, 400, 300, 1));
+
+        int walking = simulation.addUnit(100, 100, Side.friend);
+        simulation.setStrength(walking, 0.5);
+        simulation.orderMoveAlong(walking, new double[] {150, 150, 300, 150, 300, 250});
+        int removed = simulation.addUnit(50, 50, Side.friend);
+        simulation.addUnit(350, 200, Side.enemy);
+        simulation.removeUnit(removed);
+
+        // part of the way, so only the waypoints left are saved
+        for(int i = 0; i < 100; i++) simulation.tick();
+        assertEquals(2, simulation.getWaypointIndex(walking));
+
+        Path file = folder.resolve("scenario.fksc");
+        ScenarioFile.write(file, simulation, "maps/test.png");
+        ScenarioFile opened = ScenarioFile.read(file);
+        Simulation read = opened.getSimulation();
+
+        assertEquals("maps/test.png", opened.getMapReference());
+        assertArrayEquals(cells, opened.getTerrain().getCells());
+        assertEquals(400, opened.getTerrain().getWidth());
+        assertEquals(300, opened.getTerrain().getHeight());
+
+        // the removed unit is not saved, so the ids close up
+        assertEquals(2, read.getIdLimit());
+        assertEquals(Side.friend, read.getSide(0));
+        assertEquals(simulation.getX(walking), read.getX(0));
+        assertEquals(simulation.getY(walking), read.getY(0));
+        assertEquals(0.5, read.getStrength(0));
+        assertTrue(read.hasOrder(0));
+        assertArrayEquals(new double[] {300, 150, 300, 250}, read.getWaypoints(0));
+
+        assertEquals(Side.enemy, read.getSide(1));
+        assertEquals(350, read.getX(1));
+        assertEquals(200, read.getY(1));
+        assertEquals(1, read.getStrength(1));
+        assertFalse(read.hasOrder(1));
+    }
+
+    @Test
+    void versionOneFileOpensAtFullStrength() throws IOException{
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        byte[] reference = "old.png".getBytes(StandardCharsets.UTF_8);
+        out.putInt(MAGIC).putShort((short) 1);
+        out.putInt(reference.length).put(reference);
+        out.putInt(200).putInt(100).putInt(10).putInt(20).putInt(10);
+        out.put(new byte[20 * 10]);
+        out.putInt(2);
+        out.put((byte) Side.friend.ordinal()).putDouble(50).putDouble(60).putInt(2).putDouble(150).putDouble(60);
+        out.put((byte) Side.enemy.ordinal()).putDouble(160).putDouble(50).putInt(0);
+        Path file = folder.resolve("old.fksc");
+        Files.write(file, Arrays.copyOf(out.array(), out.position()));
+
+        ScenarioFile opened = ScenarioFile.read(file);
+        Simulation read = opened.getSimulation();
+
+        assertEquals("old.png", opened.getMapReference());
+        assertEquals(2, read.getIdLimit());
+        assertEquals(1, read.getStrength(0));
+        assertEquals(1, read.getStrength(1));
+        assertArrayEquals(new double[] {150, 60}, read.getWaypoints(0));
+        assertEquals(Side.enemy, read.getSide(1));
+    }
+
+    @Test
+    void cutOffFileIsRejected() throws IOException{
+        Simulation simulation = new Simulation(TerrainGrid.open(200, 100));
+        simulation.addUnit(50, 50, Side.friend);
+        Path file = folder.resolve("whole.fksc");
+        ScenarioFile.write(file, simulation, "");
+
+        byte[] bytes = Files.readAllBytes(file);
+        Path cut = folder.resolve("cut.fksc");
+        Files.write(cut, Arrays.copyOf(bytes, bytes.length - 4));
+
+        assertThrows(IOException.class, () -> ScenarioFile.read(cut));
+    }
+}
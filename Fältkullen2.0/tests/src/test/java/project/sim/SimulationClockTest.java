@@ -0,0 +1,95 @@
+/* Tests how many ticks the clock runs for the wall time that passes: time left over from a frame is kept for the next
+ * one, faster speeds run more ticks in bigger steps, and a long freeze or a pause is not caught up on.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulationClockTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final SimulationClock clock = new SimulationClock();
+
+    // the number of steps of every call to the ticker
+    private final List<Integer> steps = new ArrayList<>();
+
+    @Test
+    void frameAtTickRateRunsOneTick(){
+        clock.advance(steps::add, 0);
+        int ticks = 0;
+        for(int frame = 1; frame <= 600; frame++){
+            ticks += clock.advance(steps::add, frame * SECOND / 60);
+        }
+
+        // (rounding can leave a frame a hair short of a tick, which the next frame then makes up for)
+        assertEquals(600, ticks, 1);
+        assertTrue(steps.stream().allMatch(step -> step <= 2));
+    }
+
+    @Test
+    void timeLeftOverIsKeptForTheNextFrame(){
+        // every frame is half a tick long, so only every other frame runs a tick
+        clock.advance(steps::add, 0);
+        int ticks = 0;
+        for(int frame = 1; frame <= 1200; frame++){
+            ticks += clock.advance(steps::add, frame * SECOND / 120);
+        }
+
+        assertEquals(600, ticks, 1);
+        assertEquals(ticks, steps.size());
+    }
+
+    @Test
+    void fasterSpeedRunsBiggerSteps(){
+        clock.setSpeed(100);
+        clock.advance(steps::add, 0);
+
+        // a tenth of a second is ten simulated seconds
+        int ticks = clock.advance(steps::add, SECOND / 10);
+
+        assertEquals(600, ticks, 1);
+        assertEquals(ticks, steps.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(steps.size() <= 11);
+    }
+
+    @Test
+    void freezeIsNotCaughtUp(){
+        clock.advance(steps::add, 0);
+
+        int ticks = clock.advance(steps::add, 10 * SECOND);
+
+        assertEquals(15, ticks, 1);
+    }
+
+    @Test
+    void pauseRunsNothingAndIsNotCaughtUp(){
+        clock.advance(steps::add, 0);
+        clock.setPaused(true);
+        assertEquals(0, clock.advance(steps::add, SECOND / 10));
+
+        clock.setPaused(false);
+        assertEquals(0, clock.advance(steps::add, SECOND / 10));
+        assertEquals(6, clock.advance(steps::add, 2 * SECOND / 10), 1);
+    }
+
+    @Test
+    void deterministicClockRunsSingleTicks(){
+        Simulation simulation = new Simulation(TerrainGrid.open(1000, 500));
+        clock.setSpeed(10);
+        clock.setDeterministic(true);
+        clock.advance(simulation, 0);
+
+        int ticks = clock.advance(simulation, SECOND / 10);
+
+        assertEquals(60, ticks, 1);
+        assertEquals(ticks, simulation.getTickCount());
+        assertEquals(ticks, simulation.getTickTimes().getCount());
+    }
+}
@@ -0,0 +1,78 @@
+/* Tests for moving units in fixed steps without a window: move orders, manual movement and the edges of the map.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulationTest {
+    private static final double TOLERANCE = 1e-9;
+
+    private final Simulation simulation = new Simulation(TerrainGrid.open(1000, 500));
+
+    @Test
+    void orderTakesOneTickPerStep(){
+        int unit = simulation.addUnit(100, 100, Side.friend);
+        assertTrue(simulation.orderMoveTo(unit, 400, 100));
+
+        for(int i = 0; i < 299; i++) simulation.tick();
+        assertTrue(simulation.hasOrder(unit));
+        assertEquals(100 + 299 * Simulation.MOVEMENT_SPEED, simulation.getX(unit), TOLERANCE);
+
+        simulation.tick();
+        assertFalse(simulation.hasOrder(unit));
+        assertEquals(400, simulation.getX(unit), TOLERANCE);
+        assertEquals(100, simulation.getY(unit), TOLERANCE);
+        assertEquals(0, simulation.countUnitsWithOrders());
+    }
+
+    @Test
+    void manyStepsAtOnceEndWhereSingleStepsDo(){
+        Simulation stepped = new Simulation(TerrainGrid.open(1000, 500));
+        int unit = simulation.addUnit(100, 100, Side.friend);
+        int same = stepped.addUnit(100, 100, Side.friend);
+        double[] waypoints = {300, 100, 300, 400, 700, 200};
+        simulation.orderMoveAlong(unit, waypoints);
+        stepped.orderMoveAlong(same, waypoints);
+
+        simulation.tick(500);
+        for(int i = 0; i < 500; i++) stepped.tick();
+
+        assertEquals(stepped.getX(same), simulation.getX(unit), 1e-6);
+        assertEquals(stepped.getY(same), simulation.getY(unit), 1e-6);
+        assertEquals(stepped.getWaypointIndex(same), simulation.getWaypointIndex(unit));
+    }
+
+    @Test
+    void manualInputMovesUntilReleased(){
+        int unit = simulation.addUnit(500, 250, Side.friend);
+
+        simulation.setManualInput(unit, 1, -1, false);
+        for(int i = 0; i < 10; i++) simulation.tick();
+        simulation.setManualInput(unit, 1, 0, true);
+        for(int i = 0; i < 10; i++) simulation.tick();
+        simulation.setManualInput(unit, 0, 0, false);
+        simulation.tick();
+
+        assertEquals(500 + 10 * Simulation.MOVEMENT_SPEED * (1 + Simulation.RUN_MULTIPLIER), simulation.getX(unit), TOLERANCE);
+        assertEquals(250 - 10 * Simulation.MOVEMENT_SPEED, simulation.getY(unit), TOLERANCE);
+    }
+
+    @Test
+    void unitsStayInsideTheMap(){
+        double half = Simulation.UNIT_SIZE / 2;
+        assertEquals(-1, simulation.addUnit(half - 1, 100, Side.friend));
+        assertFalse(simulation.orderMoveTo(simulation.addUnit(100, 100, Side.friend), 100, 500));
+
+        int unit = simulation.addUnit(half + 5, 100, Side.enemy);
+        simulation.setManualInput(unit, -1, 0, true);
+        for(int i = 0; i < 10; i++) simulation.tick();
+
+        assertTrue(simulation.getX(unit) >= half);
+        assertEquals(2, simulation.countUnits(Side.friend) + simulation.countUnits(Side.enemy));
+    }
+}
@@ -0,0 +1,105 @@
+/* Tests for branching and rewinding a simulation with snapshots: a restored simulation is the one the snapshot was
+ * taken of, whatever happened in between and however often it is restored, and plays on the same way.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotTest {
+    private Simulation simulation;
+    private int friend, enemy, walker;
+
+    @BeforeEach
+    void startSimulation(){
+        simulation = new Simulation(TerrainGrid.open(2000, 1000));
+        friend = simulation.addUnit(100, 100, Side.friend);
+        enemy = simulation.addUnit(700, 100, Side.enemy);
+        walker = simulation.addUnit(100, 800, Side.friend);
+        simulation.orderMoveTo(friend, 700, 100);
+        simulation.orderMoveAlong(walker, new double[] {1800, 800, 1800, 200});
+        simulation.tick(300);
+    }
+
+    @Test
+    void restoreGoesBackToTheSnapshot(){
+        Simulation.Snapshot snapshot = simulation.takeSnapshot();
+        double[] before = state(simulation);
+
+        simulation.tick(1000);
+        simulation.removeUnit(walker);
+        simulation.addUnit(500, 500, Side.enemy);
+        simulation.restoreSnapshot(snapshot);
+
+        assertEquals(300, simulation.getTickCount());
+        assertArrayEquals(before, state(simulation));
+        assertTrue(simulation.hasOrder(friend));
+        assertEquals(3, simulation.getIdLimit());
+        assertEquals(1, simulation.countUnits(Side.enemy));
+    }
+
+    @Test
+    void restoredSimulationPlaysOnTheSameWay(){
+        Simulation.Snapshot snapshot = simulation.takeSnapshot();
+        simulation.tick(2000);
+        double[] played = state(simulation);
+        int engagements = simulation.countEngagements();
+
+        // another branch, then back and the first branch again, twice
+        for(int i = 0; i < 2; i++){
+            simulation.restoreSnapshot(snapshot);
+            simulation.setManualInput(walker, 0, -1, true);
+            simulation.tick(500);
+            simulation.restoreSnapshot(snapshot);
+            simulation.tick(2000);
+
+            assertArrayEquals(played, state(simulation));
+            assertEquals(engagements, simulation.countEngagements());
+        }
+    }
+
+    @Test
+    void restoringRebuildsWhatTheUnitsSee(){
+        // (the friend would catch up with the enemy on its way)
+        simulation.removeUnit(friend);
+        Simulation.Snapshot snapshot = simulation.takeSnapshot();
+        assertFalse(simulation.isVisibleTo(Side.enemy, walker));
+
+        // the enemy walks over to where the walker will be by then
+        simulation.orderMoveTo(enemy, 1300, 500);
+        simulation.tick(1000);
+        assertTrue(simulation.isVisibleTo(Side.enemy, walker));
+
+        simulation.restoreSnapshot(snapshot);
+        assertFalse(simulation.isVisibleTo(Side.enemy, walker));
+        assertEquals(100, simulation.getY(enemy));
+    }
+
+    @Test
+    void snapshotOfAnotherMapIsRejected(){
+        Simulation.Snapshot snapshot = simulation.takeSnapshot();
+        simulation.setTerrain(TerrainGrid.open(2000, 1000));
+
+        assertFalse(simulation.canRestore(snapshot));
+        assertThrows(IllegalArgumentException.class, () -> simulation.restoreSnapshot(snapshot));
+    }
+
+    // helper method, the position and strength of every unit, NaN for units that are gone
+    private static double[] state(Simulation simulation){
+        double[] state = new double[3 * simulation.getIdLimit()];
+        for(int id = 0; id < simulation.getIdLimit(); id++){
+            boolean alive = simulation.isAlive(id);
+            state[3 * id] = alive ? simulation.getX(id) : Double.NaN;
+            state[3 * id + 1] = alive ? simulation.getY(id) : Double.NaN;
+            state[3 * id + 2] = alive ? simulation.getStrength(id) : Double.NaN;
+        }
+        return state;
+    }
+}
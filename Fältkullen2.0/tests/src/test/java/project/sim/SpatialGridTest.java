@@ -0,0 +1,88 @@
+/* Tests for finding contacts along a move: the grid on its own, and a unit moving far enough in one tick to pass over
+ * an enemy without ever standing on it.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpatialGridTest {
+    private static final double SIZE = Simulation.UNIT_SIZE;
+
+    // positions of the units in the grids below, by id
+    private final double[] xs = new double[8], ys = new double[8];
+
+    private final SpatialGrid grid = new SpatialGrid(2000, 1000, SIZE, new SpatialGrid.PositionSource() {
+        @Override
+        public double getX(int id){
+            return xs[id];
+        }
+
+        @Override
+        public double getY(int id){
+            return ys[id];
+        }
+    });
+
+    @Test
+    void findsUnitPassedOverInOneMove(){
+        place(0, 500, 100);
+
+        // neither end of the move is near the unit, only the way between them
+        assertEquals(-1, grid.findOverlapping(100, 100, SIZE, id -> true));
+        assertEquals(-1, grid.findOverlapping(900, 100, SIZE, id -> true));
+        assertEquals(0, grid.findFirstOverlapping(100, 100, 900, 100, SIZE, id -> true));
+    }
+
+    @Test
+    void findsUnitReachedFirst(){
+        place(0, 700, 300);
+        place(1, 400, 300);
+        place(2, 550, 330);
+
+        assertEquals(1, grid.findFirstOverlapping(100, 300, 900, 300, SIZE, id -> true));
+        assertEquals(0, grid.findFirstOverlapping(900, 300, 100, 300, SIZE, id -> true));
+    }
+
+    @Test
+    void missesUnitBesideTheWay(){
+        place(0, 500, 100 + SIZE + 1);
+
+        assertEquals(-1, grid.findFirstOverlapping(100, 100, 900, 100, SIZE, id -> true));
+    }
+
+    @Test
+    void skipsUnitsNotAccepted(){
+        place(0, 400, 100);
+        place(1, 600, 100);
+
+        assertEquals(1, grid.findFirstOverlapping(100, 100, 900, 100, SIZE, id -> id != 0));
+    }
+
+    @Test
+    void unitMovingManyStepsAtOnceStopsAtEnemy(){
+        Simulation simulation = new Simulation(TerrainGrid.open(2000, 1000));
+        int friend = simulation.addUnit(100, 500, Side.friend);
+        int enemy = simulation.addUnit(300, 500, Side.enemy);
+        simulation.orderMoveTo(friend, 1900, 500);
+
+        // far enough to end well past the enemy if only where the unit ends up were checked
+        simulation.tick(400);
+
+        assertFalse(simulation.hasOrder(friend));
+        assertEquals(1, simulation.countEngagements());
+        assertEquals(300, simulation.getX(enemy));
+        assertTrue(simulation.getX(friend) < 300);
+    }
+
+    // helper method
+    private void place(int id, double x, double y){
+        xs[id] = x;
+        ys[id] = y;
+        grid.insert(id, x, y);
+    }
+}
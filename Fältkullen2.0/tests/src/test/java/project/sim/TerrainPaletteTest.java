@@ -0,0 +1,116 @@
+/* Tests for classifying map colors: the lookup table gives exactly what the rules say for every one of the 16M colors,
+ * also in the blocks the edges of the rules cut through, the standard palette knows the colors of the example map, and
+ * palette files are found next to their map and checked when they are read.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TerrainPaletteTest {
+    // the colors of res/karta.png
+    private static final int KARTA_OPEN = 0xFF22B14C, KARTA_WATER = 0xFF00A2E8, KARTA_URBAN = 0xFFED1C24;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void lookupGivesExactlyTheRules() throws IOException{
+        // edges that are not on the edges of the blocks of the table, and rules that overlap, so the first one decides
+        int[][] rules = {
+                {TerrainGrid.FOREST, 13, 98, 61, 149, 0, 90},
+                {TerrainGrid.WATER, 0, 255, 0, 255, 235, 255},
+                {TerrainGrid.ROAD, 201, 255, 117, 190, 3, 81},
+                {TerrainGrid.IMPASSABLE, 0, 40, 0, 40, 0, 40},
+                {TerrainGrid.MARSH, 50, 50, 50, 250, 1, 254}
+        };
+        String[] names = {"open", "water", "forest", "road", "urban", "marsh", "impassable"};
+        StringBuilder text = new StringBuilder("# class red green blue\n\n");
+        for(int[] rule : rules){
+            text.append(names[rule[0]]).append("  ").append(rule[1]).append('-').append(rule[2])
+                    .append(' ').append(rule[3]).append('-').append(rule[4])
+                    .append(' ').append(rule[5]).append('-').append(rule[6]).append('\n');
+        }
+        Path file = folder.resolve("test.terrain");
+        Files.writeString(file, text);
+        TerrainPalette palette = TerrainPalette.read(file);
+
+        for(int rgb = 0; rgb < 1 << 24; rgb++){
+            int red = rgb >> 16, green = (rgb >> 8) & 0xFF, blue = rgb & 0xFF;
+            byte expected = TerrainGrid.OPEN;
+            for(int[] rule : rules){
+                if(red >= rule[1] && red <= rule[2] && green >= rule[3] && green <= rule[4] && blue >= rule[5] && blue <= rule[6]){
+                    expected = (byte) rule[0];
+                    break;
+                }
+            }
+            if(palette.classify(0xFF000000 | rgb) != expected){
+                assertEquals(expected, palette.classify(0xFF000000 | rgb), "color " + Integer.toHexString(rgb));
+            }
+        }
+    }
+
+    @Test
+    void standardPaletteKnowsTheExampleMap(){
+        TerrainPalette standard = TerrainPalette.standard();
+
+        assertEquals(TerrainGrid.OPEN, standard.classify(KARTA_OPEN));
+        assertEquals(TerrainGrid.WATER, standard.classify(KARTA_WATER));
+        assertEquals(TerrainGrid.URBAN, standard.classify(KARTA_URBAN));
+        assertEquals(TerrainGrid.FOREST, standard.classify(0xFF228B22));
+        assertEquals(TerrainGrid.ROAD, standard.classify(0xFFF0A030));
+        assertEquals(TerrainGrid.MARSH, standard.classify(0xFF40A090));
+        assertEquals(TerrainGrid.URBAN, standard.classify(0xFF808080));
+        assertEquals(TerrainGrid.OPEN, standard.classify(0xFF000000));
+    }
+
+    @Test
+    void standardPaletteKeepsTheOldWater(){
+        TerrainPalette standard = TerrainPalette.standard();
+        for(int rgb = 0; rgb < 1 << 16; rgb++){
+            for(int blue = 235; blue < 256; blue++){
+                if(standard.classify(0xFF000000 | rgb << 8 | blue) != TerrainGrid.WATER){
+                    assertEquals(TerrainGrid.WATER, standard.classify(0xFF000000 | rgb << 8 | blue));
+                }
+            }
+        }
+    }
+
+    @Test
+    void bundledPaletteFileGivesTheSameAsTheStandardPalette() throws IOException{
+        TerrainPalette karta = TerrainPalette.read(Path.of("../src/project/res/karta.png" + TerrainPalette.FILE_EXTENSION));
+
+        for(int color : new int[] {KARTA_OPEN, KARTA_WATER, KARTA_URBAN}){
+            assertEquals(TerrainPalette.standard().classify(color), karta.classify(color));
+        }
+    }
+
+    @Test
+    void paletteFileIsFoundNextToTheMap() throws IOException{
+        Path map = folder.resolve("map.png");
+        assertSame(TerrainPalette.standard(), TerrainPalette.forMap(map));
+
+        Files.writeString(folder.resolve("map.png" + TerrainPalette.FILE_EXTENSION), "impassable 0-40 0-40 0-40\n");
+        TerrainPalette palette = TerrainPalette.forMap(map);
+        assertEquals(TerrainGrid.IMPASSABLE, palette.classify(0xFF101010));
+        assertEquals(TerrainGrid.OPEN, palette.classify(KARTA_WATER));
+    }
+
+    @Test
+    void badLinesAreRejected() throws IOException{
+        for(String line : new String[] {"swamp 0-10 0-10 0-10", "water 0-10 0-10", "water 0-300 0-10 0-10", "water 20-10 0 0", "water a-b 0 0"}){
+            Path file = folder.resolve("bad.terrain");
+            Files.writeString(file, "# comment\n" + line + "\n");
+            assertThrows(IOException.class, () -> TerrainPalette.read(file), line);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* Tests for the groups of units shown on a zoomed out map: the sums kept as units come, move and go are exactly those
+ * of adding up the units there are, every level holds all units, and the simulation keeps its groups up to date as its
+ * units walk and fight.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UnitClustersTest {
+    private final TerrainGrid terrain = TerrainGrid.open(4000, 3000);
+
+    @Test
+    void sumsAreThoseOfTheUnitsThereAre(){
+        UnitClusters kept = new UnitClusters(terrain);
+        List<int[]> units = new ArrayList<>();
+
+        // units as {side, x, y, strength}, added, moved and taken away in any order
+        SplittableRandom random = new SplittableRandom(3);
+        for(int i = 0; i < 5000; i++){
+            int choice = units.isEmpty() ? 0 : random.nextInt(3);
+            if(choice == 0){
+                int[] unit = {random.nextInt(2), random.nextInt(4000), random.nextInt(3000), random.nextInt(1001)};
+                add(kept, unit);
+                units.add(unit);
+            }
+            else if(choice == 1){
+                int[] unit = units.get(random.nextInt(units.size()));
+                remove(kept, unit);
+                unit[1] = Math.max(0, Math.min(3999, unit[1] + random.nextInt(-300, 301)));
+                unit[2] = Math.max(0, Math.min(2999, unit[2] + random.nextInt(-300, 301)));
+                unit[3] = random.nextInt(1001);
+                add(kept, unit);
+            }
+            else{
+                remove(kept, units.remove(random.nextInt(units.size())));
+            }
+        }
+
+        UnitClusters fresh = new UnitClusters(terrain);
+        for(int[] unit : units){
+            add(fresh, unit);
+        }
+        assertSameGroups(fresh, kept);
+    }
+
+    @Test
+    void groupHasTheMiddleAndStrengthOfItsUnits(){
+        UnitClusters clusters = new UnitClusters(terrain);
+        clusters.add(Side.friend, 10, 20, UnitClusters.scaleStrength(1));
+        clusters.add(Side.friend, 30, 60, UnitClusters.scaleStrength(0.5));
+        clusters.add(Side.enemy, 20, 20, UnitClusters.scaleStrength(0.25));
+
+        for(int level = 0; level < UnitClusters.LEVELS; level++){
+            assertEquals(2, clusters.getCount(Side.friend, level, 0));
+            assertEquals(1.5, clusters.getStrength(Side.friend, level, 0));
+            assertEquals(20, clusters.getCenterX(Side.friend, level, 0));
+            assertEquals(40, clusters.getCenterY(Side.friend, level, 0));
+            assertEquals(0.25, clusters.getStrength(Side.enemy, level, 0));
+        }
+    }
+
+    @Test
+    void everyLevelHoldsAllUnits(){
+        UnitClusters clusters = new UnitClusters(terrain);
+        SplittableRandom random = new SplittableRandom(4);
+        for(int i = 0; i < 1000; i++){
+            clusters.add(Side.enemy, random.nextInt(4000), random.nextInt(3000), UnitClusters.scaleStrength(1));
+        }
+
+        for(int level = 0; level < UnitClusters.LEVELS; level++){
+            int total = 0;
+            for(int cell = 0; cell < clusters.getColumns(level) * clusters.getRows(level); cell++){
+                total += clusters.getCount(Side.enemy, level, cell);
+            }
+            assertEquals(1000, total);
+        }
+        assertEquals(UnitClusters.PLATOON_CELL_SIZE * 16, clusters.getCellSize(UnitClusters.BATTALION));
+    }
+
+    @Test
+    void simulationKeepsItsGroupsUpToDate(){
+        Simulation simulation = new Simulation(terrain);
+        for(int i = 0; i < 20; i++){
+            int friend = simulation.addUnit(100 + 150 * i, 500, Side.friend);
+            simulation.addUnit(100 + 150 * i, 1500, Side.enemy);
+            simulation.orderMoveTo(friend, 100 + 150 * i, 1500);
+        }
+        int removed = simulation.addUnit(2000, 2500, Side.friend);
+        simulation.removeUnit(removed);
+
+        // walking, fighting, and some of them destroyed
+        for(int i = 0; i < 2000; i++){
+            simulation.tick(i % 5 == 0 ? 4 : 1);
+        }
+
+        UnitClusters fresh = new UnitClusters(terrain);
+        for(int id = 0; id < simulation.getIdLimit(); id++){
+            if(!simulation.isAlive(id)) continue;
+            fresh.add(simulation.getSide(id), (int) simulation.getX(id), (int) simulation.getY(id),
+                    UnitClusters.scaleStrength(simulation.getStrength(id)));
+        }
+        assertSameGroups(fresh, simulation.getUnitClusters());
+    }
+
+    // helper methods, add and take away a unit given as {side, x, y, strength}
+    private static void add(UnitClusters clusters, int[] unit){
+        clusters.add(Side.values()[unit[0]], unit[1], unit[2], unit[3]);
+    }
+
+    private static void remove(UnitClusters clusters, int[] unit){
+        clusters.remove(Side.values()[unit[0]], unit[1], unit[2], unit[3]);
+    }
+
+    // helper method
+    private static void assertSameGroups(UnitClusters expected, UnitClusters actual){
+        for(Side side : Side.values()){
+            for(int level = 0; level < UnitClusters.LEVELS; level++){
+                for(int cell = 0; cell < expected.getColumns(level) * expected.getRows(level); cell++){
+                    int count = expected.getCount(side, level, cell);
+                    assertEquals(count, actual.getCount(side, level, cell));
+                    assertEquals(expected.getStrength(side, level, cell), actual.getStrength(side, level, cell));
+                    if(count == 0) continue;
+                    assertEquals(expected.getCenterX(side, level, cell), actual.getCenterX(side, level, cell));
+                    assertEquals(expected.getCenterY(side, level, cell), actual.getCenterY(side, level, cell));
+                }
+            }
+        }
+    }
+}
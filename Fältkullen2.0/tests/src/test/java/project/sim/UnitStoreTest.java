@@ -0,0 +1,109 @@
+/* Tests for the struct-of-arrays unit store: ids and slots, growing past one level of the tree, and copy-on-write, so a
+ * frozen state never sees a change made after it and only the chunks that changed are copied.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnitStoreTest {
+    private final UnitStore units = new UnitStore();
+
+    @Test
+    void unitsAreStoredByIdInChunks(){
+        for(int id = 0; id < 3 * UnitStore.CHUNK_SIZE; id++){
+            assertEquals(id, units.add(id % 2 == 0 ? Side.friend : Side.enemy, id, 2 * id));
+        }
+
+        int id = UnitStore.CHUNK_SIZE + 5;
+        UnitStore.Chunk c = units.chunk(id);
+        assertEquals(UnitStore.CHUNK_SIZE, c.firstId);
+        assertEquals(id, c.x[5]);
+        assertEquals(2 * id, c.y[5]);
+        assertEquals(Side.enemy, c.sideOf(5));
+        assertEquals(1, c.strength[5]);
+        assertFalse(c.hasOrder[5]);
+    }
+
+    @Test
+    void removedIdIsNotGivenOutAgain(){
+        int first = units.add(Side.friend, 1, 1);
+        units.remove(first);
+
+        assertFalse(units.isAlive(first));
+        assertEquals(first + 1, units.add(Side.friend, 2, 2));
+        assertFalse(units.isAlive(first + 2));
+    }
+
+    @Test
+    void storeGrowsPastOneNodeOfChunks(){
+        // more chunks than fit under the first root, so the tree gets another level
+        int count = 64 * UnitStore.CHUNK_SIZE + 3;
+        for(int id = 0; id < count; id++){
+            units.add(Side.friend, id, 0);
+        }
+        UnitStore.Frozen frozen = units.freeze();
+        units.chunkForWrite(count - 1).x[(count - 1) & UnitStore.SLOT_MASK] = -1;
+
+        assertEquals(count, units.size());
+        for(int id = 0; id < count - 1; id += 97){
+            assertEquals(id, units.chunk(id).x[id & UnitStore.SLOT_MASK]);
+        }
+        assertEquals(-1, units.chunk(count - 1).x[(count - 1) & UnitStore.SLOT_MASK]);
+        assertEquals(count - 1, frozen.chunk(count - 1).x[(count - 1) & UnitStore.SLOT_MASK]);
+    }
+
+    @Test
+    void frozenStateKeepsWhatItHad(){
+        for(int id = 0; id < 4 * UnitStore.CHUNK_SIZE; id++){
+            units.add(Side.friend, id, 0);
+        }
+        UnitStore.Frozen frozen = units.freeze();
+
+        int moved = UnitStore.CHUNK_SIZE + 1;
+        units.chunkForWrite(moved).x[moved & UnitStore.SLOT_MASK] = 1000;
+        units.remove(3);
+        int added = units.add(Side.enemy, 5, 5);
+
+        assertEquals(moved, frozen.chunk(moved).x[moved & UnitStore.SLOT_MASK]);
+        assertTrue(frozen.isAlive(3));
+        assertFalse(frozen.isAlive(added));
+        assertEquals(4 * UnitStore.CHUNK_SIZE, frozen.size());
+
+        // only the chunks that changed were copied, the others are still shared
+        assertNotSame(frozen.chunk(moved), units.chunk(moved));
+        assertNotSame(frozen.chunk(3), units.chunk(3));
+        assertSame(frozen.chunk(2 * UnitStore.CHUNK_SIZE), units.chunk(2 * UnitStore.CHUNK_SIZE));
+    }
+
+    @Test
+    void chunkIsCopiedOnlyOnceAfterFreezing(){
+        units.add(Side.friend, 1, 1);
+        units.freeze();
+
+        UnitStore.Chunk copy = units.chunkForWrite(0);
+        assertSame(copy, units.chunkForWrite(0));
+    }
+
+    @Test
+    void restoredStateCanBeRestoredAgain(){
+        units.add(Side.friend, 1, 1);
+        UnitStore.Frozen frozen = units.freeze();
+
+        for(int branch = 0; branch < 3; branch++){
+            units.chunkForWrite(0).x[0] = 100 + branch;
+            units.add(Side.enemy, 2, 2);
+            assertEquals(100 + branch, units.chunk(0).x[0]);
+
+            units.restore(frozen);
+            assertEquals(1, units.size());
+            assertEquals(1, units.chunk(0).x[0]);
+        }
+    }
+}
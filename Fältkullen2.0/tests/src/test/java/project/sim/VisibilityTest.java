@@ -0,0 +1,117 @@
+/* Tests for what each side sees: the viewer counts kept as units come and go give the same picture as working it out
+ * from scratch, sight ends at SENSOR_RANGE, and ground that blocks sight hides what is behind it but not itself.
+ */
+
+package project.sim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VisibilityTest {
+    private static final double CELL = Visibility.CELL_SIZE;
+
+    @Test
+    void countsGiveTheSameAsStartingOver(){
+        TerrainGrid terrain = forestStrip();
+        Visibility kept = new Visibility(terrain);
+        List<Integer> viewers = new ArrayList<>();
+
+        // units come, move on and go, and only what changed is added or taken away
+        SplittableRandom random = new SplittableRandom(5);
+        for(int i = 0; i < 300; i++){
+            if(viewers.isEmpty() || random.nextInt(3) != 0){
+                int cell = kept.cellAt(random.nextDouble(terrain.getWidth()), random.nextDouble(terrain.getHeight()));
+                kept.addViewer(Side.friend, cell);
+                viewers.add(cell);
+            }
+            else{
+                kept.removeViewer(Side.friend, viewers.remove(random.nextInt(viewers.size())));
+            }
+        }
+
+        Visibility fresh = new Visibility(terrain);
+        for(int cell : viewers){
+            fresh.addViewer(Side.friend, cell);
+        }
+        for(int row = 0; row < kept.getRows(); row++){
+            for(int column = 0; column < kept.getColumns(); column++){
+                assertEquals(fresh.isCellVisible(Side.friend, column, row), kept.isCellVisible(Side.friend, column, row));
+                assertFalse(kept.isCellVisible(Side.enemy, column, row));
+            }
+        }
+    }
+
+    @Test
+    void cellStaysVisibleWhileAnyUnitSeesIt(){
+        Visibility visibility = new Visibility(TerrainGrid.open(2000, 1000));
+        int first = visibility.cellAt(500, 500), second = visibility.cellAt(700, 500);
+
+        visibility.addViewer(Side.enemy, first);
+        visibility.addViewer(Side.enemy, second);
+        visibility.removeViewer(Side.enemy, first);
+        assertTrue(visibility.isVisible(Side.enemy, 600, 500));
+        assertFalse(visibility.isVisible(Side.enemy, 100, 500));
+
+        visibility.removeViewer(Side.enemy, second);
+        assertFalse(visibility.isVisible(Side.enemy, 600, 500));
+    }
+
+    @Test
+    void sightEndsAtSensorRange(){
+        Visibility visibility = new Visibility(TerrainGrid.open(2000, 1000));
+        visibility.addViewer(Side.friend, visibility.cellAt(1000, 500));
+
+        assertTrue(visibility.isVisible(Side.friend, 1000 + Visibility.SENSOR_RANGE - CELL, 500));
+        assertFalse(visibility.isVisible(Side.friend, 1000 + Visibility.SENSOR_RANGE + CELL, 500));
+    }
+
+    @Test
+    void forestHidesWhatIsBehindIt(){
+        Visibility visibility = new Visibility(forestStrip());
+        visibility.addViewer(Side.friend, visibility.cellAt(800, 500));
+
+        // the strip runs across the whole map from x 960 to 1024
+        assertTrue(visibility.isVisible(Side.friend, 900, 500));
+        assertTrue(visibility.isVisible(Side.friend, 970, 500));
+        assertFalse(visibility.isVisible(Side.friend, 1100, 500));
+
+        // without the strip the same cell is seen
+        Visibility open = new Visibility(TerrainGrid.open(2000, 1000));
+        open.addViewer(Side.friend, open.cellAt(800, 500));
+        assertTrue(open.isVisible(Side.friend, 1100, 500));
+    }
+
+    @Test
+    void simulationShowsEnemyOnceItIsInRange(){
+        Simulation simulation = new Simulation(TerrainGrid.open(2000, 1000));
+        int friend = simulation.addUnit(100, 500, Side.friend);
+        int enemy = simulation.addUnit(1100, 500, Side.enemy);
+        assertFalse(simulation.isVisibleTo(Side.friend, enemy));
+        assertTrue(simulation.isVisibleTo(Side.enemy, enemy));
+
+        simulation.orderMoveTo(friend, 700, 500);
+        simulation.tick(600);
+
+        assertTrue(simulation.isVisibleTo(Side.friend, enemy));
+        assertTrue(simulation.isVisibleTo(Side.enemy, friend));
+    }
+
+    // helper method, open ground with a strip of forest across the whole map
+    private static TerrainGrid forestStrip(){
+        int width = 2000, height = 1000;
+        byte[] cells = new byte[width * height];
+        for(int y = 0; y < height; y++){
+            for(int x = 960; x < 1024; x++){
+                cells[y * width + x] = TerrainGrid.FOREST;
+            }
+        }
+        return TerrainGrid.fromCells(cells, width, height, 1);
+    }
+}